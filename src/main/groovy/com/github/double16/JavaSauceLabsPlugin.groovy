@@ -12,10 +12,45 @@ import org.gradle.api.tasks.testing.TestOutputEvent
 import org.gradle.api.tasks.testing.TestOutputListener
 import org.gradle.api.tasks.testing.TestResult
 
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 import java.util.regex.Matcher
 import java.util.regex.Pattern
 
 class JavaSauceLabsPlugin implements Plugin<Project> {
+  /** Sauce Labs quits sessions idle for 90 seconds by default, give up on them before that */
+  private static final int DEFAULT_BROKER_MAX_IDLE_SECONDS = 80
+
+  private WebDriverBroker broker
+  /** the secret the test forks send with each broker request, any local user can connect to the broker */
+  private String brokerToken
+
+  /**
+   * Start the broker that shares Sauce Labs sessions between the test forks of this build, if not already started.
+   *
+   * @return null if the broker was started for another grid
+   */
+  private synchronized WebDriverBroker startBroker(Project project, URL grid) {
+    if (broker == null) {
+      int maxIdle = project.hasProperty('functionalTests.brokerMaxIdle') ?
+          project.property('functionalTests.brokerMaxIdle') as int : DEFAULT_BROKER_MAX_IDLE_SECONDS
+      brokerToken = WebDriverBroker.newToken()
+      broker = new WebDriverBroker(0, brokerToken, grid, maxIdle, TimeUnit.SECONDS)
+      project.gradle.buildFinished { stopBroker() }
+    } else if (!broker.isGrid(grid)) {
+      return null
+    }
+    broker
+  }
+
+  private synchronized void stopBroker() {
+    broker?.close()
+    broker = null
+    brokerToken = null
+  }
 
   void apply(Project project) {
     project.beforeEvaluate {
@@ -56,6 +91,21 @@ class JavaSauceLabsPlugin implements Plugin<Project> {
       group "Functional Test"
     }
 
+    // browsers that aren't available and the Chrome profile snapshot are shared by the test JVMs for one build
+    def resolutionCacheFile = project.file("${project.buildDir}/tmp/functionalTests/driver-resolution.properties")
+    def chromeProfileSnapshotDir = project.file("${project.buildDir}/tmp/functionalTests/chrome-profile")
+    project.gradle.taskGraph.whenReady {
+      resolutionCacheFile.delete()
+      project.delete(chromeProfileSnapshotDir)
+    }
+    // reports of all test JVMs of a build go into one run directory, older runs are pruned by the test JVMs. The id is set when
+    // the task runs, as a task input it would make the tests out of date on every build.
+    def runId = new Date().format('yyyyMMdd-HHmmss-SSS')
+    def retentionProperties = ['functionalTests.keepRuns', 'functionalTests.keepRunsMB'].findAll { project.hasProperty(it) }
+    // checksums verifying downloaded driver binaries
+    def checksumProperties = ['webdriver.chrome.driver.sha256', 'webdriver.ie.driver.sha256', 'phantomjs.binary.path.sha256']
+        .findAll { project.hasProperty(it) }
+
     project.tasks.create(name: "phantomJsTest", type: Test) {
       def reportDir = project.file("${project.buildDir}/test-results/phantomjs")
       group functionalTests.group()
@@ -65,6 +115,13 @@ class JavaSauceLabsPlugin implements Plugin<Project> {
       reports.html.destination = reportDir
       binResultsDir = reportDir
       systemProperty 'functionalTests.resultsDir', reportDir.getCanonicalPath()
+      systemProperty 'functionalTests.resolutionCacheFile', resolutionCacheFile.getCanonicalPath()
+      systemProperty 'functionalTests.chromeProfileSnapshotDir', chromeProfileSnapshotDir.getCanonicalPath()
+      doFirst {
+        systemProperty 'functionalTests.runId', runId
+      }
+      retentionProperties.each { systemProperty it, project.property(it) }
+      checksumProperties.each { systemProperty it, project.property(it) }
       if (project.plugins.findPlugin('org.akhikhl.gretty')) {
         dependsOn 'appBeforeIntegrationTest'
         finalizedBy 'appAfterIntegrationTest'
@@ -72,6 +129,9 @@ class JavaSauceLabsPlugin implements Plugin<Project> {
     }
     functionalTests.dependsOn "phantomJsTest"
 
+    boolean useBroker = project.hasProperty('functionalTests.broker') &&
+        Boolean.valueOf(project.property('functionalTests.broker') as String)
+
     project.extensions.browsers.all { BrowserSpec browserSpec ->
       def reportDir = project.file("${project.buildDir}/test-results/${browserSpec.displayName}")
       Test task = project.tasks.create(name: "${browserSpec.displayName}Test", type: Test) {
@@ -87,8 +147,28 @@ class JavaSauceLabsPlugin implements Plugin<Project> {
         reports.html.destination = reportDir
         binResultsDir = reportDir
         systemProperty 'functionalTests.resultsDir', reportDir.getCanonicalPath()
+        systemProperty 'functionalTests.resolutionCacheFile', resolutionCacheFile.getCanonicalPath()
+        systemProperty 'functionalTests.chromeProfileSnapshotDir', chromeProfileSnapshotDir.getCanonicalPath()
+        doFirst {
+          systemProperty 'functionalTests.runId', runId
+        }
+        retentionProperties.each { systemProperty it, project.property(it) }
+        checksumProperties.each { systemProperty it, project.property(it) }
         systemProperty 'saucelabs.job-name', project.name
         systemProperty 'saucelabs.build', project.version
+        if (useBroker) {
+          doFirst {
+            // the forks see the same grid, the broker quits idle sessions through it
+            String grid = systemProperties['SELENIUM_FULL_URL'] ?: environment['SELENIUM_FULL_URL']
+            WebDriverBroker started = grid ? startBroker(project, new URL(grid)) : null
+            if (started) {
+              systemProperty 'functionalTests.brokerPort', started.port
+              systemProperty 'functionalTests.brokerToken', brokerToken
+            } else {
+              logger.warn("Not sharing sessions of ${name}, the broker is for another grid or SELENIUM_FULL_URL is not set")
+            }
+          }
+        }
         if (project.plugins.findPlugin('org.akhikhl.gretty')) {
           dependsOn 'appBeforeIntegrationTest'
           finalizedBy 'appAfterIntegrationTest'
@@ -108,72 +188,139 @@ class JavaSauceLabsPlugin implements Plugin<Project> {
   }
 }
 
+/**
+ * Marks the Sauce Labs jobs used by the tests as passed or failed. Tests print "SauceOnDemandSessionID=<session id>" for each
+ * session they use, which may be shared by many tests when browsers are cached, and by concurrent tests in parallel forks. A job
+ * passed if every test that used it passed. Jobs are updated in the background when the test task finishes.
+ */
 class SauceListener implements TestListener, TestOutputListener {
-  private static final Pattern SESSION_ID_PATTERN = Pattern.compile("SauceOnDemandSessionID=(.+)");
+  private static final String SESSION_ID_MARKER = 'SauceOnDemandSessionID='
+  private static final Pattern SESSION_ID_PATTERN = Pattern.compile(SESSION_ID_MARKER + '(\\S+)')
+  private static final int UPDATE_THREADS = 4
+  private static final long UPDATE_TIMEOUT_SECONDS = 60
 
-  private SauceREST sauceREST;
-  private String sessionId;
+  private final SauceREST sauceREST
+  /** session id to the results of the tests that used it */
+  private final ConcurrentMap<String, SessionResult> sessions = new ConcurrentHashMap<String, SessionResult>()
+  /** sessions seen in the output of each running test or suite */
+  private final ConcurrentMap<TestDescriptor, Set<String>> testSessions = new ConcurrentHashMap<TestDescriptor, Set<String>>()
 
   SauceListener(String username, String accessKey) {
-    this.sauceREST = new SauceREST(username, accessKey);
+    this(new SauceREST(username, accessKey))
+  }
+
+  SauceListener(SauceREST sauceREST) {
+    this.sauceREST = sauceREST
   }
 
   void beforeTest(TestDescriptor testDescriptor) { }
   void beforeSuite(TestDescriptor suite) { }
-  void afterTest(TestDescriptor testDescriptor, TestResult result) { }
+
+  void afterTest(TestDescriptor testDescriptor, TestResult result) {
+    record(testDescriptor, result)
+  }
 
   void afterSuite(TestDescriptor suite, TestResult result) {
-    if (sessionId) {
-      if (result.getResultType() == TestResult.ResultType.FAILURE) {
-        markJobAsFailed(sessionId);
-      }
-      if (result.getResultType() == TestResult.ResultType.SUCCESS) {
-        markJobAsPassed(sessionId);
-      }
+    // sessions used outside of a test, i.e. in a class rule
+    record(suite, result)
+    if (suite.parent == null) {
+      updateJobs()
     }
   }
 
   void onOutput(TestDescriptor testDescriptor, TestOutputEvent outputEvent) {
-    Matcher matcher = SESSION_ID_PATTERN.matcher(outputEvent.getMessage());
-    if (matcher.find()) {
-      sessionId = matcher.group(1);
+    String message = outputEvent.getMessage()
+    // called for every line of output, avoid the regex unless needed
+    if (message == null || !message.contains(SESSION_ID_MARKER)) {
+      return
+    }
+    Matcher matcher = SESSION_ID_PATTERN.matcher(message)
+    while (matcher.find()) {
+      String sessionId = matcher.group(1)
+      sessions.putIfAbsent(sessionId, new SessionResult())
+      Set<String> ids = testSessions.get(testDescriptor)
+      if (ids == null) {
+        Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
+        ids = testSessions.putIfAbsent(testDescriptor, created) ?: created
+      }
+      ids.add(sessionId)
+    }
+  }
+
+  private void record(TestDescriptor descriptor, TestResult result) {
+    Set<String> ids = testSessions.remove(descriptor)
+    if (ids) {
+      for (String sessionId : ids) {
+        sessions.get(sessionId).record(result.getResultType())
+      }
     }
   }
 
   /**
-   * Marks a Sauce job as failed.
-   * @param sessionId the Sauce job id
+   * Send the result of each job, waiting for the updates to finish.
    */
-  private void markJobAsFailed(String sessionId) {
+  private void updateJobs() {
+    Map<String, SessionResult> results = new HashMap<String, SessionResult>(sessions)
+    sessions.clear()
+    if (results.isEmpty() || !this.sauceREST) {
+      return
+    }
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(UPDATE_THREADS, UPDATE_THREADS, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(UPDATE_THREADS * 16), new ThreadPoolExecutor.CallerRunsPolicy())
     try {
-      if (this.sauceREST && sessionId) {
-        Map<String, Object> updates = new HashMap<String, Object>();
-        updates.put("passed", false);
-        Utils.addBuildNumberToUpdate(updates);
-        sauceREST.updateJobInfo(sessionId, updates);
+      results.each { String sessionId, SessionResult sessionResult ->
+        Boolean passed = sessionResult.passed
+        if (passed != null) {
+          executor.execute { updateJob(sessionId, passed) }
+        }
+      }
+    } finally {
+      executor.shutdown()
+      if (!executor.awaitTermination(UPDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        System.err.println("Sauce Labs job updates did not finish in ${UPDATE_TIMEOUT_SECONDS}s")
+        executor.shutdownNow()
       }
-    } catch (IOException ioe) {
-      ioe.printStackTrace();
-      throw new RuntimeException(ioe);
     }
   }
 
   /**
-   * Marks a Sauce job as passed.
+   * Marks a Sauce job as passed or failed.
    * @param sessionId the Sauce job id
    */
-  private void markJobAsPassed(String sessionId) {
+  private void updateJob(String sessionId, boolean passed) {
     try {
-      if (this.sauceREST && sessionId) {
-        Map<String, Object> updates = new HashMap<String, Object>();
-        updates.put("passed", true);
-        Utils.addBuildNumberToUpdate(updates);
-        sauceREST.updateJobInfo(sessionId, updates);
+      Map<String, Object> updates = new HashMap<String, Object>();
+      updates.put("passed", passed);
+      Utils.addBuildNumberToUpdate(updates);
+      sauceREST.updateJobInfo(sessionId, updates);
+    } catch (Exception e) {
+      System.err.println("Error updating Sauce Labs job ${sessionId}: ${e}")
+    }
+  }
+
+  /**
+   * The aggregate result of the tests that used a session.
+   */
+  static class SessionResult {
+    private int passed
+    private int failed
+
+    synchronized void record(TestResult.ResultType resultType) {
+      if (resultType == TestResult.ResultType.FAILURE) {
+        failed++
+      } else if (resultType == TestResult.ResultType.SUCCESS) {
+        passed++
       }
+    }
 
-    } catch (IOException ioe) {
-      ioe.printStackTrace();
-      throw new RuntimeException(ioe);
+    /**
+     * @return null if no test passed or failed, i.e. all skipped
+     */
+    synchronized Boolean getPassed() {
+      if (failed > 0) {
+        return false
+      }
+      passed > 0 ? true : null
     }
   }
 }
@@ -3,17 +3,21 @@ package com.github.double16;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import com.saucelabs.saucerest.SauceREST;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.junit.After;
@@ -28,6 +32,7 @@ import org.junit.runners.Parameterized.Parameter;
 import org.openqa.selenium.Platform;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
 import org.openqa.selenium.remote.CapabilityType;
 import org.openqa.selenium.remote.DesiredCapabilities;
 import org.openqa.selenium.remote.RemoteWebDriver;
@@ -47,6 +52,58 @@ import org.openqa.selenium.support.ui.Wait;
  * 4. system property "functionalTests.browser" with grid properties to specify the browser, either newline or comma separate,
  * i.e. "browserName=firefox,platform=win7". "platform" must be an enum value from org.openqa.selenium.Platform or part defined in the enum constructor.
  *
+ * Browser caching:
+ * 1. system property "functionalTests.cacheBrowser", "false" creates a browser per test
+ * 2. system property "functionalTests.browserPoolSize", the number of browsers kept per browser spec for concurrent tests,
+ * the default of 0 shares one browser
+ * 3. system property "functionalTests.browserBorrowTimeout", seconds to wait for a pooled browser, the default of 0 waits indefinitely
+ * 4. system property "functionalTests.browserValidate", "false" skips the liveness check of a cached browser before each test
+ * 5. system properties "functionalTests.browserMaxIdle" and "functionalTests.browserMaxAge" in seconds, and
+ * "functionalTests.browserMaxUses", replace cached browsers beyond these limits, 0 (the default) is no limit
+ * 6. system property "functionalTests.resetBrowser", "false" leaves the browser state of a cached browser as the last test left
+ * it, by default cookies, storage, extra windows and alerts are cleared after each test. A {@link ResettableWebDriverFactory}
+ * may add application specific steps.
+ * 7. system property "functionalTests.prewarmBrowsers", "true" starts the browsers in the background as soon as the parameters
+ * are known, up to the pool size
+ * 8. system properties "functionalTests.browserQuitTimeout" and "functionalTests.shutdownTimeout", seconds to wait for each
+ * browser and all browsers to quit at exit, defaults are 30 and 60
+ * 9. system properties "functionalTests.brokerPort" and "functionalTests.brokerToken", the port and token of a
+ * {@link WebDriverBroker} on this host that shares Selenium grid sessions between JVMs, set by the Gradle plugin when the project
+ * property "functionalTests.broker" is "true"
+ * 10. system property "functionalTests.sharedDriverService", "false" starts a chromedriver process per browser, by default
+ * one process per JVM serves all Chrome sessions. PhantomJS always runs a process per browser.
+ * 11. system property "functionalTests.chromeProfileSnapshot", "true" starts Chrome with a copy of a user data directory
+ * prepared once per build, which skips first run work
+ * 12. system property "functionalTests.headless", "true" runs Chrome headless with a 1024x768 viewport, Firefox isn't available
+ * headless, and "functionalTests.pageLoadStrategy" sets the page load strategy of Chrome and Firefox
+ *
+ * Sauce Labs jobs are marked passed or failed in the background, see {@link SauceJobUpdater}. The system property
+ * "functionalTests.sauceFlushTimeout" is the seconds to wait at exit for updates to be sent, 30 by default.
+ *
+ * Report screenshots and HTML are written in the background, see {@link ReportWriter}. The system properties
+ * "functionalTests.reportWriterThreads" and "functionalTests.reportWriterQueue" size the writer, "0" threads writes on the test
+ * thread, and "functionalTests.reportFlushTimeout" is the seconds to wait at exit for reports to be written, 60 by default.
+ * "functionalTests.concurrentReportCapture", "false" fetches the screenshot and HTML one after the other.
+ * "functionalTests.domCapture", "outerHTML" captures the doctype and whole document in one script call, with
+ * "functionalTests.domCaptureStyles", "true" adding the page's stylesheet rules, and "functionalTests.reportCompressHtml", "true"
+ * writes the HTML gzipped. "functionalTests.screenshotDedup", "true" stores identical screenshots once and links them from the
+ * reports, see {@link ScreenshotStore}. "functionalTests.reportArchiveDir" appends all reports of the JVM to one indexed
+ * file instead of a file each, see {@link ReportArchive} and {@link ReportArchiveReader}. The archives are kept in runs/&lt;run
+ * id&gt; of that directory and pruned like the results.
+ * "functionalTests.reportPolicy" is "always", the default, to report at the end of each test, "on-failure" to write reports
+ * only for failed tests, including one at the failure, or "explicit" to write only the reports tests ask for, see
+ * {@link ReportPolicy}.
+ *
+ * Reports of each run are kept in runs/&lt;run id&gt; of "functionalTests.resultsDir", with "latest" pointing to the current run.
+ * "functionalTests.runId" is set by the Gradle plugin. Older runs are pruned in the background, "functionalTests.keepRuns" sets
+ * the number of runs kept, 10 by default, and "functionalTests.keepRunsMB" the total size, see {@link ResultRetention}.
+ *
+ * Tests run with {@code @RunWith(Parameterized.class)}, or {@code @RunWith(ParallelParameterized.class)} to run the browsers
+ * concurrently.
+ *
+ * Browsers are located concurrently, once per JVM. Browsers that aren't available are recorded in the file named by the system
+ * property "functionalTests.resolutionCacheFile", set by the Gradle plugin, and not looked for again during the build.
+ *
  */
 public abstract class AbstractFunctionalTest {
 	private static final Logger log = Logger.getLogger(AbstractFunctionalTest.class);
@@ -55,6 +112,9 @@ public abstract class AbstractFunctionalTest {
 	static final String SELENIUM_GRID_USER = "SELENIUM_GRID_USER";
     static final String SELENIUM_GRID_ACCESS_PASSWORD = "SELENIUM_GRID_ACCESS_PASSWORD";
     private static final WebDriverService WEB_DRIVER_SERVICE = new WebDriverService();
+    private static final WebDriverFactoryResolver WEB_DRIVER_RESOLVER = new WebDriverFactoryResolver(
+            System.getProperty("functionalTests.resolutionCacheFile") != null
+                    ? new File(System.getProperty("functionalTests.resolutionCacheFile")) : null);
     protected static final WebDriverCache WEB_DRIVER_CACHE = new WebDriverCache();
     
 	protected final ThreadLocal<NumberFormat> REPORT_OUTPUT_FORMAT = new ThreadLocal<NumberFormat>() {
@@ -75,6 +135,31 @@ public abstract class AbstractFunctionalTest {
 
     static {
         WEB_DRIVER_CACHE.setCacheEnabled(Boolean.valueOf(System.getProperty("functionalTests.cacheBrowser", "true")));
+        WEB_DRIVER_CACHE.setPoolSize(Integer.getInteger("functionalTests.browserPoolSize", 0));
+        WEB_DRIVER_CACHE.setResetOnReturn(Boolean.valueOf(System.getProperty("functionalTests.resetBrowser", "true")));
+        WEB_DRIVER_CACHE.setBorrowTimeout(Integer.getInteger("functionalTests.browserBorrowTimeout", 0), TimeUnit.SECONDS);
+        WebDriverEvictionPolicy evictionPolicy = WEB_DRIVER_CACHE.getEvictionPolicy();
+        evictionPolicy.setValidateOnBorrow(Boolean.valueOf(System.getProperty("functionalTests.browserValidate", "true")));
+        evictionPolicy.setMaxIdle(Integer.getInteger("functionalTests.browserMaxIdle", 0), TimeUnit.SECONDS);
+        evictionPolicy.setMaxUses(Integer.getInteger("functionalTests.browserMaxUses", 0));
+        evictionPolicy.setMaxAge(Integer.getInteger("functionalTests.browserMaxAge", 0), TimeUnit.SECONDS);
+        WEB_DRIVER_CACHE.setQuitTimeout(Integer.getInteger("functionalTests.browserQuitTimeout", 30), TimeUnit.SECONDS);
+        WEB_DRIVER_CACHE.setShutdownTimeout(Integer.getInteger("functionalTests.shutdownTimeout", 60), TimeUnit.SECONDS);
+        WEB_DRIVER_CACHE.closeOnQuitAll(WEB_DRIVER_SERVICE);
+        Integer brokerPort = Integer.getInteger("functionalTests.brokerPort");
+        if (brokerPort != null) {
+            String brokerToken = System.getProperty("functionalTests.brokerToken");
+            String seleniumGridStr = FunctionalTestSupport.getPropertyOrEnv(SELENIUM_GRID);
+            if (brokerToken == null || seleniumGridStr == null) {
+                log.warn("Not sharing sessions, the WebDriver broker needs functionalTests.brokerToken and " + SELENIUM_GRID);
+            } else {
+                try {
+                    WEB_DRIVER_CACHE.setBroker(new WebDriverBrokerClient(brokerPort, brokerToken, new URL(seleniumGridStr)));
+                } catch (MalformedURLException e) {
+                    log.warn("Not sharing sessions, " + SELENIUM_GRID + " is not a URL: " + e);
+                }
+            }
+        }
     }
 
     @Parameter(0)
@@ -84,6 +169,9 @@ public abstract class AbstractFunctionalTest {
     protected String baseUrl;
     protected File reportDir;
     protected int reportOutputNum = 1;
+    protected ReportRecorder reports;
+    /** The browser is returned to the cache after the test result is known, not in {@link #tearDown()}. */
+    private boolean releaseDeferred;
 
     @Rule
     public TestName testName = new TestName();
@@ -118,10 +206,6 @@ public abstract class AbstractFunctionalTest {
 		return platform;
     }
     
-    private static String getPropertyOrEnv(String name) {
-    	return System.getProperty(name, System.getenv(name));
-    }
-    
     static Properties buildCapabilities(String spec, String seleniumGridStr) throws IOException {
         Properties browserCaps = new Properties();
         browserCaps.load(new StringReader(spec.replaceAll(",", "\n")));
@@ -140,21 +224,23 @@ public abstract class AbstractFunctionalTest {
     }
     
     private static WebDriverFactory createRemoteWebDriverFactory(String spec) throws IOException {
-        final String seleniumGridStr = getPropertyOrEnv(SELENIUM_GRID);
+        final String seleniumGridStr = FunctionalTestSupport.getPropertyOrEnv(SELENIUM_GRID);
         Properties browserCaps = buildCapabilities(spec, seleniumGridStr);
         final DesiredCapabilities capabilities = new DesiredCapabilities((Map) browserCaps);
         capabilities.setCapability(CapabilityType.ForSeleniumServer.ENSURING_CLEAN_SESSION, true);
-        return new WebDriverFactory() {
+        return new SharedSessionWebDriverFactory() {
             @Override
             public WebDriver createWebDriver(String testName) throws IOException {
+                // sessions are created concurrently, the name is per session
+                DesiredCapabilities sessionCapabilities = new DesiredCapabilities(capabilities);
             	if (StringUtils.isNotBlank(testName)) {
-                	capabilities.setCapability("name", testName);
+                	sessionCapabilities.setCapability("name", testName);
             	}
-				return new RemoteWebDriver(new URL(seleniumGridStr), capabilities);
+				return new RemoteWebDriver(new URL(seleniumGridStr), sessionCapabilities);
             }
             @Override
             public String getIdentifier() {
-                return sanitizeForFilesystem(capabilities.getBrowserName() + "_" + capabilities.getVersion() + "_"
+                return FunctionalTestSupport.sanitizeForFilesystem(capabilities.getBrowserName() + "_" + capabilities.getVersion() + "_"
                         + capabilities.getPlatform());
             }
 
@@ -165,71 +251,95 @@ public abstract class AbstractFunctionalTest {
         };
     }
     
-    @Parameterized.Parameters(name = "{0}")
-    @SuppressWarnings("PMD")
-    public static Collection<WebDriverFactory[]> drivers() throws IOException {
-        List<WebDriverFactory[]> drivers = new LinkedList<WebDriverFactory[]>();
-
-        int driverSpecNum = 0;
-        String spec;
-        while ((spec = System.getProperty(createBrowserSpecSystemPropertyName(driverSpecNum++))) != null) {
-            if ("chrome".equalsIgnoreCase(spec)) {
-                try {
-                    drivers.add(new WebDriverFactory[] { WEB_DRIVER_SERVICE.createChromeDriverFactory() });
-                } catch (Exception e) {
-                    System.err.println("Unable to locate Chrome driver: " + e.getMessage());
+    private static Callable<WebDriverFactory> factoryResolution(final String spec) {
+        if ("chrome".equalsIgnoreCase(spec)) {
+            return new Callable<WebDriverFactory>() {
+                @Override
+                public WebDriverFactory call() throws IOException {
+                    return WEB_DRIVER_SERVICE.createChromeDriverFactory();
                 }
-            } else if ("firefox".equalsIgnoreCase(spec)) {
-                try {
-                    drivers.add(new WebDriverFactory[] { WEB_DRIVER_SERVICE.createFirefoxDriverFactory() });
-                } catch (Exception e) {
-                    System.err.println("Unable to locate Firefox driver: " + e.getMessage());
+            };
+        } else if ("firefox".equalsIgnoreCase(spec)) {
+            return new Callable<WebDriverFactory>() {
+                @Override
+                public WebDriverFactory call() throws IOException {
+                    return WEB_DRIVER_SERVICE.createFirefoxDriverFactory();
                 }
-            } else if ("ie".equalsIgnoreCase(spec) || "internetexplorer".equalsIgnoreCase(spec)) {
-                try {
-                    drivers.add(new WebDriverFactory[] { WEB_DRIVER_SERVICE.createInternetExplorerFactory() });
-                } catch (Exception e) {
-                    System.err.println("Unable to locate Internet Explorer driver: " + e.getMessage());
+            };
+        } else if ("ie".equalsIgnoreCase(spec) || "internetexplorer".equalsIgnoreCase(spec)) {
+            return new Callable<WebDriverFactory>() {
+                @Override
+                public WebDriverFactory call() throws IOException {
+                    return WEB_DRIVER_SERVICE.createInternetExplorerFactory();
                 }
-            } else if ("phantomjs".equalsIgnoreCase(spec)) {
-                try {
-                    drivers.add(new WebDriverFactory[] { WEB_DRIVER_SERVICE.createPhantomJSDriverFactory() });
-                } catch (Exception e) {
-                    System.err.println("Unable to locate PhantomJS driver: " + e.getMessage());
+            };
+        } else if ("phantomjs".equalsIgnoreCase(spec)) {
+            return new Callable<WebDriverFactory>() {
+                @Override
+                public WebDriverFactory call() throws IOException {
+                    return WEB_DRIVER_SERVICE.createPhantomJSDriverFactory();
                 }
+            };
+        }
+        return null;
+    }
+
+    /**
+     * Resolve the factories concurrently, adding those available to the drivers in the order of the specs.
+     */
+    private static void resolveFactories(List<String> specs, List<WebDriverFactory[]> drivers) throws IOException {
+        List<Future<WebDriverFactory>> resolutions = new ArrayList<Future<WebDriverFactory>>(specs.size());
+        for (final String spec : specs) {
+            Callable<WebDriverFactory> resolution = factoryResolution(spec);
+            if (resolution != null) {
+                resolutions.add(WEB_DRIVER_RESOLVER.resolve(spec.toLowerCase(), resolution));
             } else {
-                if (StringUtils.isBlank(getPropertyOrEnv(SELENIUM_GRID_USER))
-                        || StringUtils.isBlank(getPropertyOrEnv(SELENIUM_GRID_USER))
-                        || StringUtils.isBlank(getPropertyOrEnv(SELENIUM_GRID_ACCESS_PASSWORD))) {
+                if (StringUtils.isBlank(FunctionalTestSupport.getPropertyOrEnv(SELENIUM_GRID_USER))
+                        || StringUtils.isBlank(FunctionalTestSupport.getPropertyOrEnv(SELENIUM_GRID_USER))
+                        || StringUtils.isBlank(FunctionalTestSupport.getPropertyOrEnv(SELENIUM_GRID_ACCESS_PASSWORD))) {
                     throw new IOException("Missing required environment variables for selenium grid: " + SELENIUM_GRID + ", "
                             + SELENIUM_GRID_USER + " and " + SELENIUM_GRID_ACCESS_PASSWORD);
                 }
-                drivers.add(new WebDriverFactory[] { createRemoteWebDriverFactory(spec) });
+                resolutions.add(WEB_DRIVER_RESOLVER.resolve("remote:" + spec, new Callable<WebDriverFactory>() {
+                    @Override
+                    public WebDriverFactory call() throws IOException {
+                        return createRemoteWebDriverFactory(spec);
+                    }
+                }));
             }
         }
-
-        if (drivers.isEmpty()) {
-            try {
-                drivers.add(new WebDriverFactory[] { WEB_DRIVER_SERVICE.createChromeDriverFactory() });
-            } catch (Exception e) {
-                System.err.println("Unable to locate Chrome driver: " + e.getMessage());
-            }
+        for (int i = 0; i < specs.size(); i++) {
             try {
-                drivers.add(new WebDriverFactory[] { WEB_DRIVER_SERVICE.createFirefoxDriverFactory() });
-            } catch (Exception e) {
-                System.err.println("Unable to locate Firefox driver: " + e.getMessage());
-            }
-            try {
-                drivers.add(new WebDriverFactory[] { WEB_DRIVER_SERVICE.createInternetExplorerFactory() });
-            } catch (Exception e) {
-                System.err.println("Unable to locate Internet Explorer driver: " + e.getMessage());
+                drivers.add(new WebDriverFactory[] { WebDriverFactoryResolver.get(resolutions.get(i)) });
+            } catch (IOException e) {
+                System.err.println("Unable to locate " + specs.get(i) + " driver: " + e.getMessage());
             }
+        }
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<WebDriverFactory[]> drivers() throws IOException {
+        List<WebDriverFactory[]> drivers = new LinkedList<WebDriverFactory[]>();
+
+        List<String> specs = new ArrayList<String>();
+        int driverSpecNum = 0;
+        String spec;
+        while ((spec = System.getProperty(createBrowserSpecSystemPropertyName(driverSpecNum++))) != null) {
+            specs.add(spec);
+        }
+        resolveFactories(specs, drivers);
+
+        if (drivers.isEmpty()) {
             // FYI: phantomjs sometimes requires fixes that other browsers don't
-            try {
-                drivers.add(new WebDriverFactory[] { WEB_DRIVER_SERVICE.createPhantomJSDriverFactory() });
-            } catch (Exception e) {
-                System.err.println("Unable to locate PhantomJS driver: " + e.getMessage());
+            resolveFactories(Arrays.asList("chrome", "firefox", "ie", "phantomjs"), drivers);
+        }
+
+        if (Boolean.getBoolean("functionalTests.prewarmBrowsers")) {
+            List<WebDriverFactory> factories = new ArrayList<WebDriverFactory>(drivers.size());
+            for (WebDriverFactory[] driver : drivers) {
+                factories.add(driver[0]);
             }
+            WEB_DRIVER_CACHE.prewarm(factories);
         }
 
         return drivers;
@@ -242,88 +352,65 @@ public abstract class AbstractFunctionalTest {
      */
     public abstract String getContextRoot();
     
-    private static String sanitizeForFilesystem(String str) {
-        if (str == null) {
-            return "";
-        }
-    	return str.replaceAll("[^A-Za-z0-9= ]+", "_");
-    }
-    
     @Before
     public void setUp() throws Exception {
-    	this.baseUrl = System.getProperty("functionalTests.baseUrl", "http://localhost:10039");
-    	if (!this.baseUrl.contains("://")) {
-    		throw new IllegalArgumentException("functionalTests.baseUrl must be in the form http://localhost:10039");
-    	}
-    	if (this.baseUrl.endsWith("/")) {
-    		this.baseUrl = this.baseUrl.substring(0, this.baseUrl.length()-1);
-    	}
-    	if (StringUtils.isBlank(getContextRoot()) || !getContextRoot().endsWith("/") || (getContextRoot().length() > 1 && getContextRoot().startsWith("/"))) {
-    		throw new IllegalArgumentException("getContextRoot() must not be empty, must not begin with a slash and must end with a slash. It may be '/'.");
-    	}
-    	if ("/".equals(getContextRoot())) {
-        	this.baseUrl += getContextRoot();
-    	} else {
-    		this.baseUrl += "/" + getContextRoot();
-    	}
+        this.baseUrl = FunctionalTestSupport.getBaseUrl(getContextRoot());
         this.driver = WEB_DRIVER_CACHE.getWebDriver(driverFactory, getClass().getSimpleName() + "." + testName.getMethodName());
+        FunctionalTestSupport.printSauceSessionId(driver, getClass().getSimpleName() + "." + testName.getMethodName());
         this.utils = new FunctionalTestUtils(driver);
-        String browser = driver.getClass().getSimpleName();
-        if (driver instanceof RemoteWebDriver) {
-        	browser = ((RemoteWebDriver) driver).getCapabilities().getBrowserName();
-        }
-        reportDir = new File(new File(new File(System.getProperty("functionalTests.resultsDir", "build/functional-test-results/"
-                + browser + "/artifacts")), getClass().getSimpleName()), sanitizeForFilesystem(testName.getMethodName()));
-        reportDir.mkdirs();
-        // clean up previous test results
-        File[] oldFiles = reportDir.listFiles();
-        if (oldFiles != null) {
-        	for(File f : oldFiles) {
-        		f.delete();
-        	}
-        }
-        System.out.println("Reports in " + reportDir.getAbsolutePath());
+        reportDir = FunctionalTestSupport.createReportDir(driver, getClass(), testName.getMethodName());
+        reports = new ReportRecorder(utils, reportDir, FunctionalTestSupport.getReportWriter(), ReportPolicy.fromSystemProperty());
     }
 
     @After
     public void tearDown() {
-    	if (driver != null) {
-        	try {
-                report("end");    		
-        	} finally {
-                WEB_DRIVER_CACHE.maybeQuitWebDriver(driver);
-        	}    		
-    	}
+        if (driver != null) {
+            try {
+                if (reports == null || reports.isEndReported()) {
+                    report("end");
+                }
+            } finally {
+                if (!releaseDeferred) {
+                    WEB_DRIVER_CACHE.maybeQuitWebDriver(driver);
+                }
+            }
+        }
     }
 
+    /**
+     * Updates Sauce Labs with the result and writes the failure reports, then returns the browser to the cache.
+     */
     @Rule
     public final TestRule sauceUpdater = new TestWatcher() {
-    	private void updateSauce(Map<String, Object> updates) {
-    		String seleniumGridUrl = getPropertyOrEnv(SELENIUM_GRID);
-    		if (seleniumGridUrl == null || !seleniumGridUrl.contains("saucelabs.com")) {
-    			return;
-    		}
-    		
-    		try {
-        		SauceREST sauceREST = new SauceREST(getPropertyOrEnv(SELENIUM_GRID_USER), getPropertyOrEnv(SELENIUM_GRID_ACCESS_PASSWORD));
-        		String sessionId = ((RemoteWebDriver) driver).getSessionId().toString();
-        		sauceREST.updateJobInfo(sessionId, updates);    			
-    		} catch (Exception e) {
-    			log.warn("Error updating Sauce Labs test results: "+e.toString());
-    		}
-    	}
-    	
-    	protected void succeeded(org.junit.runner.Description description) {
-    		Map<String, Object> updates = new HashMap<String, Object>();
-    		updates.put("passed", Boolean.TRUE);
-    		updateSauce(updates);
-    	}
+        protected void starting(org.junit.runner.Description description) {
+            releaseDeferred = true;
+        }
+
+        protected void succeeded(org.junit.runner.Description description) {
+            FunctionalTestSupport.updateSauce(driver, true);
+            if (reports != null) {
+                reports.succeeded();
+            }
+        }
 
         protected void failed(Throwable e, org.junit.runner.Description description) {
-    		Map<String, Object> updates = new HashMap<String, Object>();
-    		updates.put("passed", Boolean.FALSE);
-    		updateSauce(updates);
-    	}
+            FunctionalTestSupport.updateSauce(driver, false);
+            if (reports != null) {
+                try {
+                    reports.failed(nextReportName("failure"));
+                } catch (WebDriverException e2) {
+                    log.error("Reporting screen shot + HTML", e2);
+                } catch (IOException e2) {
+                    log.error("Reporting screen shot + HTML", e2);
+                }
+            }
+        }
+
+        protected void finished(org.junit.runner.Description description) {
+            if (releaseDeferred && driver != null) {
+                WEB_DRIVER_CACHE.maybeQuitWebDriver(driver);
+            }
+        }
     };
 	
     /**
@@ -367,10 +454,28 @@ public abstract class AbstractFunctionalTest {
         driver.get(baseUrl);
     }
 
+    private String nextReportName(String name) {
+        return REPORT_OUTPUT_FORMAT.get().format(reportOutputNum++) + "-" + name.replaceAll("[^A-Za-z0-9-]+", "_");
+    }
+
+    /**
+     * Report a screenshot and the HTML of the current page, subject to the system property "functionalTests.reportPolicy".
+     */
     public void report(String name) {
+        report(name, null);
+    }
+
+    /**
+     * Report like {@link #report(String)} with the screenshot cropped to the element.
+     */
+    public void report(String name, WebElement element) {
         try {
-        	utils.report(reportDir, REPORT_OUTPUT_FORMAT.get().format(reportOutputNum++) + "-"
-                    + name.replaceAll("[^A-Za-z0-9-]+", "_"));
+            if (reports != null) {
+                reports.report(nextReportName(name), element);
+            } else {
+                (element != null ? utils.capture(element) : utils.capture()).write(reportDir, nextReportName(name),
+                        FunctionalTestSupport.getReportWriter());
+            }
         } catch (WebDriverException e) {
             log.error("Reporting screen shot + HTML", e);
         } catch (IOException e) {
@@ -36,14 +36,21 @@ public abstract class AbstractPage {
 
     /**
      * Perform an "at" check to ensure we're on this page. The preferred approach to "at" checking is to define a static final
-     * {@link By} field named "at". The field may also be an array or {@link Collection} of By elements.
+     * {@link By} field named "at". The field may also be an array or {@link Collection} of By elements. The field is read once
+     * per page class.
      */
     public void check() {
-    	for(By by : utils.getAtCheckers(getClass())) {
+        Collection<By> checkers = utils.getAtCheckers(getClass());
+        if (checkers.isEmpty()) {
+            return;
+        }
+        // the timeout applies to each condition
+        Wait<WebDriver> wait = new FluentWait<WebDriver>(driver).withTimeout(getAtCheckWait(), TimeUnit.SECONDS)
+                .pollingEvery(1, TimeUnit.SECONDS).ignoring(NoSuchElementException.class);
+        for (By by : checkers) {
             ExpectedCondition<WebElement> condition = ExpectedConditions.presenceOfElementLocated(by);
-            new FluentWait<WebDriver>(driver).withTimeout(getAtCheckWait(), TimeUnit.SECONDS).pollingEvery(1, TimeUnit.SECONDS)
-                    .ignoring(NoSuchElementException.class).until(condition);
-    	}
+            wait.until(condition);
+        }
     }
 
     public Wait<WebDriver> quick() {
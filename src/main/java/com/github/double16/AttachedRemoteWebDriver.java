@@ -0,0 +1,27 @@
+package com.github.double16;
+
+import java.net.URL;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * A driver for an existing remote session, created without starting a new session. Used to hand a session started in one JVM
+ * to another.
+ */
+public class AttachedRemoteWebDriver extends RemoteWebDriver {
+    private final Capabilities capabilities;
+
+    public AttachedRemoteWebDriver(URL remoteAddress, String sessionId, Capabilities capabilities) {
+        super();
+        setCommandExecutor(new HttpCommandExecutor(remoteAddress));
+        setSessionId(sessionId);
+        this.capabilities = capabilities;
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        return capabilities;
+    }
+}
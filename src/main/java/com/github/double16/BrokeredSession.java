@@ -0,0 +1,111 @@
+package com.github.double16;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Locale;
+import java.util.Map;
+
+import org.openqa.selenium.remote.BeanToJsonConverter;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.JsonToBeanConverter;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * A remote session held by the {@link WebDriverBroker}, and its encoding on the broker protocol. Fields are URL encoded and
+ * separated by spaces so a session always fits on one line. The grid URL isn't part of a session, it may carry credentials; each
+ * JVM attaches to sessions using the grid URL it was configured with.
+ */
+class BrokeredSession {
+    private static final String ENCODING = "UTF-8";
+
+    final String sessionId;
+    final String capabilities;
+    final long returned = System.currentTimeMillis();
+
+    BrokeredSession(String sessionId, String capabilities) {
+        this.sessionId = sessionId;
+        this.capabilities = capabilities;
+    }
+
+    /**
+     * Describe a driver so it can be attached to from another JVM.
+     *
+     * @return the session, or null if the driver isn't a plain remote session
+     */
+    static BrokeredSession of(RemoteWebDriver driver) {
+        if (addressOf(driver) == null || driver.getSessionId() == null) {
+            return null;
+        }
+        String capabilities = new BeanToJsonConverter().convert(driver.getCapabilities().asMap());
+        return new BrokeredSession(driver.getSessionId().toString(), capabilities);
+    }
+
+    /**
+     * @return the address of the server the driver talks to, or null if the driver isn't a plain remote session
+     */
+    static URL addressOf(RemoteWebDriver driver) {
+        if (!(driver.getCommandExecutor() instanceof HttpCommandExecutor)) {
+            return null;
+        }
+        return ((HttpCommandExecutor) driver.getCommandExecutor()).getAddressOfRemoteServer();
+    }
+
+    /**
+     * The grid of a URL without credentials, with the host in lower case, the default port made explicit and no trailing slash.
+     * Two URLs of the same grid give the same string.
+     */
+    static String gridOf(URL url) {
+        String path = url.getPath();
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol().toLowerCase(Locale.ENGLISH) + "://" + url.getHost().toLowerCase(Locale.ENGLISH) + ":" + port
+                + path;
+    }
+
+    static BrokeredSession parse(String[] fields, int offset) throws IOException {
+        if (fields.length < offset + 2) {
+            throw new IOException("Expected session id and capabilities");
+        }
+        return new BrokeredSession(decode(fields[offset]), decode(fields[offset + 1]));
+    }
+
+    String encode() {
+        return encode(sessionId) + " " + encode(capabilities);
+    }
+
+    /**
+     * @param grid the grid the session was started on, including any credentials it needs
+     */
+    @SuppressWarnings("unchecked")
+    AttachedRemoteWebDriver attach(URL grid) {
+        Map<String, Object> caps = new JsonToBeanConverter().convert(Map.class, capabilities);
+        return new AttachedRemoteWebDriver(grid, sessionId, new DesiredCapabilities(caps));
+    }
+
+    static String encode(String str) {
+        try {
+            return URLEncoder.encode(str, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String decode(String str) {
+        try {
+            return URLDecoder.decode(str, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sessionId;
+    }
+}
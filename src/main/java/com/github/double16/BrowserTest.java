@@ -0,0 +1,36 @@
+package com.github.double16;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.junit.jupiter.api.TestTemplate;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+/**
+ * A JUnit Jupiter test run once per browser from {@link AbstractFunctionalTest#drivers()}. The test method may declare parameters
+ * of type {@link org.openqa.selenium.WebDriver}, {@link BrowserTestContext}, {@link FunctionalTestUtils}, {@link WebDriverFactory}, or a page class,
+ * which is navigated to if it declares a url, see {@link BrowserTestContext#go(Class)}.
+ *
+ * <pre>
+ * &#64;BrowserTest(contextRoot = "app/")
+ * void login(BrowserTestContext browser, LoginPage page) {
+ * ...
+ * }
+ * </pre>
+ *
+ * @see BrowserTestExtension
+ */
+@Target({ ElementType.METHOD, ElementType.ANNOTATION_TYPE })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@TestTemplate
+@ExtendWith(BrowserTestExtension.class)
+public @interface BrowserTest {
+    /**
+     * The context root for the application, see {@link AbstractFunctionalTest#getContextRoot()}.
+     */
+    String contextRoot() default "/";
+}
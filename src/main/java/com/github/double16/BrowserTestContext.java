@@ -0,0 +1,144 @@
+package com.github.double16;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ui.Wait;
+
+/**
+ * The browser of one {@link BrowserTest} invocation, with the helpers {@link AbstractFunctionalTest} provides to subclasses.
+ */
+public class BrowserTestContext {
+    private static final Logger log = Logger.getLogger(BrowserTestContext.class);
+
+    private final WebDriverFactory driverFactory;
+    private final WebDriver driver;
+    private final FunctionalTestUtils utils;
+    private final String baseUrl;
+    private final File reportDir;
+    private final ReportRecorder reports;
+    private int reportOutputNum = 1;
+
+    BrowserTestContext(WebDriverFactory driverFactory, WebDriver driver, String baseUrl, File reportDir) {
+        this.driverFactory = driverFactory;
+        this.driver = driver;
+        this.utils = new FunctionalTestUtils(driver);
+        this.baseUrl = baseUrl;
+        this.reportDir = reportDir;
+        this.reports = new ReportRecorder(utils, reportDir, FunctionalTestSupport.getReportWriter(),
+                ReportPolicy.fromSystemProperty());
+    }
+
+    public WebDriverFactory getDriverFactory() {
+        return driverFactory;
+    }
+
+    public WebDriver getDriver() {
+        return driver;
+    }
+
+    public FunctionalTestUtils getUtils() {
+        return utils;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public File getReportDir() {
+        return reportDir;
+    }
+
+    /**
+     * Go to the given page. The class is expected to have a public static final String field named 'url' containing the relative
+     * URL. The value will be appended to the base URL. If the page constructor performs an 'at' check, the exception will be
+     * thrown here.
+     */
+    public <T> T go(Class<T> page) {
+        String relative = utils.getUrl(page);
+        if (relative == null) {
+            throw new IllegalArgumentException(page + " must define 'public static final String url'");
+        }
+        driver.get(baseUrl + relative);
+        return at(page);
+    }
+
+    /**
+     * Go to the given relative URL. The value will be appended to the base URL.
+     */
+    public void go(String relative) {
+        driver.get(baseUrl + relative);
+    }
+
+    /**
+     * Returns an instance of the page. If the page constructor performs an 'at' check, the exception will be thrown here.
+     */
+    public <T> T at(Class<T> page) {
+        return utils.at(page);
+    }
+
+    /**
+     * Go to the base URL.
+     */
+    public void home() {
+        driver.get(baseUrl);
+    }
+
+    private synchronized String nextReportName(String name) {
+        return new DecimalFormat("000").format(reportOutputNum++) + "-" + name.replaceAll("[^A-Za-z0-9-]+", "_");
+    }
+
+    /**
+     * Report a screenshot and the HTML of the current page, subject to the system property "functionalTests.reportPolicy".
+     */
+    public void report(String name) {
+        report(name, null);
+    }
+
+    /**
+     * Report like {@link #report(String)} with the screenshot cropped to the element.
+     */
+    public void report(String name, WebElement element) {
+        try {
+            reports.report(nextReportName(name), element);
+        } catch (WebDriverException e) {
+            log.error("Reporting screen shot + HTML", e);
+        } catch (IOException e) {
+            log.error("Reporting screen shot + HTML", e);
+        }
+    }
+
+    /**
+     * The test finished with the browser still available, write the reports the policy calls for.
+     */
+    void finished(boolean passed) {
+        try {
+            if (passed) {
+                reports.succeeded();
+            } else {
+                reports.failed(nextReportName("failure"));
+            }
+        } catch (WebDriverException e) {
+            log.error("Reporting screen shot + HTML", e);
+        } catch (IOException e) {
+            log.error("Reporting screen shot + HTML", e);
+        }
+    }
+
+    boolean isEndReported() {
+        return reports.isEndReported();
+    }
+
+    public Wait<WebDriver> quick() {
+        return utils.quick();
+    }
+
+    public Wait<WebDriver> slow() {
+        return utils.slow();
+    }
+}
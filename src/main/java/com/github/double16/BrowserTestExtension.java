@@ -0,0 +1,209 @@
+package com.github.double16;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.AfterTestExecutionCallback;
+import org.junit.jupiter.api.extension.Extension;
+import org.junit.jupiter.api.extension.ExtensionConfigurationException;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.jupiter.api.extension.TestTemplateInvocationContext;
+import org.junit.jupiter.api.extension.TestTemplateInvocationContextProvider;
+import org.junit.platform.commons.support.AnnotationSupport;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * The JUnit Jupiter counterpart of {@link AbstractFunctionalTest}, applied by {@link BrowserTest}. Each test runs once per browser
+ * from {@link AbstractFunctionalTest#drivers()}, configured by the same system properties. The browser is borrowed from the same
+ * {@link WebDriverCache}, and reports, the report directory and the Sauce Labs job result are handled the same way.
+ *
+ * The state of each invocation is kept in its extension context, so tests may run concurrently with Jupiter's parallel execution
+ * ("junit.jupiter.execution.parallel.enabled"). Concurrent tests must not share a browser: in parallel mode, unless the system
+ * property "functionalTests.browserPoolSize" is set, the pool size is set to the fixed parallelism or else the number of processors.
+ * A browser that is still shared, because another test is using it, fails the tests.
+ */
+public class BrowserTestExtension implements TestTemplateInvocationContextProvider {
+    private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(BrowserTestExtension.class);
+    private static final String BROWSER = "browser";
+    private static final WebDriverCache WEB_DRIVER_CACHE = AbstractFunctionalTest.WEB_DRIVER_CACHE;
+    static final String PARALLEL_ENABLED = "junit.jupiter.execution.parallel.enabled";
+    static final String PARALLEL_STRATEGY = "junit.jupiter.execution.parallel.config.strategy";
+    static final String FIXED_PARALLELISM = "junit.jupiter.execution.parallel.config.fixed.parallelism";
+
+    @Override
+    public boolean supportsTestTemplate(ExtensionContext context) {
+        return context.getTestMethod().isPresent()
+                && AnnotationSupport.findAnnotation(context.getTestMethod().get(), BrowserTest.class).isPresent();
+    }
+
+    @Override
+    public Stream<TestTemplateInvocationContext> provideTestTemplateInvocationContexts(ExtensionContext context) {
+        String contextRoot = AnnotationSupport.findAnnotation(context.getRequiredTestMethod(), BrowserTest.class).get().contextRoot();
+        Collection<WebDriverFactory[]> drivers;
+        try {
+            drivers = AbstractFunctionalTest.drivers();
+        } catch (IOException e) {
+            throw new ExtensionConfigurationException("Unable to determine the browsers: " + e.getMessage(), e);
+        }
+        List<WebDriverFactory> factories = new ArrayList<WebDriverFactory>(drivers.size());
+        for (WebDriverFactory[] driver : drivers) {
+            factories.add(driver[0]);
+        }
+        if (isParallel(context)) {
+            requireExclusiveBrowsers(getParallelism(context), factories);
+        }
+        List<TestTemplateInvocationContext> invocations = new ArrayList<TestTemplateInvocationContext>(factories.size());
+        for (WebDriverFactory factory : factories) {
+            invocations.add(new BrowserInvocationContext(factory, contextRoot));
+        }
+        return invocations.stream();
+    }
+
+    static boolean isParallel(ExtensionContext context) {
+        return Boolean.valueOf(context.getConfigurationParameter(PARALLEL_ENABLED).orElse("false"));
+    }
+
+    /**
+     * The number of tests Jupiter runs at once, the fixed parallelism or the number of processors.
+     */
+    static int getParallelism(ExtensionContext context) {
+        if ("fixed".equalsIgnoreCase(context.getConfigurationParameter(PARALLEL_STRATEGY).orElse(""))) {
+            String parallelism = context.getConfigurationParameter(FIXED_PARALLELISM).orElse("");
+            try {
+                return Math.max(1, Integer.parseInt(parallelism.trim()));
+            } catch (NumberFormatException e) {
+                throw new ExtensionConfigurationException(FIXED_PARALLELISM + " must be a number, found " + parallelism, e);
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Make sure concurrent tests don't share a browser, pooling the browsers if no pool size is configured.
+     *
+     * @throws ExtensionConfigurationException if a browser is still shared
+     */
+    static synchronized void requireExclusiveBrowsers(int parallelism, List<WebDriverFactory> factories) {
+        if (WEB_DRIVER_CACHE.getPoolSize() == 0) {
+            WEB_DRIVER_CACHE.setPoolSize(parallelism);
+        }
+        for (WebDriverFactory factory : factories) {
+            if (!WEB_DRIVER_CACHE.isExclusive(factory)) {
+                throw new ExtensionConfigurationException("Parallel tests would share the " + factory + " browser, it is in use by"
+                        + " another test. Set functionalTests.browserPoolSize to the parallelism, or disable "
+                        + PARALLEL_ENABLED);
+            }
+        }
+    }
+
+    private static class BrowserInvocationContext implements TestTemplateInvocationContext {
+        private final WebDriverFactory driverFactory;
+        private final String contextRoot;
+
+        BrowserInvocationContext(WebDriverFactory driverFactory, String contextRoot) {
+            this.driverFactory = driverFactory;
+            this.contextRoot = contextRoot;
+        }
+
+        @Override
+        public String getDisplayName(int invocationIndex) {
+            return "[" + invocationIndex + "] " + driverFactory;
+        }
+
+        @Override
+        public List<Extension> getAdditionalExtensions() {
+            return Collections.<Extension>singletonList(new BrowserResolver(driverFactory, contextRoot));
+        }
+    }
+
+    /**
+     * Borrows the browser when a parameter needs it and returns it after the test.
+     */
+    static class BrowserResolver implements ParameterResolver, AfterTestExecutionCallback, AfterEachCallback {
+        private final WebDriverFactory driverFactory;
+        private final String contextRoot;
+
+        BrowserResolver(WebDriverFactory driverFactory, String contextRoot) {
+            this.driverFactory = driverFactory;
+            this.contextRoot = contextRoot;
+        }
+
+        private BrowserTestContext getBrowser(ExtensionContext context) {
+            ExtensionContext.Store store = context.getStore(NAMESPACE);
+            BrowserTestContext browser = store.get(BROWSER, BrowserTestContext.class);
+            if (browser == null) {
+                Class<?> testClass = context.getRequiredTestClass();
+                Method testMethod = context.getRequiredTestMethod();
+                String baseUrl = FunctionalTestSupport.getBaseUrl(contextRoot);
+                WebDriver driver;
+                try {
+                    driver = WEB_DRIVER_CACHE.getWebDriver(driverFactory, testClass.getSimpleName() + "." + testMethod.getName());
+                } catch (IOException e) {
+                    throw new ParameterResolutionException("Unable to create " + driverFactory + ": " + e.getMessage(), e);
+                }
+                FunctionalTestSupport.printSauceSessionId(driver, testClass.getSimpleName() + "." + testMethod.getName());
+                browser = new BrowserTestContext(driverFactory, driver, baseUrl,
+                        FunctionalTestSupport.createReportDir(driver, testClass, testMethod.getName() + "[" + driverFactory + "]"));
+                store.put(BROWSER, browser);
+            }
+            return browser;
+        }
+
+        @Override
+        public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+            Class<?> type = parameterContext.getParameter().getType();
+            return type == WebDriver.class || type == BrowserTestContext.class || type == FunctionalTestUtils.class
+                    || type == WebDriverFactory.class || PageMetadata.of(type).getUrl() != null;
+        }
+
+        @Override
+        public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+            Class<?> type = parameterContext.getParameter().getType();
+            if (type == WebDriverFactory.class) {
+                return driverFactory;
+            }
+            BrowserTestContext browser = getBrowser(extensionContext);
+            if (type == WebDriver.class) {
+                return browser.getDriver();
+            } else if (type == BrowserTestContext.class) {
+                return browser;
+            } else if (type == FunctionalTestUtils.class) {
+                return browser.getUtils();
+            }
+            return browser.go(type);
+        }
+
+        @Override
+        public void afterTestExecution(ExtensionContext context) {
+            BrowserTestContext browser = context.getStore(NAMESPACE).get(BROWSER, BrowserTestContext.class);
+            if (browser != null) {
+                boolean passed = !context.getExecutionException().isPresent();
+                FunctionalTestSupport.updateSauce(browser.getDriver(), passed);
+                browser.finished(passed);
+            }
+        }
+
+        @Override
+        public void afterEach(ExtensionContext context) {
+            BrowserTestContext browser = context.getStore(NAMESPACE).remove(BROWSER, BrowserTestContext.class);
+            if (browser != null) {
+                try {
+                    if (browser.isEndReported()) {
+                        browser.report("end");
+                    }
+                } finally {
+                    WEB_DRIVER_CACHE.maybeQuitWebDriver(browser.getDriver());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.double16;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.firefox.FirefoxProfile;
+import org.openqa.selenium.io.TemporaryFilesystem;
+
+/**
+ * A Firefox profile that is laid out on disk and encoded once, instead of for every session. Each session gets a copy of the
+ * laid out template directory, and {@link #toJson()}, used to send the profile to a remote grid, returns the same encoded form.
+ * Both are rebuilt if the profile is changed. The port preference, set by the driver for each local session, is written into the
+ * copy without rebuilding the template.
+ */
+public class CachedFirefoxProfile extends FirefoxProfile {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String PORT_PREFERENCE = "webdriver_firefox_port";
+    private static final Pattern PORT_LINE = Pattern.compile("user_pref\\(\"" + PORT_PREFERENCE + "\", \\d+\\);");
+
+    /** Settings made so far, to tell a change from the same value set again. Null while the super constructor runs. */
+    private Map<String, Object> settings = new HashMap<String, Object>();
+    private File template;
+    private String json;
+    private Integer port;
+
+    @Override
+    public synchronized void setPreference(String key, String value) {
+        super.setPreference(key, value);
+        changed("preference:" + key, value);
+    }
+
+    @Override
+    public synchronized void setPreference(String key, boolean value) {
+        super.setPreference(key, value);
+        changed("preference:" + key, value);
+    }
+
+    @Override
+    public synchronized void setPreference(String key, int value) {
+        super.setPreference(key, value);
+        if (PORT_PREFERENCE.equals(key)) {
+            port = value;
+        } else {
+            changed("preference:" + key, value);
+        }
+    }
+
+    @Override
+    public synchronized void addExtension(File extensionToInstall) throws IOException {
+        super.addExtension(extensionToInstall);
+        changed("extension:" + extensionToInstall.getAbsolutePath(), Boolean.TRUE);
+    }
+
+    @Override
+    public synchronized void addExtension(Class<?> loadResourcesUsing, String loadFrom) throws IOException {
+        super.addExtension(loadResourcesUsing, loadFrom);
+        changed("extension:" + loadResourcesUsing.getName() + ":" + loadFrom, Boolean.TRUE);
+    }
+
+    @Override
+    public synchronized void setAcceptUntrustedCertificates(boolean acceptUntrustedSsl) {
+        super.setAcceptUntrustedCertificates(acceptUntrustedSsl);
+        changed("acceptUntrustedCertificates", acceptUntrustedSsl);
+    }
+
+    @Override
+    public synchronized void setAssumeUntrustedCertificateIssuer(boolean untrustedIssuer) {
+        super.setAssumeUntrustedCertificateIssuer(untrustedIssuer);
+        changed("assumeUntrustedCertificateIssuer", untrustedIssuer);
+    }
+
+    @Override
+    public synchronized void setEnableNativeEvents(boolean enableNativeEvents) {
+        super.setEnableNativeEvents(enableNativeEvents);
+        changed("enableNativeEvents", enableNativeEvents);
+    }
+
+    @Override
+    public synchronized void setAlwaysLoadNoFocusLib(boolean loadNoFocusLib) {
+        super.setAlwaysLoadNoFocusLib(loadNoFocusLib);
+        changed("alwaysLoadNoFocusLib", loadNoFocusLib);
+    }
+
+    private void changed(String setting, Object value) {
+        if (settings == null) {
+            return;
+        }
+        if (settings.containsKey(setting) && value.equals(settings.get(setting))) {
+            return;
+        }
+        settings.put(setting, value);
+        if (template != null) {
+            TemporaryFilesystem.getDefaultTmpFS().deleteTempDir(template);
+            template = null;
+        }
+        json = null;
+    }
+
+    /**
+     * A copy of the laid out profile. The driver deletes the copy when the session ends.
+     */
+    @Override
+    public synchronized File layoutOnDisk() {
+        if (template == null || !template.isDirectory()) {
+            template = super.layoutOnDisk();
+        }
+        File copy = TemporaryFilesystem.getDefaultTmpFS().createTempDir("anonymous", "webdriver-profile");
+        try {
+            FileUtils.copyDirectory(template, copy);
+            if (port != null) {
+                File userPrefs = new File(copy, "user.js");
+                Matcher matcher = PORT_LINE.matcher(FileUtils.readFileToString(userPrefs, UTF8));
+                FileUtils.writeStringToFile(userPrefs, matcher.replaceAll("user_pref(\"" + PORT_PREFERENCE + "\", " + port + ");"),
+                        UTF8);
+            }
+        } catch (IOException e) {
+            throw new WebDriverException("Unable to copy the Firefox profile " + template, e);
+        }
+        return copy;
+    }
+
+    @Override
+    public synchronized String toJson() throws IOException {
+        if (json == null) {
+            json = super.toJson();
+        }
+        return json;
+    }
+}
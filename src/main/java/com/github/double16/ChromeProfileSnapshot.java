@@ -0,0 +1,113 @@
+package com.github.double16;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.openqa.selenium.io.TemporaryFilesystem;
+
+/**
+ * A Chrome user data directory prepared once, by starting Chrome on it so first run work like creating caches and component
+ * updates is done, and copied for each session. The directory is prepared by one JVM under a file lock and shared by the others.
+ *
+ * Copies are made rather than hard links because Chrome updates its databases in place, which would change the snapshot. A copy is
+ * deleted by {@link #delete(File)} when its session quits, copies left over are deleted by {@link #close()}.
+ */
+class ChromeProfileSnapshot implements Closeable {
+    /** Prepares the snapshot, i.e. by starting and quitting Chrome with the directory. */
+    interface Initializer {
+        void initialize(File userDataDir) throws IOException;
+    }
+
+    /** Files that tie a user data directory to a running Chrome. */
+    private static final Set<String> LOCK_FILES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "SingletonLock", "SingletonSocket", "SingletonCookie", "lockfile")));
+    private static final String PREPARED = ".prepared";
+
+    private final File dir;
+    private final Initializer initializer;
+    private final Set<File> copies = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    /**
+     * @param dir the directory holding the snapshot
+     */
+    ChromeProfileSnapshot(File dir, Initializer initializer) {
+        this.dir = dir;
+        this.initializer = initializer;
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * Copy the snapshot to a new directory for a session, preparing the snapshot first if needed.
+     */
+    File copy() throws IOException {
+        File copy = TemporaryFilesystem.getDefaultTmpFS().createTempDir("chrome", "user-data");
+        FileUtils.copyDirectory(prepare(), copy, new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !LOCK_FILES.contains(file.getName());
+            }
+        }, false);
+        copies.add(copy);
+        return copy;
+    }
+
+    /**
+     * Delete a copy made by {@link #copy()}, i.e. when its session has quit.
+     */
+    void delete(File copy) {
+        if (copies.remove(copy)) {
+            TemporaryFilesystem.getDefaultTmpFS().deleteTempDir(copy);
+        }
+    }
+
+    /**
+     * Delete the copies of sessions that didn't quit. The snapshot itself is kept for the next run.
+     */
+    @Override
+    public void close() {
+        for (File copy : copies) {
+            delete(copy);
+        }
+    }
+
+    private File prepare() throws IOException {
+        final File userDataDir = new File(dir, "user-data");
+        final File prepared = new File(dir, PREPARED);
+        if (prepared.isFile()) {
+            return userDataDir;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        return InterProcessLock.withLock(new File(dir, ".lock"), new InterProcessLock.Action<File>() {
+            @Override
+            public File run() throws IOException {
+                if (prepared.isFile()) {
+                    return userDataDir;
+                }
+                // a failed attempt may have left a partial directory
+                FileUtils.deleteDirectory(userDataDir);
+                if (!userDataDir.mkdirs()) {
+                    throw new IOException("Unable to create " + userDataDir);
+                }
+                long start = System.currentTimeMillis();
+                initializer.initialize(userDataDir);
+                FileUtils.touch(prepared);
+                System.out.println("Prepared Chrome profile snapshot " + userDataDir + " in "
+                        + (System.currentTimeMillis() - start) + "ms");
+                return userDataDir;
+            }
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.double16;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Extracts a single file from a zip, tar.gz or tar.bz2 archive while it is being read, i.e. from an HTTP response, without
+ * storing the archive. The format is detected from the first bytes of the stream.
+ */
+final class DriverArchiveExtractor {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DriverArchiveExtractor() {
+    }
+
+    /**
+     * Extract the entry named binaryName, in any directory, to the target. Reading stops once the entry is written.
+     *
+     * @return true if the entry was found
+     */
+    static boolean extract(InputStream archive, String binaryName, File target) throws IOException {
+        InputStream is = new BufferedInputStream(archive, BUFFER_SIZE);
+        is.mark(3);
+        int b1 = is.read();
+        int b2 = is.read();
+        int b3 = is.read();
+        is.reset();
+        if (b1 == 'P' && b2 == 'K') {
+            return extractZip(new ZipInputStream(is), binaryName, target);
+        } else if (b1 == 0x1f && b2 == 0x8b) {
+            return extractTar(new TarArchiveInputStream(new GZIPInputStream(is, BUFFER_SIZE)), binaryName, target);
+        } else if (b1 == 'B' && b2 == 'Z' && b3 == 'h') {
+            return extractTar(new TarArchiveInputStream(new BZip2CompressorInputStream(is)), binaryName, target);
+        }
+        throw new IOException("Unknown archive format, expected zip, tar.gz or tar.bz2");
+    }
+
+    private static boolean extractZip(ZipInputStream zip, String binaryName, File target) throws IOException {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (!entry.isDirectory() && matches(entry.getName(), binaryName)) {
+                write(zip, target);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean extractTar(TarArchiveInputStream tar, String binaryName, File target) throws IOException {
+        TarArchiveEntry entry;
+        while ((entry = tar.getNextTarEntry()) != null) {
+            if (entry.isFile() && matches(entry.getName(), binaryName)) {
+                write(tar, target);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String entryName, String binaryName) {
+        return entryName.equals(binaryName) || entryName.endsWith("/" + binaryName);
+    }
+
+    private static void write(InputStream entry, File target) throws IOException {
+        OutputStream os = new FileOutputStream(target);
+        try {
+            IOUtils.copyLarge(entry, os, new byte[BUFFER_SIZE]);
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.github.double16;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A user level cache of downloaded driver binaries, shared between projects, builds and concurrent JVMs. Entries are keyed by the
+ * download URL and the expected checksum, if given. A download is done by one JVM at a time under a file lock, into a temporary
+ * file that is moved into place once complete, so a partial download is never used. Only the binary is extracted, while the
+ * archive (zip, tar.gz or tar.bz2) streams in, the archive itself isn't stored. The SHA-256 of each binary is recorded next to
+ * it and verified before the binary is first used by a JVM.
+ *
+ * The cache is in ~/.gradle-java-saucelabs/webdrivers unless the system property "functionalTests.driverCacheDir" is set.
+ * Downloads time out after "functionalTests.driverDownloadConnectTimeout" seconds connecting, 30 by default, and
+ * "functionalTests.driverDownloadReadTimeout" seconds without data, 60 by default, so a stalled mirror doesn't hold the lock
+ * other JVMs are waiting for.
+ */
+public class DriverBinaryCache {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_REDIRECTS = 10;
+    private static final Set<String> VERIFIED = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final File dir;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    public DriverBinaryCache() {
+        this(new File(System.getProperty("functionalTests.driverCacheDir",
+                new File(new File(System.getProperty("user.home"), ".gradle-java-saucelabs"), "webdrivers").getPath())),
+                Integer.getInteger("functionalTests.driverDownloadConnectTimeout", 30) * 1000,
+                Integer.getInteger("functionalTests.driverDownloadReadTimeout", 60) * 1000);
+    }
+
+    public DriverBinaryCache(File dir) {
+        this(dir, 30000, 60000);
+    }
+
+    public DriverBinaryCache(File dir, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.dir = dir;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Get the binary from the cache, downloading it if it isn't cached or fails verification.
+     *
+     * @param url the archive containing the binary
+     * @param binaryName the file name of the binary in the archive
+     * @param sha256 the expected SHA-256 of the binary in hex, or null to trust the first download
+     * @return the executable binary
+     */
+    public File resolve(final URL url, final String binaryName, final String sha256) throws IOException {
+        final File entryDir = new File(dir, key(url, sha256));
+        final File binary = new File(entryDir, binaryName);
+        final File checksum = new File(entryDir, binaryName + ".sha256");
+        if (isValid(binary, checksum, sha256)) {
+            return binary;
+        }
+        if (!entryDir.isDirectory() && !entryDir.mkdirs() && !entryDir.isDirectory()) {
+            throw new IOException("Unable to create " + entryDir);
+        }
+        return InterProcessLock.withLock(new File(entryDir, ".lock"), new InterProcessLock.Action<File>() {
+            @Override
+            public File run() throws IOException {
+                // another JVM may have finished the download while we waited for the lock
+                if (isValid(binary, checksum, sha256)) {
+                    return binary;
+                }
+                File download = File.createTempFile(binaryName, ".download", entryDir);
+                try {
+                    download(url, binaryName, download);
+                    String actual = sha256(download);
+                    if (sha256 != null && !sha256.equalsIgnoreCase(actual)) {
+                        throw new IOException("Checksum of " + binaryName + " from " + url + " is " + actual + ", expected " + sha256);
+                    }
+                    if (sha256 == null) {
+                        System.out.println("Checksum of " + binaryName + " from " + url + " not verified, its SHA-256 is " + actual);
+                    }
+                    download.setExecutable(true);
+                    Files.move(download.toPath(), binary.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    File checksumDownload = File.createTempFile(binaryName, ".sha256", entryDir);
+                    FileUtils.writeStringToFile(checksumDownload, actual, UTF8);
+                    Files.move(checksumDownload.toPath(), checksum.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    VERIFIED.add(binary.getCanonicalPath());
+                } finally {
+                    download.delete();
+                }
+                return binary;
+            }
+        });
+    }
+
+    private boolean isValid(File binary, File checksum, String sha256) throws IOException {
+        if (!binary.canExecute() || !checksum.isFile()) {
+            return false;
+        }
+        String path = binary.getCanonicalPath();
+        if (VERIFIED.contains(path)) {
+            return true;
+        }
+        String recorded = FileUtils.readFileToString(checksum, UTF8).trim();
+        if (sha256 != null && !sha256.equalsIgnoreCase(recorded)) {
+            return false;
+        }
+        if (!recorded.equalsIgnoreCase(sha256(binary))) {
+            System.err.println("Cached " + binary + " is corrupt, downloading again");
+            return false;
+        }
+        VERIFIED.add(path);
+        return true;
+    }
+
+    static String key(URL url, String sha256) {
+        String path = url.getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1).replaceAll("[^A-Za-z0-9._-]+", "_");
+        String hash = hex(digest().digest((url.toString() + (sha256 != null ? "#" + sha256.toLowerCase() : "")).getBytes(UTF8)));
+        return name + "-" + hash.substring(0, 16);
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest = digest();
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        return hex(digest.digest());
+    }
+
+    static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private void download(URL path, String binaryName, File target) throws IOException {
+        System.out.println("Downloading " + path);
+        URL current = path;
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            URLConnection connection = current.openConnection();
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            if (connection instanceof HttpURLConnection) {
+                // redirects are followed here so that http to https redirects work
+                ((HttpURLConnection) connection).setInstanceFollowRedirects(false);
+            }
+            String redirect = connection.getHeaderField("Location");
+            if (redirect == null) {
+                InputStream is = connection.getInputStream();
+                try {
+                    if (!DriverArchiveExtractor.extract(is, binaryName, target)) {
+                        throw new IOException("Error downloading " + binaryName + " from " + path);
+                    }
+                } finally {
+                    IOUtils.closeQuietly(is);
+                }
+                return;
+            }
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+            current = new URL(current, redirect);
+            System.out.println("Redirect to " + current);
+        }
+        throw new IOException("Too many redirects downloading " + path);
+    }
+}
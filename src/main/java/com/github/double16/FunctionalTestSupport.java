@@ -0,0 +1,242 @@
+package com.github.double16;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Test set up shared by {@link AbstractFunctionalTest} and {@link BrowserTestExtension}: the base URL, the report directory, the
+ * report writer and updating Sauce Labs with the test result.
+ */
+final class FunctionalTestSupport {
+    private static final Logger log = Logger.getLogger(FunctionalTestSupport.class);
+    private static final String RUN_ID = System.getProperty("functionalTests.runId",
+            new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()));
+    private static final Set<String> PREPARED_RESULTS_DIRS = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** Locks of the runs this JVM writes, held until it exits. */
+    private static final List<Closeable> RUN_LOCKS = new CopyOnWriteArrayList<Closeable>();
+    private static SauceJobUpdater sauceJobUpdater;
+    private static ReportWriter reportWriter;
+
+    private FunctionalTestSupport() {
+    }
+
+    static String getPropertyOrEnv(String name) {
+        return System.getProperty(name, System.getenv(name));
+    }
+
+    static String sanitizeForFilesystem(String str) {
+        if (str == null) {
+            return "";
+        }
+        return str.replaceAll("[^A-Za-z0-9= ]+", "_");
+    }
+
+    /**
+     * The base URL from the system property "functionalTests.baseUrl" and the context root.
+     *
+     * @param contextRoot must not start with a slash and must end with a slash, the smallest acceptable value is "/"
+     */
+    static String getBaseUrl(String contextRoot) {
+        String baseUrl = System.getProperty("functionalTests.baseUrl", "http://localhost:10039");
+        if (!baseUrl.contains("://")) {
+            throw new IllegalArgumentException("functionalTests.baseUrl must be in the form http://localhost:10039");
+        }
+        if (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+        if (StringUtils.isBlank(contextRoot) || !contextRoot.endsWith("/") || (contextRoot.length() > 1 && contextRoot.startsWith("/"))) {
+            throw new IllegalArgumentException("getContextRoot() must not be empty, must not begin with a slash and must end with a slash. It may be '/'.");
+        }
+        if ("/".equals(contextRoot)) {
+            return baseUrl + contextRoot;
+        }
+        return baseUrl + "/" + contextRoot;
+    }
+
+    /**
+     * A name for this JVM, unique among the forks of a run.
+     */
+    private static String processId() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        return sanitizeForFilesystem(at > 0 ? name.substring(0, at) : name).replace(' ', '_');
+    }
+
+    /**
+     * The id of this test run, from the system property "functionalTests.runId" set by the Gradle plugin for all test JVMs of a
+     * build, or the time this JVM started.
+     */
+    static String getRunId() {
+        return RUN_ID;
+    }
+
+    /**
+     * The directory of this run in the results directory, see {@link ResultRetention}. The first time a results directory is
+     * used the run is locked for this JVM, "latest" is pointed at the run, and older runs that aren't locked are pruned in the
+     * background, keeping "functionalTests.keepRuns" runs, 10 by default, and at most "functionalTests.keepRunsMB" MB, 0 for no
+     * limit.
+     */
+    static File getRunDir(final File resultsDir) {
+        File runDir = ResultRetention.getRunDir(resultsDir, RUN_ID);
+        if (PREPARED_RESULTS_DIRS.add(resultsDir.getAbsolutePath())) {
+            try {
+                RUN_LOCKS.add(ResultRetention.lockRun(resultsDir, RUN_ID));
+            } catch (IOException e) {
+                log.warn("Unable to lock " + runDir + ", other test JVMs may prune it: " + e);
+            }
+            if (!runDir.isDirectory() && !runDir.mkdirs() && !runDir.isDirectory()) {
+                log.warn("Unable to create " + runDir);
+                return runDir;
+            }
+            try {
+                ResultRetention.linkLatest(resultsDir, RUN_ID);
+            } catch (IOException e) {
+                log.warn("Unable to link the latest results in " + resultsDir + ": " + e);
+            }
+            final ResultRetention retention = new ResultRetention(Integer.getInteger("functionalTests.keepRuns", 10),
+                    Long.getLong("functionalTests.keepRunsMB", 0L) * 1024 * 1024);
+            Thread pruner = WebDriverCache.daemonThreads("Results pruning").newThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!retention.prune(resultsDir, RUN_ID).isEmpty() && getReportWriter().getScreenshotStore() != null) {
+                            getReportWriter().getScreenshotStore().pruneUnreferenced(
+                                    ManagementFactory.getRuntimeMXBean().getStartTime());
+                        }
+                    } catch (IOException e) {
+                        log.warn("Pruning old results in " + resultsDir + " failed: " + e);
+                    }
+                }
+            });
+            pruner.setPriority(Thread.MIN_PRIORITY);
+            pruner.start();
+        }
+        return runDir;
+    }
+
+    /**
+     * Create the report directory of a test in the directory of this run, so reports of earlier runs and other forks are never
+     * overwritten and nothing needs to be deleted. With a report archive the directory is only used to name the entries and isn't
+     * created.
+     */
+    static File createReportDir(WebDriver driver, Class<?> testClass, String methodName) {
+        String browser = driver.getClass().getSimpleName();
+        if (driver instanceof RemoteWebDriver) {
+            browser = ((RemoteWebDriver) driver).getCapabilities().getBrowserName();
+        }
+        File resultsDir = new File(System.getProperty("functionalTests.resultsDir", "build/functional-test-results/" + browser
+                + "/artifacts"));
+        if (getReportWriter().getArchive() != null) {
+            return new File(new File(ResultRetention.getRunDir(resultsDir, RUN_ID), testClass.getSimpleName()),
+                    sanitizeForFilesystem(methodName));
+        }
+        File reportDir = new File(new File(getRunDir(resultsDir), testClass.getSimpleName()), sanitizeForFilesystem(methodName));
+        reportDir.mkdirs();
+        System.out.println("Reports in " + reportDir.getAbsolutePath());
+        return reportDir;
+    }
+
+    /**
+     * The shared queue of Sauce Labs job updates, sent to the API at the system property "functionalTests.sauceRestUrl",
+     * https://saucelabs.com by default. The queue is flushed when the browsers are quit, waiting up to
+     * "functionalTests.sauceFlushTimeout" seconds, 30 by default.
+     */
+    static synchronized SauceJobUpdater getSauceJobUpdater() {
+        if (sauceJobUpdater == null) {
+            sauceJobUpdater = new SauceJobUpdater(new SauceRestClient(
+                    System.getProperty("functionalTests.sauceRestUrl", SauceRestClient.DEFAULT_URL),
+                    getPropertyOrEnv(AbstractFunctionalTest.SELENIUM_GRID_USER),
+                    getPropertyOrEnv(AbstractFunctionalTest.SELENIUM_GRID_ACCESS_PASSWORD)));
+            sauceJobUpdater.setFlushTimeout(Integer.getInteger("functionalTests.sauceFlushTimeout", 30), TimeUnit.SECONDS);
+            AbstractFunctionalTest.WEB_DRIVER_CACHE.closeOnQuitAll(sauceJobUpdater);
+        }
+        return sauceJobUpdater;
+    }
+
+    /**
+     * The shared writer of report files, with "functionalTests.reportWriterThreads" threads, 2 by default, 0 writes on the test
+     * thread. At most "functionalTests.reportWriterQueue" files, 32 by default, wait to be written before reports wait. The writer
+     * is flushed when the browsers are quit, waiting up to "functionalTests.reportFlushTimeout" seconds, 60 by default.
+     *
+     * With "functionalTests.screenshotDedup=true" each distinct screenshot is stored once in "functionalTests.screenshotStoreDir",
+     * build/functional-test-results/screenshots by default, and linked from the reports. "functionalTests.screenshotRecompress=true"
+     * re-compresses stored screenshots.
+     *
+     * With "functionalTests.reportArchiveDir" set all report files of the JVM are appended to one {@link ReportArchive} instead,
+     * and no report directories are created. The archives of a run are kept in a run directory of the archive directory, which
+     * is linked and pruned like a results directory, see {@link #getRunDir(File)}.
+     */
+    static synchronized ReportWriter getReportWriter() {
+        if (reportWriter == null) {
+            reportWriter = new ReportWriter(Integer.getInteger("functionalTests.reportWriterThreads", 2),
+                    Integer.getInteger("functionalTests.reportWriterQueue", 32));
+            reportWriter.setFlushTimeout(Integer.getInteger("functionalTests.reportFlushTimeout", 60), TimeUnit.SECONDS);
+            if (Boolean.getBoolean("functionalTests.screenshotDedup")) {
+                reportWriter.setScreenshotStore(new ScreenshotStore(new File(System.getProperty("functionalTests.screenshotStoreDir",
+                        "build/functional-test-results/screenshots")), Boolean.getBoolean("functionalTests.screenshotRecompress")));
+            }
+            String archiveDir = System.getProperty("functionalTests.reportArchiveDir");
+            if (archiveDir != null) {
+                ReportArchive archive = new ReportArchive(new File(getRunDir(new File(archiveDir)),
+                        "reports-" + RUN_ID + "-" + processId() + ReportArchive.DATA_SUFFIX),
+                        new File(System.getProperty("functionalTests.resultsDir", "build/functional-test-results")));
+                reportWriter.setArchive(archive);
+                System.out.println("Reports in " + archive.getFile().getAbsolutePath());
+            }
+            AbstractFunctionalTest.WEB_DRIVER_CACHE.closeOnQuitAll(reportWriter);
+            if (reportWriter.getArchive() != null) {
+                // after the writer is flushed
+                AbstractFunctionalTest.WEB_DRIVER_CACHE.closeOnQuitAll(reportWriter.getArchive());
+            }
+        }
+        return reportWriter;
+    }
+
+    /**
+     * Print the Sauce Labs session of the driver in the format the Sauce Labs plugins, and the Gradle plugin's SauceListener, look
+     * for to associate the job with the test.
+     */
+    static void printSauceSessionId(WebDriver driver, String testName) {
+        String seleniumGridUrl = getPropertyOrEnv(AbstractFunctionalTest.SELENIUM_GRID);
+        if (seleniumGridUrl == null || !seleniumGridUrl.contains("saucelabs.com")) {
+            return;
+        }
+        if (driver instanceof RemoteWebDriver && ((RemoteWebDriver) driver).getSessionId() != null) {
+            System.out.println("SauceOnDemandSessionID=" + ((RemoteWebDriver) driver).getSessionId() + " job-name=" + testName);
+        }
+    }
+
+    /**
+     * Mark the Sauce Labs job of the driver as passed or failed, if running on Sauce Labs. The update is sent in the background.
+     */
+    static void updateSauce(WebDriver driver, boolean passed) {
+        String seleniumGridUrl = getPropertyOrEnv(AbstractFunctionalTest.SELENIUM_GRID);
+        if (seleniumGridUrl == null || !seleniumGridUrl.contains("saucelabs.com")) {
+            return;
+        }
+        if (!(driver instanceof RemoteWebDriver) || ((RemoteWebDriver) driver).getSessionId() == null) {
+            log.warn("Error updating Sauce Labs test results: no session for " + driver);
+            return;
+        }
+        Map<String, Object> updates = new HashMap<String, Object>();
+        updates.put("passed", passed);
+        getSauceJobUpdater().update(((RemoteWebDriver) driver).getSessionId().toString(), updates);
+    }
+}
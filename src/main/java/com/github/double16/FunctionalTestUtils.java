@@ -1,29 +1,37 @@
 package com.github.double16;
 
+import java.awt.Rectangle;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Array;
-import java.lang.reflect.Field;
+import java.io.InterruptedIOException;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.openqa.selenium.By;
+import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.NoAlertPresentException;
 import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Point;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.UnhandledAlertException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Actions;
+import org.openqa.selenium.remote.BrowserType;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.support.PageFactory;
 import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.ExpectedConditions;
@@ -31,6 +39,29 @@ import org.openqa.selenium.support.ui.FluentWait;
 import org.openqa.selenium.support.ui.Wait;
 
 public class FunctionalTestUtils {
+    private static final ExecutorService CAPTURE_EXECUTOR = Executors.newCachedThreadPool(
+            WebDriverCache.daemonThreads("Report capture"));
+    private static final ReportWriter SYNCHRONOUS_WRITER = new ReportWriter(0, 1);
+
+    /** The doctype and outer HTML of the document in one call. */
+    private static final String OUTER_HTML_SCRIPT = "var d = document, t = d.doctype, s = '';"
+            + "if (t) { s = '<!DOCTYPE ' + t.name + (t.publicId ? ' PUBLIC \"' + t.publicId + '\"' : '')"
+            + " + (!t.publicId && t.systemId ? ' SYSTEM' : '') + (t.systemId ? ' \"' + t.systemId + '\"' : '') + '>\\n'; }"
+            + "var h = d.documentElement.outerHTML;"
+            + "if (arguments[0]) { var c = [];"
+            + "  for (var i = 0; i < d.styleSheets.length; i++) {"
+            + "    try { var r = d.styleSheets[i].cssRules; for (var j = 0; j < r.length; j++) { c.push(r[j].cssText); } }"
+            + "    catch (e) { /* cross origin stylesheet */ } }"
+            + "  var style = '<style data-report-stylesheets>' + c.join('\\n').replace(/<\\/style/gi, '<\\\\/style') + '</style>';"
+            + "  var end = h.search(/<\\/head>/i);"
+            + "  h = end >= 0 ? h.substring(0, end) + style + h.substring(end) : h.replace(/<html[^>]*>/i, '$&' + style); }"
+            + "return s + h;";
+
+    /** Scrolls the element into view if it isn't, and returns the viewport in document coordinates. */
+    private static final String VIEWPORT_SCRIPT = "var e = arguments[0], r = e.getBoundingClientRect(), w = window;"
+            + "if (r.top < 0 || r.left < 0 || r.bottom > w.innerHeight || r.right > w.innerWidth) { e.scrollIntoView(); }"
+            + "return [w.pageXOffset, w.pageYOffset, w.innerWidth, w.innerHeight];";
+
     private final WebDriver driver;
 
     public FunctionalTestUtils(WebDriver driver) {
@@ -52,14 +83,15 @@ public class FunctionalTestUtils {
     }
     
     /**
-     * Returns an instance of the page. If the page constructor performs an 'at' check, the exception will be thrown here.
+     * Returns an instance of the page. If the page constructor performs an 'at' check, the exception will be thrown here. The
+     * elements are initialized like {@link PageFactory} does, with the fields and locators of the page class found once.
      * 
      * @param page the page class.
      * @return page instance.
      */
     public <T> T at(Class<T> page) {
     	try {
-            return PageFactory.initElements(driver, page);
+            return PageMetadata.of(page).create(driver);
     	} catch (RuntimeException e) {
     		Throwable findWebDriverException = e;
     		while (findWebDriverException != null) {
@@ -125,62 +157,19 @@ public class FunctionalTestUtils {
     /**
      * Returns a collection of at checkers for the page. If the page has no
      * "public static By at" or "public static By[]" defined, returns an empty collection.
+     * The field is read once per page class.
      * @return collection, never null but may be empty.
      */
-    @SuppressWarnings("PMD")
     public Collection<By> getAtCheckers(Class<?> pageClass) {
-        Object locator = null;
-        try {
-            Field urlField = pageClass.getDeclaredField("at");
-            if (urlField != null && Modifier.isStatic(urlField.getModifiers())) {
-                locator = urlField.get(null);
-            }
-        } catch (NoSuchFieldException e) {
-            // handled below
-        } catch (IllegalAccessException e) {
-            // handled below
-        } catch (ClassCastException e) {
-            // handled below
-        }
-        if (locator == null) {
-        	return Collections.emptyList();
-        }
-    	Collection<By> locators;
-    	if (locator instanceof By) {
-    		locators = Collections.singleton((By) locator);
-    	} else if (locator.getClass().isArray()) {
-    		locators = new ArrayList<By>(Array.getLength(locator));
-    		for(int i = 0; i < Array.getLength(locator); i++) {
-    			locators.add((By) Array.get(locator, i));
-    		}
-    	} else if (locator instanceof Collection) {
-    		locators = (Collection<By>) locator;
-    	} else {
-    		throw new IllegalArgumentException("Expecting static 'at' to be a By or Collection of By, found "+locator.getClass());
-    	}
-    	return locators;
+        return PageMetadata.of(pageClass).getAtCheckers();
     }
     
     /**
-     * Get the relative URL for the page. 
+     * Get the relative URL for the page. The field is read once per page class.
      * @return the url or null if not defined.
      */
-    @SuppressWarnings("PMD")
     public String getUrl(Class<?> pageClass) {
-        String relative = null;
-        try {
-            Field urlField = pageClass.getDeclaredField("url");
-            if (urlField != null && Modifier.isStatic(urlField.getModifiers())) {
-                relative = (String) urlField.get(null);
-            }
-        } catch (NoSuchFieldException e) {
-            // handled below
-        } catch (IllegalAccessException e) {
-            // handled below
-        } catch (ClassCastException e) {
-            // handled below
-        }
-    	return relative;
+        return PageMetadata.of(pageClass).getUrl();
     }
     
     /**
@@ -202,22 +191,144 @@ public class FunctionalTestUtils {
             }
         }
         
+        String html = captureHtml();
+        if (html != null) {
+            File htmlFile = new File(reportDir, baseFileName + ".html");
+            SYNCHRONOUS_WRITER.writeHtml(htmlFile, html);
+            ret.add(htmlFile);
+        }
+        
+        return ret;
+    }
+
+    /**
+     * Creates a report like {@link #report(File, String)}, but only the browser round trips are made on the calling thread, the
+     * files are written by the writer.
+     * @return list of files that will be created
+     */
+    public List<File> report(File reportDir, String baseFileName, ReportWriter writer) throws IOException {
+        return capture().write(reportDir, baseFileName, writer);
+    }
+
+    /**
+     * Captures the HTML of the current page and a screenshot cropped to the element. The element is scrolled into view first, and
+     * the viewport is recorded, so the crop works for drivers that capture the whole page as well as those that only capture the
+     * viewport, like chromedriver.
+     */
+    public ReportCapture capture(WebElement element) throws IOException {
+        Rectangle viewport = scrollIntoView(element);
+        Point location = element.getLocation();
+        Dimension size = element.getSize();
+        return capture().cropTo(new Rectangle(location.getX(), location.getY(), size.getWidth(), size.getHeight()), viewport);
+    }
+
+    /**
+     * @return the viewport in document coordinates, or null if the driver can't tell
+     */
+    private Rectangle scrollIntoView(WebElement element) {
+        if (!(driver instanceof JavascriptExecutor)) {
+            return null;
+        }
+        try {
+            Object viewport = ((JavascriptExecutor) driver).executeScript(VIEWPORT_SCRIPT, element);
+            if (viewport instanceof List && ((List<?>) viewport).size() == 4) {
+                List<?> values = (List<?>) viewport;
+                return new Rectangle(((Number) values.get(0)).intValue(), ((Number) values.get(1)).intValue(),
+                        ((Number) values.get(2)).intValue(), ((Number) values.get(3)).intValue());
+            }
+        } catch (WebDriverException e) {
+            System.err.println("Scrolling element into view failed: " + e.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Captures a screenshot and the HTML of the current page into memory. The screenshot and HTML are fetched concurrently if the
+     * driver accepts concurrent commands, see {@link #isConcurrentCaptureSupported()}.
+     */
+    public ReportCapture capture() throws IOException {
+        Future<String> concurrentHtml = null;
+        if (isConcurrentCaptureSupported()) {
+            concurrentHtml = CAPTURE_EXECUTOR.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return captureHtml();
+                }
+            });
+        }
+
+        String screenshot = null;
+        if (driver instanceof TakesScreenshot) {
+            try {
+                screenshot = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BASE64);
+            } catch (WebDriverException e) {
+                System.err.println("Screen shot failed: " + e.toString());
+            }
+        }
+
+        String html;
+        if (concurrentHtml != null) {
+            try {
+                html = concurrentHtml.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted capturing HTML");
+            } catch (ExecutionException e) {
+                System.err.println("HTML capture failed: " + e.getCause().toString());
+                html = null;
+            }
+        } else {
+            html = captureHtml();
+        }
+
+        return new ReportCapture(screenshot, html, Boolean.getBoolean("functionalTests.reportCompressHtml"));
+    }
+
+    /**
+     * The HTML of the current page, or null if it can't be captured. With the system property
+     * "functionalTests.domCapture=outerHTML" the doctype and outer HTML of the document are fetched in one script call, so the
+     * attributes of the html element are kept, and "functionalTests.domCaptureStyles=true" adds the rules of the page's
+     * stylesheets as a style element so the snapshot renders without the site. By default the inner HTML of the html element is
+     * fetched.
+     */
+    private String captureHtml() {
+        if ("outerHTML".equalsIgnoreCase(System.getProperty("functionalTests.domCapture")) && driver instanceof JavascriptExecutor) {
+            try {
+                Object html = ((JavascriptExecutor) driver).executeScript(OUTER_HTML_SCRIPT,
+                        Boolean.getBoolean("functionalTests.domCaptureStyles"));
+                if (html instanceof String) {
+                    return (String) html;
+                }
+            } catch (WebDriverException e) {
+                System.err.println("HTML capture by script failed, falling back to innerHTML: " + e.toString());
+            }
+        }
         try {
             WebElement htmlElement = driver.findElement(By.cssSelector("html"));
             if (htmlElement != null) {
-                File htmlFile = new File(reportDir, baseFileName + ".html");
-                FileWriter writer = new FileWriter(htmlFile);
-                writer.append("<html>\n");
-                writer.append(htmlElement.getAttribute("innerHTML"));
-                writer.append("</html>\n");
-                writer.close();
-                ret.add(htmlFile);
+                return "<html>\n" + htmlElement.getAttribute("innerHTML") + "</html>\n";
             }
         } catch (WebDriverException e) {
             System.err.println("HTML capture failed: " + e.toString());
         }
-        
-        return ret;
+        return null;
+    }
+
+    /**
+     * True if the driver accepts another command while one is in progress. That is the case for drivers talking HTTP to a
+     * driver server or grid, except PhantomJS, which handles one request at a time. The system property
+     * "functionalTests.concurrentReportCapture=false" disables concurrent commands.
+     */
+    public boolean isConcurrentCaptureSupported() {
+        if ("false".equalsIgnoreCase(System.getProperty("functionalTests.concurrentReportCapture"))) {
+            return false;
+        }
+        if (!(driver instanceof RemoteWebDriver)
+                || !(((RemoteWebDriver) driver).getCommandExecutor() instanceof HttpCommandExecutor)) {
+            return false;
+        }
+        Capabilities capabilities = ((RemoteWebDriver) driver).getCapabilities();
+        return capabilities == null || !BrowserType.PHANTOMJS.equals(capabilities.getBrowserName());
     }
 
     public <T> T navigateMenu(String path, Class<T> page) throws WebDriverException {
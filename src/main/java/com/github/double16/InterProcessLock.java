@@ -0,0 +1,48 @@
+package com.github.double16;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Runs an action while holding an exclusive lock on a file, so it runs once at a time across threads and JVMs, i.e. Gradle test
+ * forks. File locks are held by the JVM, so threads are serialized separately.
+ */
+final class InterProcessLock {
+    interface Action<T> {
+        T run() throws IOException;
+    }
+
+    private static final ConcurrentMap<String, Object> MONITORS = new ConcurrentHashMap<String, Object>();
+
+    private InterProcessLock() {
+    }
+
+    static <T> T withLock(File lockFile, Action<T> action) throws IOException {
+        String key = lockFile.getCanonicalPath();
+        Object monitor = MONITORS.get(key);
+        if (monitor == null) {
+            Object created = new Object();
+            monitor = MONITORS.putIfAbsent(key, created);
+            if (monitor == null) {
+                monitor = created;
+            }
+        }
+        synchronized (monitor) {
+            RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+            try {
+                FileLock lock = file.getChannel().lock();
+                try {
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.double16;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.pagefactory.AbstractAnnotations;
+import org.openqa.selenium.support.pagefactory.DefaultElementLocator;
+import org.openqa.selenium.support.pagefactory.DefaultFieldDecorator;
+import org.openqa.selenium.support.pagefactory.ElementLocator;
+
+/**
+ * Creates the elements and 'at' checkers of pages, for {@link PageMetadata} and the classes generated by
+ * {@link PageObjectProcessor}. Elements are located when used, like those of {@link org.openqa.selenium.support.PageFactory}.
+ */
+public final class PageElements {
+    private static final Proxies PROXIES = new Proxies();
+
+    private PageElements() {
+    }
+
+    /**
+     * An element located by the locator when used.
+     *
+     * @param cached locate the element once, see {@link org.openqa.selenium.support.CacheLookup}
+     */
+    public static WebElement element(SearchContext context, By by, boolean cached) {
+        return PROXIES.proxyForLocator(PageElements.class.getClassLoader(), locator(context, by, cached));
+    }
+
+    /**
+     * The elements located by the locator when used.
+     *
+     * @param cached locate the elements once, see {@link org.openqa.selenium.support.CacheLookup}
+     */
+    public static List<WebElement> elements(SearchContext context, By by, boolean cached) {
+        return PROXIES.proxyForListLocator(PageElements.class.getClassLoader(), locator(context, by, cached));
+    }
+
+    private static ElementLocator locator(SearchContext context, final By by, final boolean cached) {
+        return new DefaultElementLocator(context, new AbstractAnnotations() {
+            @Override
+            public By buildBy() {
+                return by;
+            }
+
+            @Override
+            public boolean isLookupCached() {
+                return cached;
+            }
+        });
+    }
+
+    public static List<By> atCheckers(By at) {
+        return at != null ? Collections.singletonList(at) : Collections.<By> emptyList();
+    }
+
+    public static List<By> atCheckers(By[] at) {
+        return at != null ? Collections.unmodifiableList(Arrays.asList(at.clone())) : Collections.<By> emptyList();
+    }
+
+    public static List<By> atCheckers(Collection<? extends By> at) {
+        return at != null ? Collections.unmodifiableList(new ArrayList<By>(at)) : Collections.<By> emptyList();
+    }
+
+    private static class Proxies extends DefaultFieldDecorator {
+        Proxies() {
+            super(null);
+        }
+
+        @Override
+        protected WebElement proxyForLocator(ClassLoader loader, ElementLocator locator) {
+            return super.proxyForLocator(loader, locator);
+        }
+
+        @Override
+        protected List<WebElement> proxyForListLocator(ClassLoader loader, ElementLocator locator) {
+            return super.proxyForListLocator(loader, locator);
+        }
+    }
+}
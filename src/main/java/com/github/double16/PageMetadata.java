@@ -0,0 +1,248 @@
+package com.github.double16;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.FindAll;
+import org.openqa.selenium.support.FindBy;
+import org.openqa.selenium.support.FindBys;
+import org.openqa.selenium.support.PageFactory;
+import org.openqa.selenium.support.pagefactory.Annotations;
+import org.openqa.selenium.support.pagefactory.DefaultFieldDecorator;
+
+/**
+ * What {@link FunctionalTestUtils} needs to know about a page class, found by reflection once per class: the 'at' checkers, the
+ * URL, the constructor and the fields {@link PageFactory} would initialize with their locators. The static 'at' and 'url' fields
+ * are read the first time the page is used. Pages annotated with {@link PageObject} use the class generated by
+ * {@link PageObjectProcessor} instead, if it was compiled.
+ */
+final class PageMetadata {
+    private static final ClassValue<PageMetadata> METADATA = new ClassValue<PageMetadata>() {
+        @Override
+        protected PageMetadata computeValue(Class<?> type) {
+            return new PageMetadata(type);
+        }
+    };
+
+    static final String GENERATED_SUFFIX = "_PageMetadata";
+
+    private final Class<?> pageClass;
+    private final List<By> atCheckers;
+    /** Thrown by {@link #getAtCheckers()} if the 'at' field isn't a locator. */
+    private final String atError;
+    private final String url;
+    private final Constructor<?> driverConstructor;
+    private final List<ElementField> elementFields;
+    private final PageObjectMetadata<Object> generated;
+
+    static PageMetadata of(Class<?> pageClass) {
+        return METADATA.get(pageClass);
+    }
+
+    private PageMetadata(Class<?> pageClass) {
+        this.pageClass = pageClass;
+        this.generated = generated(pageClass);
+        if (generated != null) {
+            this.atCheckers = generated.getAtCheckers();
+            this.atError = null;
+            this.url = generated.getUrl();
+            this.driverConstructor = null;
+            this.elementFields = Collections.emptyList();
+            return;
+        }
+
+        Object locator = staticField(pageClass, "at");
+        List<By> checkers = Collections.emptyList();
+        String error = null;
+        if (locator instanceof By) {
+            checkers = Collections.singletonList((By) locator);
+        } else if (locator != null && locator.getClass().isArray()) {
+            checkers = new ArrayList<By>(Array.getLength(locator));
+            for (int i = 0; i < Array.getLength(locator); i++) {
+                checkers.add((By) Array.get(locator, i));
+            }
+            checkers = Collections.unmodifiableList(checkers);
+        } else if (locator instanceof Collection) {
+            checkers = Collections.unmodifiableList(new ArrayList<By>((Collection<By>) locator));
+        } else if (locator != null) {
+            error = "Expecting static 'at' to be a By or Collection of By, found " + locator.getClass();
+        }
+        this.atCheckers = checkers;
+        this.atError = error;
+
+        Object relative = staticField(pageClass, "url");
+        this.url = relative instanceof String ? (String) relative : null;
+
+        Constructor<?> constructor;
+        try {
+            constructor = pageClass.getConstructor(WebDriver.class);
+        } catch (NoSuchMethodException e) {
+            constructor = null;
+        }
+        this.driverConstructor = constructor;
+        this.elementFields = elementFields(pageClass);
+    }
+
+    private static PageObjectMetadata<Object> generated(Class<?> pageClass) {
+        if (!pageClass.isAnnotationPresent(PageObject.class)) {
+            return null;
+        }
+        try {
+            Class<?> type = Class.forName(pageClass.getName() + GENERATED_SUFFIX, true, pageClass.getClassLoader());
+            if (PageObjectMetadata.class.isAssignableFrom(type)) {
+                return (PageObjectMetadata<Object>) type.newInstance();
+            }
+        } catch (ClassNotFoundException e) {
+            // compiled without the annotation processor
+        } catch (InstantiationException e) {
+            // not generated by the processor
+        } catch (IllegalAccessException e) {
+            // not generated by the processor
+        }
+        return null;
+    }
+
+    private static Object staticField(Class<?> pageClass, String name) {
+        try {
+            Field field = pageClass.getDeclaredField(name);
+            if (Modifier.isStatic(field.getModifiers())) {
+                return field.get(null);
+            }
+        } catch (NoSuchFieldException e) {
+            // not defined
+        } catch (IllegalAccessException e) {
+            // not public
+        }
+        return null;
+    }
+
+    /**
+     * The fields {@link DefaultFieldDecorator} decorates, in the order {@link PageFactory} visits them: WebElement fields and
+     * List&lt;WebElement&gt; fields annotated with FindBy, FindBys or FindAll.
+     */
+    private static List<ElementField> elementFields(Class<?> pageClass) {
+        List<ElementField> fields = new ArrayList<ElementField>();
+        for (Class<?> type = pageClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                boolean list = isDecoratableList(field);
+                if (!WebElement.class.isAssignableFrom(field.getType()) && !list) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(new ElementField(field, new Annotations(field), list));
+            }
+        }
+        return Collections.unmodifiableList(fields);
+    }
+
+    private static boolean isDecoratableList(Field field) {
+        if (!List.class.isAssignableFrom(field.getType())) {
+            return false;
+        }
+        Type genericType = field.getGenericType();
+        if (!(genericType instanceof ParameterizedType)
+                || ((ParameterizedType) genericType).getActualTypeArguments()[0] != WebElement.class) {
+            return false;
+        }
+        return field.getAnnotation(FindBy.class) != null || field.getAnnotation(FindBys.class) != null
+                || field.getAnnotation(FindAll.class) != null;
+    }
+
+    /**
+     * The 'at' checkers, see {@link FunctionalTestUtils#getAtCheckers(Class)}.
+     */
+    List<By> getAtCheckers() {
+        if (atError != null) {
+            throw new IllegalArgumentException(atError);
+        }
+        return atCheckers;
+    }
+
+    /**
+     * The relative URL or null.
+     */
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * True if the metadata is from the class generated by {@link PageObjectProcessor}.
+     */
+    boolean isGenerated() {
+        return generated != null;
+    }
+
+    /**
+     * Create the page and initialize its elements, like {@link PageFactory#initElements(WebDriver, Class)}.
+     */
+    <T> T create(WebDriver driver) {
+        if (generated != null) {
+            return (T) generated.create(driver);
+        }
+        Object page;
+        try {
+            page = driverConstructor != null ? driverConstructor.newInstance(driver) : pageClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+        initElements(driver, page);
+        return (T) page;
+    }
+
+    /**
+     * Initialize the elements of the page, like {@link PageFactory#initElements(WebDriver, Object)}.
+     */
+    void initElements(SearchContext context, Object page) {
+        if (generated != null) {
+            generated.initElements(context, page);
+            return;
+        }
+        for (ElementField elementField : elementFields) {
+            Object proxy = elementField.list ? PageElements.elements(context, elementField.by, elementField.lookupCached)
+                    : PageElements.element(context, elementField.by, elementField.lookupCached);
+            try {
+                elementField.field.set(page, proxy);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    int getElementFieldCount() {
+        return elementFields.size();
+    }
+
+    /**
+     * A field to initialize with the locator built from its annotations once.
+     */
+    private static class ElementField {
+        final Field field;
+        final boolean list;
+        final By by;
+        final boolean lookupCached;
+
+        ElementField(Field field, Annotations annotations, boolean list) {
+            this.field = field;
+            this.list = list;
+            this.by = annotations.buildBy();
+            this.lookupCached = annotations.isLookupCached();
+        }
+    }
+}
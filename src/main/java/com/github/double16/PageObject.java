@@ -0,0 +1,20 @@
+package com.github.double16;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a page class for {@link PageObjectProcessor}, which generates a "&lt;page&gt;_PageMetadata" class at compile time with the
+ * page's 'at' checkers, URL, constructor call and element locators. {@link FunctionalTestUtils#at(Class)} uses the generated class
+ * instead of reflection and {@link org.openqa.selenium.support.PageFactory}.
+ *
+ * Element fields must not be private or final. A superclass declaring element fields must be annotated too.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface PageObject {
+}
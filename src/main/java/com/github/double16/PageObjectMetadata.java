@@ -0,0 +1,32 @@
+package com.github.double16;
+
+import java.util.List;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Implemented by the classes {@link PageObjectProcessor} generates for pages annotated with {@link PageObject}.
+ */
+public interface PageObjectMetadata<T> {
+    /**
+     * The 'at' checkers of the page, see {@link FunctionalTestUtils#getAtCheckers(Class)}.
+     */
+    List<By> getAtCheckers();
+
+    /**
+     * The relative URL of the page or null.
+     */
+    String getUrl();
+
+    /**
+     * Create the page and initialize its elements.
+     */
+    T create(WebDriver driver);
+
+    /**
+     * Initialize the elements of the page, including those declared by superclasses.
+     */
+    void initElements(SearchContext context, T page);
+}
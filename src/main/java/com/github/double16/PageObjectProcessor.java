@@ -0,0 +1,422 @@
+package com.github.double16;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import org.openqa.selenium.support.CacheLookup;
+import org.openqa.selenium.support.FindAll;
+import org.openqa.selenium.support.FindBy;
+import org.openqa.selenium.support.FindBys;
+
+/**
+ * Generates a {@link PageObjectMetadata} class for each class annotated with {@link PageObject}, named like the page with
+ * "_PageMetadata" appended, in the same package. The generated class reads the page's 'at' and 'url' fields, calls its constructor
+ * and assigns its element fields with the locators of their FindBy, FindBys and FindAll annotations, the same locators
+ * {@link org.openqa.selenium.support.PageFactory} would use. Mistakes PageFactory reports when the page is created, like an 'at'
+ * field that isn't a locator, are compile errors.
+ *
+ * The processor is registered in META-INF/services, javac runs it when this library is on the class path.
+ */
+public class PageObjectProcessor extends AbstractProcessor {
+    private static final String BY = "org.openqa.selenium.By";
+    private static final String WEB_ELEMENT = "org.openqa.selenium.WebElement";
+    private static final String WEB_DRIVER = "org.openqa.selenium.WebDriver";
+    private static final String SEARCH_CONTEXT = "org.openqa.selenium.SearchContext";
+    private static final String ELEMENTS = PageElements.class.getName();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(PageObject.class.getName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(PageObject.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@PageObject must be on a class");
+                continue;
+            }
+            TypeElement page = (TypeElement) element;
+            if (page.getNestingKind() != NestingKind.TOP_LEVEL
+                    && (page.getNestingKind() != NestingKind.MEMBER || !page.getModifiers().contains(Modifier.STATIC))) {
+                error(page, "@PageObject must be on a top level or static nested class");
+                continue;
+            }
+            if (page.getModifiers().contains(Modifier.PRIVATE)) {
+                error(page, "@PageObject class must not be private");
+                continue;
+            }
+            try {
+                generate(page);
+            } catch (IOException e) {
+                error(page, "Unable to generate page metadata: " + e);
+            }
+        }
+        return true;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void generate(TypeElement page) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(page).getQualifiedName().toString();
+        String pageName = page.getQualifiedName().toString();
+        String generatedName = generatedName(page);
+
+        String atCheckers = atCheckers(page);
+        String url = url(page);
+        String create = create(page);
+        List<String> initElements = initElements(page);
+        if (atCheckers == null || url == null || create == null || initElements == null) {
+            // errors reported
+            return;
+        }
+
+        StringBuilder java = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            java.append("package ").append(packageName).append(";\n\n");
+        }
+        java.append("/**\n * Generated from {@link ").append(pageName).append("} by ").append(getClass().getName())
+                .append(".\n */\n");
+        java.append("public final class ").append(generatedName).append(" implements ").append(PageObjectMetadata.class.getName())
+                .append('<').append(pageName).append("> {\n");
+
+        java.append("    @Override\n    public java.util.List<").append(BY).append("> getAtCheckers() {\n");
+        java.append("        return ").append(atCheckers).append(";\n    }\n\n");
+
+        java.append("    @Override\n    public String getUrl() {\n");
+        java.append("        return ").append(url).append(";\n    }\n\n");
+
+        java.append("    @Override\n    public ").append(pageName).append(" create(").append(WEB_DRIVER).append(" driver) {\n");
+        java.append(create);
+        java.append("    }\n\n");
+
+        java.append("    @Override\n    public void initElements(").append(SEARCH_CONTEXT).append(" context, ").append(pageName)
+                .append(" page) {\n        initElementsOf(context, page);\n    }\n\n");
+
+        java.append("    public static void initElementsOf(").append(SEARCH_CONTEXT).append(" context, ").append(pageName)
+                .append(" page) {\n");
+        for (String line : initElements) {
+            java.append("        ").append(line).append('\n');
+        }
+        java.append("    }\n}\n");
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                packageName.isEmpty() ? generatedName : packageName + "." + generatedName, page);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(java.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * The simple name of the generated class, the binary name of the page without the package, with the suffix.
+     */
+    private String generatedName(TypeElement page) {
+        String binaryName = processingEnv.getElementUtils().getBinaryName(page).toString();
+        return binaryName.substring(binaryName.lastIndexOf('.') + 1) + PageMetadata.GENERATED_SUFFIX;
+    }
+
+    /**
+     * A static field of the page readable from the generated class, which is in the same package.
+     */
+    private VariableElement staticField(TypeElement page, String name) {
+        for (VariableElement field : ElementFilter.fieldsIn(page.getEnclosedElements())) {
+            if (field.getSimpleName().contentEquals(name) && field.getModifiers().contains(Modifier.STATIC)
+                    && !field.getModifiers().contains(Modifier.PRIVATE)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private String atCheckers(TypeElement page) {
+        VariableElement at = staticField(page, "at");
+        if (at == null) {
+            return "java.util.Collections.<" + BY + "> emptyList()";
+        }
+        TypeMirror type = at.asType();
+        TypeMirror by = type(BY);
+        boolean valid = processingEnv.getTypeUtils().isAssignable(type, by)
+                || (type.getKind() == TypeKind.ARRAY
+                        && processingEnv.getTypeUtils().isAssignable(((ArrayType) type).getComponentType(), by))
+                || processingEnv.getTypeUtils().isAssignable(type, processingEnv.getTypeUtils().getDeclaredType(
+                        processingEnv.getElementUtils().getTypeElement("java.util.Collection"),
+                        processingEnv.getTypeUtils().getWildcardType(by, null)));
+        if (!valid) {
+            error(at, "Expecting static 'at' to be a By, array of By or Collection of By, found " + type);
+            return null;
+        }
+        return ELEMENTS + ".atCheckers(" + page.getQualifiedName() + ".at)";
+    }
+
+    private String url(TypeElement page) {
+        VariableElement url = staticField(page, "url");
+        if (url == null || !processingEnv.getTypeUtils().isSameType(url.asType(), type("java.lang.String"))) {
+            return "null";
+        }
+        return page.getQualifiedName() + ".url";
+    }
+
+    /**
+     * The body of create(), calling the constructor {@link org.openqa.selenium.support.PageFactory} would call.
+     */
+    private String create(TypeElement page) {
+        String pageName = page.getQualifiedName().toString();
+        if (page.getModifiers().contains(Modifier.ABSTRACT)) {
+            return "        throw new RuntimeException(new InstantiationException(\"" + pageName + " is abstract\"));\n";
+        }
+        ExecutableElement driverConstructor = null;
+        ExecutableElement defaultConstructor = null;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(page.getEnclosedElements())) {
+            if (!constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                continue;
+            }
+            List<? extends VariableElement> parameters = constructor.getParameters();
+            if (parameters.size() == 1 && processingEnv.getTypeUtils().isSameType(parameters.get(0).asType(), type(WEB_DRIVER))) {
+                driverConstructor = constructor;
+            } else if (parameters.isEmpty()) {
+                defaultConstructor = constructor;
+            }
+        }
+        ExecutableElement constructor = driverConstructor != null ? driverConstructor : defaultConstructor;
+        if (constructor == null) {
+            return "        throw new RuntimeException(new InstantiationException(\"" + pageName
+                    + " has no public constructor taking a WebDriver or no arguments\"));\n";
+        }
+        String call = pageName + " page = new " + pageName + (constructor == driverConstructor ? "(driver);" : "();");
+        StringBuilder body = new StringBuilder();
+        if (constructor.getThrownTypes().isEmpty()) {
+            body.append("        ").append(call).append('\n');
+        } else {
+            body.append("        ").append(pageName).append(" page;\n");
+            body.append("        try {\n            page = ").append(call.substring(call.indexOf("new "))).append('\n');
+            body.append("        } catch (RuntimeException e) {\n            throw e;\n");
+            body.append("        } catch (Exception e) {\n            throw new RuntimeException(e);\n        }\n");
+        }
+        body.append("        initElementsOf(driver, page);\n        return page;\n");
+        return body.toString();
+    }
+
+    /**
+     * The statements assigning the element fields of the page and calling the generated code of the superclass.
+     */
+    private List<String> initElements(TypeElement page) {
+        List<String> lines = new ArrayList<String>();
+        boolean valid = true;
+        for (VariableElement field : ElementFilter.fieldsIn(page.getEnclosedElements())) {
+            if (field.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            boolean list = isElementList(field);
+            if (!list && !isElement(field)) {
+                continue;
+            }
+            if (field.getModifiers().contains(Modifier.PRIVATE) || field.getModifiers().contains(Modifier.FINAL)) {
+                error(field, "Element fields of a @PageObject must not be private or final");
+                valid = false;
+                continue;
+            }
+            String by = locator(field);
+            if (by == null) {
+                valid = false;
+                continue;
+            }
+            lines.add("page." + field.getSimpleName() + " = " + ELEMENTS + (list ? ".elements(" : ".element(") + "context, " + by
+                    + ", " + (field.getAnnotation(CacheLookup.class) != null) + ");");
+        }
+
+        TypeMirror superclass = page.getSuperclass();
+        while (superclass.getKind() == TypeKind.DECLARED) {
+            TypeElement type = (TypeElement) ((DeclaredType) superclass).asElement();
+            if (type.getQualifiedName().contentEquals("java.lang.Object")) {
+                break;
+            }
+            if (type.getAnnotation(PageObject.class) != null) {
+                String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+                lines.add(binaryName + PageMetadata.GENERATED_SUFFIX + ".initElementsOf(context, page);");
+                break;
+            }
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                if (!field.getModifiers().contains(Modifier.STATIC) && (isElement(field) || isElementList(field))) {
+                    error(page, "Superclass " + type + " declares element " + field.getSimpleName()
+                            + ", it must be annotated with @PageObject");
+                    valid = false;
+                }
+            }
+            superclass = type.getSuperclass();
+        }
+        return valid ? lines : null;
+    }
+
+    private boolean isElement(VariableElement field) {
+        return processingEnv.getTypeUtils().isSameType(field.asType(), type(WEB_ELEMENT));
+    }
+
+    private boolean isElementList(VariableElement field) {
+        TypeMirror type = field.asType();
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        return arguments.size() == 1
+                && processingEnv.getTypeUtils().isSameType(processingEnv.getTypeUtils().erasure(type), type("java.util.List"))
+                && processingEnv.getTypeUtils().isSameType(arguments.get(0), type(WEB_ELEMENT))
+                && (field.getAnnotation(FindBy.class) != null || field.getAnnotation(FindBys.class) != null
+                        || field.getAnnotation(FindAll.class) != null);
+    }
+
+    private TypeMirror type(String name) {
+        return processingEnv.getTypeUtils().erasure(processingEnv.getElementUtils().getTypeElement(name).asType());
+    }
+
+    /**
+     * The locator expression of the field, in the order of {@link org.openqa.selenium.support.pagefactory.Annotations}: FindBys,
+     * FindAll, FindBy and the field name as id or name.
+     */
+    private String locator(VariableElement field) {
+        FindBys findBys = field.getAnnotation(FindBys.class);
+        FindAll findAll = field.getAnnotation(FindAll.class);
+        FindBy findBy = field.getAnnotation(FindBy.class);
+        if ((findBys != null ? 1 : 0) + (findAll != null ? 1 : 0) + (findBy != null ? 1 : 0) > 1) {
+            error(field, "Only one of FindBy, FindBys or FindAll may be used");
+            return null;
+        }
+        if (findBys != null) {
+            return composite(field, "org.openqa.selenium.support.pagefactory.ByChained", findBys.value());
+        }
+        if (findAll != null) {
+            return composite(field, "org.openqa.selenium.support.pagefactory.ByAll", findAll.value());
+        }
+        if (findBy != null) {
+            return locator(field, findBy);
+        }
+        return "new org.openqa.selenium.support.ByIdOrName(" + literal(field.getSimpleName().toString()) + ")";
+    }
+
+    private String composite(VariableElement field, String type, FindBy[] findBys) {
+        StringBuilder by = new StringBuilder("new ").append(type).append("(new ").append(BY).append("[] {");
+        for (int i = 0; i < findBys.length; i++) {
+            String locator = locator(field, findBys[i]);
+            if (locator == null) {
+                return null;
+            }
+            by.append(i > 0 ? ", " : " ").append(locator);
+        }
+        return by.append(findBys.length > 0 ? " })" : "})").toString();
+    }
+
+    private String locator(VariableElement field, FindBy findBy) {
+        List<String> shortForms = new ArrayList<String>();
+        addShortForm(shortForms, "className", findBy.className());
+        addShortForm(shortForms, "cssSelector", findBy.css());
+        addShortForm(shortForms, "id", findBy.id());
+        addShortForm(shortForms, "linkText", findBy.linkText());
+        addShortForm(shortForms, "name", findBy.name());
+        addShortForm(shortForms, "partialLinkText", findBy.partialLinkText());
+        addShortForm(shortForms, "tagName", findBy.tagName());
+        addShortForm(shortForms, "xpath", findBy.xpath());
+        boolean longForm = !findBy.using().isEmpty();
+        if (shortForms.size() + (longForm ? 1 : 0) > 1) {
+            error(field, "FindBy must set only one of how and using, className, css, id, linkText, name, partialLinkText, tagName"
+                    + " or xpath");
+            return null;
+        }
+        if (!shortForms.isEmpty()) {
+            return shortForms.get(0);
+        }
+        String using = literal(findBy.using());
+        String how = findBy.how().name();
+        if ("ID".equals(how) || "UNSET".equals(how)) {
+            return BY + ".id(" + using + ")";
+        } else if ("ID_OR_NAME".equals(how)) {
+            return "new org.openqa.selenium.support.ByIdOrName(" + using + ")";
+        } else if ("CLASS_NAME".equals(how)) {
+            return BY + ".className(" + using + ")";
+        } else if ("CSS".equals(how)) {
+            return BY + ".cssSelector(" + using + ")";
+        } else if ("LINK_TEXT".equals(how)) {
+            return BY + ".linkText(" + using + ")";
+        } else if ("NAME".equals(how)) {
+            return BY + ".name(" + using + ")";
+        } else if ("PARTIAL_LINK_TEXT".equals(how)) {
+            return BY + ".partialLinkText(" + using + ")";
+        } else if ("TAG_NAME".equals(how)) {
+            return BY + ".tagName(" + using + ")";
+        } else if ("XPATH".equals(how)) {
+            return BY + ".xpath(" + using + ")";
+        }
+        error(field, "Unsupported FindBy how " + how);
+        return null;
+    }
+
+    private static void addShortForm(List<String> shortForms, String method, String value) {
+        if (!value.isEmpty()) {
+            shortForms.add(BY + "." + method + "(" + literal(value) + ")");
+        }
+    }
+
+    /**
+     * The value as a Java string literal.
+     */
+    static String literal(String value) {
+        StringBuilder literal = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                literal.append("\\\"");
+                break;
+            case '\\':
+                literal.append("\\\\");
+                break;
+            case '\n':
+                literal.append("\\n");
+                break;
+            case '\r':
+                literal.append("\\r");
+                break;
+            case '\t':
+                literal.append("\\t");
+                break;
+            default:
+                if (c < 0x20 || c > 0x7e) {
+                    literal.append(String.format("\\u%04x", (int) c));
+                } else {
+                    literal.append(c);
+                }
+            }
+        }
+        return literal.append('"').toString();
+    }
+}
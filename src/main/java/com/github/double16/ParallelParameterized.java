@@ -0,0 +1,179 @@
+package com.github.double16;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+import org.junit.runners.Parameterized;
+import org.junit.runners.ParentRunner;
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * A {@link Parameterized} runner that runs each parameter, i.e. each browser of an {@link AbstractFunctionalTest}, on its own
+ * thread. Use it with {@code @RunWith(ParallelParameterized.class)}.
+ *
+ * The test methods of each parameter run one at a time unless the system property "functionalTests.methodThreads" is greater
+ * than one. For subclasses of {@link AbstractFunctionalTest} the browser pool size is raised to the number of method threads so
+ * concurrent methods don't share a browser, including browsers an earlier test class in the JVM shared. Each method has its own test instance, so the test name, error collector and report
+ * numbering are per method as usual. Events are passed to the notifier one at a time.
+ */
+public class ParallelParameterized extends Parameterized {
+    public ParallelParameterized(Class<?> klass) throws Throwable {
+        super(configure(klass));
+        List<Runner> children = getChildren();
+        if (!children.isEmpty()) {
+            setScheduler(new ExecutorScheduler(klass.getSimpleName(), children.size()));
+        }
+        int methodThreads = getMethodThreads();
+        if (methodThreads > 1) {
+            for (Runner child : children) {
+                if (child instanceof ParentRunner) {
+                    ((ParentRunner<?>) child).setScheduler(new ExecutorScheduler(child.getDescription().getDisplayName(),
+                            methodThreads));
+                }
+            }
+        }
+    }
+
+    private static int getMethodThreads() {
+        return Math.max(1, Integer.getInteger("functionalTests.methodThreads", 1));
+    }
+
+    /**
+     * Size the browser pool before the parameters are created, which may start browsers.
+     */
+    private static Class<?> configure(Class<?> klass) {
+        int methodThreads = getMethodThreads();
+        if (methodThreads > 1 && AbstractFunctionalTest.class.isAssignableFrom(klass)
+                && AbstractFunctionalTest.WEB_DRIVER_CACHE.getPoolSize() < methodThreads) {
+            AbstractFunctionalTest.WEB_DRIVER_CACHE.setPoolSize(methodThreads);
+        }
+        return klass;
+    }
+
+    @Override
+    public void run(RunNotifier notifier) {
+        super.run(new SynchronizedRunNotifier(notifier));
+    }
+
+    /**
+     * Runs children on a fixed number of daemon threads and waits for all of them to finish.
+     */
+    private static class ExecutorScheduler implements RunnerScheduler {
+        private final ExecutorService executor;
+        private final List<Future<?>> children = new ArrayList<Future<?>>();
+
+        ExecutorScheduler(String name, int threads) {
+            executor = Executors.newFixedThreadPool(threads, WebDriverCache.daemonThreads(name));
+        }
+
+        @Override
+        public synchronized void schedule(Runnable childStatement) {
+            children.add(executor.submit(childStatement));
+        }
+
+        @Override
+        public void finished() {
+            try {
+                List<Future<?>> scheduled;
+                synchronized (this) {
+                    scheduled = new ArrayList<Future<?>>(children);
+                }
+                for (Future<?> child : scheduled) {
+                    try {
+                        child.get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof RuntimeException) {
+                            throw (RuntimeException) e.getCause();
+                        }
+                        if (e.getCause() instanceof Error) {
+                            throw (Error) e.getCause();
+                        }
+                        throw new IllegalStateException(e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException(e);
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Passes events to the notifier one at a time, listeners aren't required to be thread safe.
+     */
+    private static class SynchronizedRunNotifier extends RunNotifier {
+        private final RunNotifier delegate;
+
+        SynchronizedRunNotifier(RunNotifier delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void addListener(RunListener listener) {
+            delegate.addListener(listener);
+        }
+
+        @Override
+        public synchronized void removeListener(RunListener listener) {
+            delegate.removeListener(listener);
+        }
+
+        @Override
+        public synchronized void addFirstListener(RunListener listener) {
+            delegate.addFirstListener(listener);
+        }
+
+        @Override
+        public synchronized void fireTestRunStarted(Description description) {
+            delegate.fireTestRunStarted(description);
+        }
+
+        @Override
+        public synchronized void fireTestRunFinished(Result result) {
+            delegate.fireTestRunFinished(result);
+        }
+
+        @Override
+        public synchronized void fireTestStarted(Description description) throws StoppedByUserException {
+            delegate.fireTestStarted(description);
+        }
+
+        @Override
+        public synchronized void fireTestFailure(Failure failure) {
+            delegate.fireTestFailure(failure);
+        }
+
+        @Override
+        public synchronized void fireTestAssumptionFailed(Failure failure) {
+            delegate.fireTestAssumptionFailed(failure);
+        }
+
+        @Override
+        public synchronized void fireTestIgnored(Description description) {
+            delegate.fireTestIgnored(description);
+        }
+
+        @Override
+        public synchronized void fireTestFinished(Description description) {
+            delegate.fireTestFinished(description);
+        }
+
+        @Override
+        public void pleaseStop() {
+            delegate.pleaseStop();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.double16;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Appends report files to one data file instead of creating a file each, with an index of the entries in a text file next to it.
+ * Each index line is "offset length name", written after the entry's data, so an interrupted run leaves a readable archive. A
+ * later entry of the same name replaces an earlier one. Identical screenshots are stored once, their index lines point to the
+ * same data. Use {@link ReportArchiveReader} to list and extract entries.
+ *
+ * Entry names are the report file paths relative to the root, i.e. "chrome/artifacts/LoginTest/testLogin/001-end.png". Only
+ * one JVM may write to an archive.
+ */
+public class ReportArchive implements Closeable {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    public static final String DATA_SUFFIX = ".dat";
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private final File data;
+    private final File index;
+    private final File root;
+    /** Offset and length of stored screenshots by hash. */
+    private final Map<String, long[]> segments = new HashMap<String, long[]>();
+    private OutputStream dataOut;
+    private Writer indexOut;
+    private long position;
+
+    /**
+     * @param data the data file, ending with {@link #DATA_SUFFIX}, the index is named with {@link #INDEX_SUFFIX} instead
+     * @param root the directory entry names are relative to
+     */
+    public ReportArchive(File data, File root) {
+        this.data = data;
+        this.index = indexFile(data);
+        this.root = root;
+    }
+
+    static File indexFile(File data) {
+        String name = data.getName();
+        if (name.endsWith(DATA_SUFFIX)) {
+            name = name.substring(0, name.length() - DATA_SUFFIX.length());
+        }
+        return new File(data.getParentFile(), name + INDEX_SUFFIX);
+    }
+
+    public File getFile() {
+        return data;
+    }
+
+    public File getIndexFile() {
+        return index;
+    }
+
+    String entryName(File target) {
+        String path = target.getAbsoluteFile().toURI().getPath();
+        String rootPath = root.getAbsoluteFile().toURI().getPath();
+        if (!rootPath.endsWith("/")) {
+            rootPath += "/";
+        }
+        return path.startsWith(rootPath) ? path.substring(rootPath.length()) : target.getPath().replace(File.separatorChar, '/');
+    }
+
+    private void open() throws IOException {
+        if (dataOut == null) {
+            File dir = data.getAbsoluteFile().getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            position = data.length();
+            dataOut = new BufferedOutputStream(new FileOutputStream(data, true), 64 * 1024);
+            indexOut = new OutputStreamWriter(new FileOutputStream(index, true), UTF8);
+        }
+    }
+
+    /**
+     * Append the content as the target's entry.
+     */
+    synchronized void append(File target, ReportWriter.Content content) throws IOException {
+        open();
+        long offset = position;
+        CountingOutputStream counting = new CountingOutputStream(new CloseShieldOutputStream(dataOut));
+        try {
+            content.writeTo(counting);
+            counting.flush();
+        } finally {
+            position += counting.getByteCount();
+        }
+        addEntry(offset, counting.getByteCount(), target);
+    }
+
+    /**
+     * Append the bytes as the target's entry, or point the entry at identical bytes already in the archive.
+     */
+    synchronized void append(File target, byte[] bytes) throws IOException {
+        open();
+        String hash = DriverBinaryCache.hex(DriverBinaryCache.digest().digest(bytes));
+        long[] segment = segments.get(hash);
+        if (segment == null) {
+            long offset = position;
+            try {
+                dataOut.write(bytes);
+                dataOut.flush();
+            } finally {
+                position = data.length();
+            }
+            segment = new long[] { offset, bytes.length };
+            segments.put(hash, segment);
+        }
+        addEntry(segment[0], segment[1], target);
+    }
+
+    private void addEntry(long offset, long length, File target) throws IOException {
+        indexOut.write(offset + " " + length + " " + entryName(target) + "\n");
+        indexOut.flush();
+    }
+
+    /**
+     * Close the files. The archive is opened again, appending, if more entries are added.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (dataOut != null) {
+            try {
+                dataOut.close();
+            } finally {
+                indexOut.close();
+                dataOut = null;
+                indexOut = null;
+                segments.clear();
+            }
+        }
+    }
+}
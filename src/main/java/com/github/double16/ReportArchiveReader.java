@@ -0,0 +1,159 @@
+package com.github.double16;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+
+/**
+ * Reads a {@link ReportArchive} without unpacking it. From the command line:
+ *
+ * <pre>
+ * java -cp ... com.github.double16.ReportArchiveReader list reports.dat
+ * java -cp ... com.github.double16.ReportArchiveReader cat reports.dat chrome/artifacts/LoginTest/testLogin/001-end.html
+ * java -cp ... com.github.double16.ReportArchiveReader extract reports.dat outputDir
+ * </pre>
+ */
+public class ReportArchiveReader implements Closeable {
+    private final RandomAccessFile data;
+    /** Offset and length by entry name, in the order first written. */
+    private final Map<String, long[]> entries = new LinkedHashMap<String, long[]>();
+
+    public ReportArchiveReader(File archive) throws IOException {
+        File index = ReportArchive.indexFile(archive);
+        if (!index.isFile()) {
+            throw new FileNotFoundException("Index " + index + " of " + archive + " not found");
+        }
+        this.data = new RandomAccessFile(archive, "r");
+        long dataLength = data.length();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), ReportArchive.UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 3) {
+                    // an interrupted write
+                    continue;
+                }
+                try {
+                    long offset = Long.parseLong(parts[0]);
+                    long length = Long.parseLong(parts[1]);
+                    if (offset >= 0 && length >= 0 && offset + length <= dataLength) {
+                        entries.put(parts[2], new long[] { offset, length });
+                    }
+                } catch (NumberFormatException e) {
+                    // an interrupted write
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The entry names.
+     */
+    public List<String> list() {
+        return new ArrayList<String>(entries.keySet());
+    }
+
+    /**
+     * The length of the entry, or -1 if it isn't in the archive.
+     */
+    public long getLength(String name) {
+        long[] entry = entries.get(name);
+        return entry != null ? entry[1] : -1;
+    }
+
+    /**
+     * Read the entry. Only one entry may be read at a time.
+     *
+     * @throws FileNotFoundException if the entry isn't in the archive
+     */
+    public InputStream open(String name) throws IOException {
+        long[] entry = entries.get(name);
+        if (entry == null) {
+            throw new FileNotFoundException(name + " not in archive");
+        }
+        data.seek(entry[0]);
+        return new BoundedInputStream(new CloseShieldInputStream(Channels.newInputStream(data.getChannel())), entry[1]);
+    }
+
+    /**
+     * Extract all entries into the directory.
+     *
+     * @throws IOException if an entry name points outside the directory, i.e. "../"
+     */
+    public void extract(File dir) throws IOException {
+        String root = dir.getCanonicalPath() + File.separator;
+        for (String name : entries.keySet()) {
+            File target = new File(dir, name);
+            if (!target.getCanonicalPath().startsWith(root)) {
+                throw new IOException("Entry " + name + " is outside " + dir);
+            }
+            File parent = target.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Unable to create " + parent);
+            }
+            InputStream is = open(name);
+            OutputStream os = new FileOutputStream(target);
+            try {
+                IOUtils.copyLarge(is, os);
+            } finally {
+                os.close();
+                is.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || ("cat".equals(args[0]) && args.length < 3) || ("extract".equals(args[0]) && args.length < 3)) {
+            System.err.println("Usage: ReportArchiveReader list|cat|extract archive.dat [entry name|output directory]");
+            System.exit(1);
+        }
+        ReportArchiveReader reader = new ReportArchiveReader(new File(args[1]));
+        try {
+            if ("list".equals(args[0])) {
+                for (String name : reader.list()) {
+                    System.out.println(reader.getLength(name) + "\t" + name);
+                }
+            } else if ("cat".equals(args[0])) {
+                InputStream is = reader.open(args[2]);
+                try {
+                    IOUtils.copyLarge(is, System.out);
+                } finally {
+                    is.close();
+                }
+                System.out.flush();
+            } else if ("extract".equals(args[0])) {
+                reader.extract(new File(args[2]));
+            } else {
+                System.err.println("Unknown command " + args[0] + ", expected list, cat or extract");
+                System.exit(1);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.double16;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A screenshot and the HTML of a page held in memory, captured by {@link FunctionalTestUtils#capture()}. Either may be missing if
+ * the driver couldn't provide it.
+ */
+public class ReportCapture {
+    private final String screenshot;
+    private final String html;
+    private final boolean compressHtml;
+    private final Rectangle crop;
+    private final Rectangle viewport;
+
+    /**
+     * @param screenshot the PNG in base64, or null
+     * @param html the page HTML, or null
+     */
+    public ReportCapture(String screenshot, String html) {
+        this(screenshot, html, false);
+    }
+
+    /**
+     * @param screenshot the PNG in base64, or null
+     * @param html the page HTML, or null
+     * @param compressHtml write the HTML gzipped, as baseFileName.html.gz
+     */
+    public ReportCapture(String screenshot, String html, boolean compressHtml) {
+        this(screenshot, html, compressHtml, null, null);
+    }
+
+    private ReportCapture(String screenshot, String html, boolean compressHtml, Rectangle crop, Rectangle viewport) {
+        this.screenshot = screenshot;
+        this.html = html;
+        this.compressHtml = compressHtml;
+        this.crop = crop;
+        this.viewport = viewport;
+    }
+
+    /**
+     * A copy whose screenshot will be cropped to the area, in screenshot pixels, when written.
+     */
+    public ReportCapture cropTo(Rectangle area) {
+        return cropTo(area, null);
+    }
+
+    /**
+     * A copy whose screenshot will be cropped to the area of the document when written. If the screenshot turns out to be of the
+     * viewport only, the area is taken relative to the viewport.
+     *
+     * @param viewport the visible part of the document when the screenshot was taken, or null if unknown
+     */
+    public ReportCapture cropTo(Rectangle area, Rectangle viewport) {
+        return new ReportCapture(screenshot, html, compressHtml, area, viewport);
+    }
+
+    /**
+     * The PNG in base64, or null.
+     */
+    public String getScreenshot() {
+        return screenshot;
+    }
+
+    /**
+     * The page HTML, or null.
+     */
+    public String getHtml() {
+        return html;
+    }
+
+    /**
+     * Write the screenshot and HTML as baseFileName.png and baseFileName.html, or baseFileName.html.gz.
+     * @return list of files that will be created
+     */
+    public List<File> write(File reportDir, String baseFileName, ReportWriter writer) throws IOException {
+        List<File> ret = new ArrayList<File>();
+        if (screenshot != null) {
+            File screenshotFile = new File(reportDir, baseFileName + ".png");
+            writer.writeScreenshot(screenshotFile, screenshot, crop, viewport);
+            ret.add(screenshotFile);
+        }
+        if (html != null) {
+            File htmlFile = new File(reportDir, baseFileName + (compressHtml ? ".html.gz" : ".html"));
+            writer.writeHtml(htmlFile, html);
+            ret.add(htmlFile);
+        }
+        return ret;
+    }
+}
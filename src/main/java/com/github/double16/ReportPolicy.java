@@ -0,0 +1,36 @@
+package com.github.double16;
+
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * When tests write reports, set by the system property "functionalTests.reportPolicy" as "always", "on-failure" or "explicit".
+ */
+public enum ReportPolicy {
+    /** Reports are written when requested and at the end of every test. This is the default. */
+    ALWAYS,
+    /**
+     * Reports requested by the test are kept in memory and written only if the test fails, together with a report of the page at
+     * the failure. Passing tests write nothing.
+     */
+    ON_FAILURE,
+    /** Only reports requested by the test are written. */
+    EXPLICIT;
+
+    public static ReportPolicy fromSystemProperty() {
+        return parse(System.getProperty("functionalTests.reportPolicy"));
+    }
+
+    static ReportPolicy parse(String value) {
+        if (StringUtils.isBlank(value)) {
+            return ALWAYS;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("functionalTests.reportPolicy must be one of always, on-failure or explicit, found "
+                    + value, e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.double16;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openqa.selenium.WebElement;
+
+/**
+ * The reports of one test, applying a {@link ReportPolicy}. With {@link ReportPolicy#ON_FAILURE} reports are captured from the
+ * browser when requested, so they show the page at that step, but held in memory until the test result is known.
+ */
+public class ReportRecorder {
+    private final FunctionalTestUtils utils;
+    private final File reportDir;
+    private final ReportWriter writer;
+    private final ReportPolicy policy;
+    /** Reports waiting for the test result, by base file name, guarded by this. */
+    private final Map<String, ReportCapture> buffered = new LinkedHashMap<String, ReportCapture>();
+
+    public ReportRecorder(FunctionalTestUtils utils, File reportDir, ReportWriter writer, ReportPolicy policy) {
+        this.utils = utils;
+        this.reportDir = reportDir;
+        this.writer = writer;
+        this.policy = policy;
+    }
+
+    public ReportPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * True if the test should report at its end, whatever the result.
+     */
+    public boolean isEndReported() {
+        return policy == ReportPolicy.ALWAYS;
+    }
+
+    /**
+     * A report requested by the test, written now or buffered depending on the policy.
+     */
+    public void report(String baseFileName) throws IOException {
+        report(baseFileName, null);
+    }
+
+    /**
+     * A report requested by the test with the screenshot cropped to the element, if not null.
+     */
+    public void report(String baseFileName, WebElement element) throws IOException {
+        ReportCapture capture = element != null ? utils.capture(element) : utils.capture();
+        if (policy == ReportPolicy.ON_FAILURE) {
+            synchronized (this) {
+                buffered.put(baseFileName, capture);
+            }
+        } else {
+            capture.write(reportDir, baseFileName, writer);
+        }
+    }
+
+    /**
+     * The test failed, write the buffered reports and, with {@link ReportPolicy#ON_FAILURE}, a report of the current page. The
+     * browser must still be available.
+     */
+    public void failed(String baseFileName) throws IOException {
+        synchronized (this) {
+            for (Map.Entry<String, ReportCapture> entry : buffered.entrySet()) {
+                entry.getValue().write(reportDir, entry.getKey(), writer);
+            }
+            buffered.clear();
+        }
+        if (policy == ReportPolicy.ON_FAILURE) {
+            utils.capture().write(reportDir, baseFileName, writer);
+        }
+    }
+
+    /**
+     * The test passed, drop the buffered reports.
+     */
+    public synchronized void succeeded() {
+        buffered.clear();
+    }
+}
@@ -0,0 +1,252 @@
+package com.github.double16;
+
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes report files in the background so the test thread only waits for the browser. Decoding and disk writes are done by a
+ * fixed number of threads. At most "capacity" writes are queued or in progress, further writes wait for a free slot so a slow
+ * disk can't fill the heap with screenshots. {@link #flush(long, TimeUnit)} waits for the queued writes, i.e. at shutdown.
+ */
+public class ReportWriter implements Closeable {
+    private static final Logger log = Logger.getLogger(ReportWriter.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Content of a report file, written by a writer thread. */
+    interface Content {
+        void writeTo(OutputStream os) throws IOException;
+    }
+
+    /** Work done by a writer thread. */
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    /** null to write on the calling thread. */
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    /** Writes queued or in progress, guarded by this. */
+    private int pending;
+    private long flushTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+    private volatile ScreenshotStore screenshotStore;
+    private volatile ReportArchive archive;
+
+    public ReportWriter() {
+        this(2, 32);
+    }
+
+    /**
+     * @param threads the number of writer threads, 0 to write on the calling thread
+     * @param capacity writes queued or in progress before callers wait
+     */
+    public ReportWriter(int threads, int capacity) {
+        this.executor = threads > 0 ? Executors.newFixedThreadPool(threads, WebDriverCache.daemonThreads("Report writer")) : null;
+        this.slots = new Semaphore(Math.max(1, capacity));
+    }
+
+    /**
+     * Write a screenshot as returned by {@link org.openqa.selenium.OutputType#BASE64}, decoding it on a writer thread.
+     */
+    public void writeScreenshot(File target, String base64Png) throws IOException {
+        writeScreenshot(target, base64Png, null);
+    }
+
+    /**
+     * Write a screenshot as returned by {@link org.openqa.selenium.OutputType#BASE64}, cropped to the area if not null. Decoding
+     * and cropping are done on a writer thread. With a {@link ScreenshotStore} the target is linked to the stored screenshot.
+     */
+    public void writeScreenshot(File target, String base64Png, Rectangle crop) throws IOException {
+        writeScreenshot(target, base64Png, crop, null);
+    }
+
+    /**
+     * Write a screenshot cropped to the area of the document, see {@link ScreenshotStore#crop(byte[], Rectangle, Rectangle)}.
+     *
+     * @param viewport the visible part of the document when the screenshot was taken, or null if unknown
+     */
+    public void writeScreenshot(final File target, final String base64Png, final Rectangle crop, final Rectangle viewport)
+            throws IOException {
+        submit(target, new Task() {
+            @Override
+            public void run() throws IOException {
+                byte[] png = Base64.decodeBase64(base64Png);
+                if (crop != null) {
+                    png = ScreenshotStore.crop(png, crop, viewport);
+                }
+                ReportArchive reportArchive = archive;
+                ScreenshotStore store = screenshotStore;
+                if (reportArchive != null) {
+                    reportArchive.append(target, png);
+                } else if (store != null) {
+                    store.store(png, target);
+                } else {
+                    final byte[] bytes = png;
+                    write(target, new Content() {
+                        @Override
+                        public void writeTo(OutputStream os) throws IOException {
+                            os.write(bytes);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Write HTML in UTF-8, gzipped if the target name ends with ".gz". The text is encoded as it is written, without a copy of
+     * the encoded document in memory.
+     */
+    public void writeHtml(File target, final String html) throws IOException {
+        final boolean gzip = target.getName().endsWith(".gz");
+        submit(target, new Content() {
+            @Override
+            public void writeTo(OutputStream os) throws IOException {
+                GZIPOutputStream gz = gzip ? new GZIPOutputStream(os, BUFFER_SIZE) : null;
+                Writer writer = new OutputStreamWriter(gz != null ? gz : os, UTF8);
+                writer.write(html);
+                writer.flush();
+                if (gz != null) {
+                    gz.finish();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue the write of the target, waiting while the writer is at capacity. Errors writing on a writer thread are logged.
+     */
+    void submit(final File target, final Content content) throws IOException {
+        submit(target, new Task() {
+            @Override
+            public void run() throws IOException {
+                write(target, content);
+            }
+        });
+    }
+
+    private void submit(final File target, final Task task) throws IOException {
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to write " + target);
+        }
+        synchronized (this) {
+            pending++;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    log.error("Writing report " + target, e);
+                } catch (RuntimeException e) {
+                    log.error("Writing report " + target, e);
+                } finally {
+                    slots.release();
+                    done();
+                }
+            }
+        });
+    }
+
+    private synchronized void done() {
+        pending--;
+        notifyAll();
+    }
+
+    private void write(File target, Content content) throws IOException {
+        ReportArchive reportArchive = archive;
+        if (reportArchive != null) {
+            reportArchive.append(target, content);
+            return;
+        }
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE);
+        try {
+            content.writeTo(os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Wait for the queued writes.
+     *
+     * @return true if all writes finished before the timeout
+     */
+    public synchronized boolean flush(long timeout, TimeUnit unit) {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        try {
+            while (pending > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    log.warn(pending + " report files not written within " + unit.toMillis(timeout) + "ms");
+                    return false;
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    public ScreenshotStore getScreenshotStore() {
+        return screenshotStore;
+    }
+
+    /**
+     * Store screenshots once per distinct image, or null to write each as is.
+     */
+    public void setScreenshotStore(ScreenshotStore screenshotStore) {
+        this.screenshotStore = screenshotStore;
+    }
+
+    public ReportArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Append all report files to the archive instead of writing them as files, or null to write files. The archive takes the
+     * place of the {@link ScreenshotStore}, it stores identical screenshots once.
+     */
+    public void setArchive(ReportArchive archive) {
+        this.archive = archive;
+    }
+
+    public void setFlushTimeout(long timeout, TimeUnit unit) {
+        this.flushTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Flush within the flush timeout, 60 seconds by default. The writer may still be used afterwards.
+     */
+    @Override
+    public void close() {
+        flush(flushTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+}
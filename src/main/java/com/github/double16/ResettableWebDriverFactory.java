@@ -0,0 +1,14 @@
+package com.github.double16;
+
+import org.openqa.selenium.WebDriver;
+
+/**
+ * A factory with application specific steps to reset a cached browser between tests, such as logging out.
+ */
+public interface ResettableWebDriverFactory extends WebDriverFactory {
+    /**
+     * Reset application state in the browser. This is called by {@link WebDriverCache} before the built-in reset, while the
+     * browser is still on the page the test left it on. Throwing an exception causes the driver to be quit instead of reused.
+     */
+    void resetWebDriver(WebDriver driver);
+}
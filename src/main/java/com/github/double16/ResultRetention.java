@@ -0,0 +1,234 @@
+package com.github.double16;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps the results of recent test runs. Each run writes into its own directory under a "runs" directory, so concurrent forks and
+ * earlier runs are never overwritten and nothing is deleted before a test starts. Runs beyond a number of runs or a total size
+ * are deleted, keeping the most recently modified, never the current run. A "latest" link next to the runs directory points to the
+ * current run, or a "latest.txt" file holds its id where links aren't supported.
+ *
+ * The JVMs writing a run hold a shared lock on its lock file, see {@link #lockRun(File, String)}, and locked runs are never
+ * deleted. Without a run id shared by the forks, i.e. from the Gradle plugin, each fork is a run of its own, and the lock keeps
+ * forks from deleting each other's runs while they write.
+ */
+public class ResultRetention {
+    private static final Logger log = Logger.getLogger(ResultRetention.class);
+    static final String RUNS_DIR = "runs";
+    static final String LATEST = "latest";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private final int keepRuns;
+    private final long maxBytes;
+
+    /**
+     * @param keepRuns the number of runs to keep, including the current, 0 for no limit
+     * @param maxBytes the total size of the runs to keep, 0 for no limit, the current run is kept regardless
+     */
+    public ResultRetention(int keepRuns, long maxBytes) {
+        this.keepRuns = keepRuns;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The directory of the run in the results directory.
+     */
+    public static File getRunDir(File resultsDir, String runId) {
+        return new File(new File(resultsDir, RUNS_DIR), runId);
+    }
+
+    /**
+     * Mark the run as in use by this JVM until the returned lock is closed or the JVM exits. Call it before creating the run
+     * directory, so the run is never seen unlocked.
+     */
+    public static Closeable lockRun(File resultsDir, String runId) throws IOException {
+        File runsDir = new File(resultsDir, RUNS_DIR);
+        if (!runsDir.isDirectory() && !runsDir.mkdirs() && !runsDir.isDirectory()) {
+            throw new IOException("Unable to create " + runsDir);
+        }
+        final RandomAccessFile file = new RandomAccessFile(new File(runsDir, runId + LOCK_SUFFIX), "rw");
+        try {
+            // shared by the forks of the run, null if another fork holds it where shared locks aren't supported
+            final FileLock lock = file.getChannel().tryLock(0, Long.MAX_VALUE, true);
+            return new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        if (lock != null) {
+                            lock.release();
+                        }
+                    } finally {
+                        file.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (OverlappingFileLockException e) {
+            // locked by this JVM already
+            file.close();
+            return new Closeable() {
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    /**
+     * True if a JVM holds the lock of the run.
+     */
+    private static boolean isLocked(File runsDir, String runId) {
+        File lockFile = new File(runsDir, runId + LOCK_SUFFIX);
+        if (!lockFile.isFile()) {
+            return false;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+            try {
+                FileLock lock = file.getChannel().tryLock();
+                if (lock == null) {
+                    return true;
+                }
+                lock.release();
+                return false;
+            } finally {
+                file.close();
+            }
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            log.debug("Unable to check the lock of " + lockFile + ", keeping the run: " + e);
+            return true;
+        }
+    }
+
+    /**
+     * Point "latest" in the results directory at the run.
+     */
+    public static void linkLatest(File resultsDir, String runId) throws IOException {
+        Path latest = new File(resultsDir, LATEST).toPath();
+        Path target = new File(RUNS_DIR, runId).toPath();
+        if (Files.isSymbolicLink(latest) && Files.readSymbolicLink(latest).equals(target)) {
+            return;
+        }
+        Path tmp = new File(resultsDir, LATEST + "." + runId + "." + Thread.currentThread().getId() + ".tmp").toPath();
+        try {
+            Files.deleteIfExists(tmp);
+            Files.createSymbolicLink(tmp, target);
+            // replaces the link of a previous run, forks of this run create the same link
+            Files.move(tmp, latest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (UnsupportedOperationException e) {
+            writeLatestFile(resultsDir, runId);
+        } catch (IOException e) {
+            // i.e. Windows without the privilege to create links
+            Files.deleteIfExists(tmp);
+            writeLatestFile(resultsDir, runId);
+        }
+    }
+
+    private static void writeLatestFile(File resultsDir, String runId) throws IOException {
+        File tmp = File.createTempFile(LATEST, ".tmp", resultsDir);
+        try {
+            FileUtils.writeStringToFile(tmp, runId + "\n", "UTF-8");
+            Files.move(tmp.toPath(), new File(resultsDir, LATEST + ".txt").toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Delete the runs in the results directory beyond the limits. Concurrent JVMs prune one at a time.
+     *
+     * @return the deleted run directories
+     */
+    public List<File> prune(File resultsDir, final String currentRunId) throws IOException {
+        final File runsDir = new File(resultsDir, RUNS_DIR);
+        if (!runsDir.isDirectory() || (keepRuns <= 0 && maxBytes <= 0)) {
+            return Collections.emptyList();
+        }
+        return InterProcessLock.withLock(new File(runsDir, ".prune.lock"), new InterProcessLock.Action<List<File>>() {
+            @Override
+            public List<File> run() throws IOException {
+                return pruneLocked(runsDir, currentRunId);
+            }
+        });
+    }
+
+    private List<File> pruneLocked(File runsDir, String currentRunId) {
+        File[] runs = runsDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+        if (runs == null) {
+            return Collections.emptyList();
+        }
+        // directories are modified while the run writes, the time is read once so the order doesn't change while sorting
+        final Map<File, Long> modified = new HashMap<File, Long>();
+        for (File run : runs) {
+            modified.put(run, run.lastModified());
+        }
+        List<File> byAge = new ArrayList<File>(Arrays.asList(runs));
+        Collections.sort(byAge, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                // newest first, by name when modified at the same time
+                int cmp = modified.get(b).compareTo(modified.get(a));
+                return cmp != 0 ? cmp : b.getName().compareTo(a.getName());
+            }
+        });
+
+        List<File> deleted = new ArrayList<File>();
+        int kept = 0;
+        long keptBytes = 0;
+        for (File run : byAge) {
+            long size = sizeOf(run);
+            boolean current = run.getName().equals(currentRunId) || isLocked(runsDir, run.getName());
+            if (current || ((keepRuns <= 0 || kept < keepRuns) && (maxBytes <= 0 || keptBytes + size <= maxBytes))) {
+                kept++;
+                keptBytes += size;
+                continue;
+            }
+            try {
+                FileUtils.deleteDirectory(run);
+                new File(runsDir, run.getName() + LOCK_SUFFIX).delete();
+                deleted.add(run);
+            } catch (IOException e) {
+                log.warn("Unable to delete old results " + run + ": " + e);
+            }
+        }
+        return deleted;
+    }
+
+    private static long sizeOf(File dir) {
+        try {
+            return FileUtils.sizeOfDirectory(dir);
+        } catch (IllegalArgumentException e) {
+            // deleted meanwhile
+            return 0;
+        }
+    }
+}
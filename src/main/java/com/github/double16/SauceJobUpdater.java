@@ -0,0 +1,225 @@
+package com.github.double16;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sends Sauce Labs job updates in the background so tests don't wait for the REST call. Updates of the same session that are
+ * waiting to be sent are merged into one call, later values replacing earlier ones and tags being combined. Once an update fails a
+ * job, later updates can't pass it, also when the failure was already sent. Failed calls are retried with exponential back off,
+ * except for client errors other than too many requests, which won't succeed when repeated. {@link #flush(long, TimeUnit)} sends
+ * everything waiting, i.e. at shutdown.
+ */
+public class SauceJobUpdater implements Closeable {
+    private static final Logger log = Logger.getLogger(SauceJobUpdater.class);
+
+    private final SauceRestClient client;
+    private final long batchDelayMillis;
+    private final long initialBackoffMillis;
+    private final int maxAttempts;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            WebDriverCache.daemonThreads("Sauce Labs job updates"));
+    /** Updates waiting to be sent, guarded by this. */
+    private final Map<String, Map<String, Object>> pending = new LinkedHashMap<String, Map<String, Object>>();
+    /** Failed attempts of the pending updates, guarded by this. */
+    private final Map<String, Integer> attempts = new HashMap<String, Integer>();
+    /** Sessions whose job failed, guarded by this. */
+    private final Set<String> failedJobs = new HashSet<String>();
+    /** An update was dropped since the last flush, guarded by this. */
+    private boolean dropped;
+    private long flushTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+    private boolean scheduled;
+
+    public SauceJobUpdater(SauceRestClient client) {
+        this(client, 200, 1000, 5);
+    }
+
+    /**
+     * @param batchDelayMillis how long an update waits for others of the same session
+     * @param initialBackoffMillis the delay before the first retry, doubled for each further retry
+     * @param maxAttempts calls made before an update is dropped
+     */
+    SauceJobUpdater(SauceRestClient client, long batchDelayMillis, long initialBackoffMillis, int maxAttempts) {
+        this.client = client;
+        this.batchDelayMillis = batchDelayMillis;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Queue an update of the session's job.
+     */
+    public synchronized void update(String sessionId, Map<String, Object> updates) {
+        merge(sessionId, updates);
+        schedule(batchDelayMillis);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void merge(String sessionId, Map<String, Object> updates) {
+        Map<String, Object> merged = pending.get(sessionId);
+        if (merged == null) {
+            merged = new LinkedHashMap<String, Object>();
+            pending.put(sessionId, merged);
+        }
+        for (Map.Entry<String, Object> update : updates.entrySet()) {
+            Object previous = merged.get(update.getKey());
+            if ("passed".equals(update.getKey()) && update.getValue() instanceof Boolean) {
+                // a job with a failed test failed
+                if (!(Boolean) update.getValue()) {
+                    failedJobs.add(sessionId);
+                }
+                merged.put(update.getKey(), !failedJobs.contains(sessionId));
+            } else if ("tags".equals(update.getKey()) && previous instanceof Collection && update.getValue() instanceof Collection) {
+                Collection<Object> tags = new LinkedHashSet<Object>((Collection<Object>) previous);
+                tags.addAll((Collection<Object>) update.getValue());
+                merged.put(update.getKey(), new ArrayList<Object>(tags));
+            } else {
+                merged.put(update.getKey(), update.getValue());
+            }
+        }
+    }
+
+    private void schedule(long delayMillis) {
+        if (!scheduled) {
+            scheduled = true;
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    send();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Send the pending updates, requeueing those that failed.
+     *
+     * @return true if nothing is left to send
+     */
+    private boolean send() {
+        Map<String, Map<String, Object>> batch;
+        synchronized (this) {
+            scheduled = false;
+            batch = new LinkedHashMap<String, Map<String, Object>>(pending);
+            pending.clear();
+        }
+        long retryMillis = 0;
+        for (Map.Entry<String, Map<String, Object>> update : batch.entrySet()) {
+            String sessionId = update.getKey();
+            try {
+                client.updateJobInfo(sessionId, update.getValue());
+                synchronized (this) {
+                    attempts.remove(sessionId);
+                }
+            } catch (Exception e) {
+                synchronized (this) {
+                    Integer failed = attempts.get(sessionId);
+                    failed = failed == null ? 1 : failed + 1;
+                    if (e instanceof SauceRestClient.StatusException && !((SauceRestClient.StatusException) e).isRetryable()) {
+                        attempts.remove(sessionId);
+                        dropped = true;
+                        log.warn("Error updating Sauce Labs job " + sessionId + ", not retrying: " + e);
+                        continue;
+                    }
+                    if (failed >= maxAttempts) {
+                        attempts.remove(sessionId);
+                        dropped = true;
+                        log.warn("Error updating Sauce Labs job " + sessionId + ", giving up after " + failed + " attempts: " + e);
+                        continue;
+                    }
+                    attempts.put(sessionId, failed);
+                    // updates queued meanwhile are newer
+                    Map<String, Object> newer = pending.remove(sessionId);
+                    merge(sessionId, update.getValue());
+                    if (newer != null) {
+                        merge(sessionId, newer);
+                    }
+                    long backoff = initialBackoffMillis << Math.min(failed - 1, 16);
+                    retryMillis = retryMillis == 0 ? backoff : Math.min(retryMillis, backoff);
+                    log.info("Error updating Sauce Labs job " + sessionId + ", retrying in " + backoff + "ms: " + e);
+                }
+            }
+        }
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                schedule(retryMillis > 0 ? retryMillis : batchDelayMillis);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Send the pending updates now, retrying failures until the timeout.
+     *
+     * @return true if all updates since the last flush were sent, false if some are still waiting or were dropped, i.e. rejected
+     * as a client error
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (true) {
+            // runs after a send in progress, the executor has one thread
+            Future<Boolean> sent = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return send();
+                }
+            });
+            try {
+                if (sent.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    synchronized (this) {
+                        boolean allSent = !dropped;
+                        dropped = false;
+                        return allSent;
+                    }
+                }
+                long pause = Math.min(initialBackoffMillis, deadline - System.currentTimeMillis());
+                if (pause <= 0) {
+                    break;
+                }
+                Thread.sleep(pause);
+            } catch (TimeoutException e) {
+                break;
+            } catch (ExecutionException e) {
+                log.warn("Error updating Sauce Labs jobs: " + e.getCause());
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        synchronized (this) {
+            log.warn("Sauce Labs job updates not sent for sessions " + pending.keySet());
+            dropped = false;
+        }
+        return false;
+    }
+
+    public void setFlushTimeout(long timeout, TimeUnit unit) {
+        this.flushTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Flush within the flush timeout, 30 seconds by default. Updates may still be queued afterwards.
+     */
+    @Override
+    public void close() {
+        flush(flushTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.double16;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.openqa.selenium.remote.BeanToJsonConverter;
+
+/**
+ * A minimal client of the Sauce Labs REST API for updating jobs. It is thread safe, and connections are reused between calls.
+ */
+public class SauceRestClient {
+    public static final String DEFAULT_URL = "https://saucelabs.com";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(10);
+
+    private final String baseUrl;
+    private final String username;
+    private final String authorization;
+
+    /**
+     * @param baseUrl the API server, i.e. {@link #DEFAULT_URL}
+     */
+    public SauceRestClient(String baseUrl, String username, String accessKey) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.username = username;
+        this.authorization = "Basic " + Base64.encodeBase64String((username + ":" + accessKey).getBytes(UTF8));
+    }
+
+    /**
+     * Update the job of the session, i.e. "passed", "name", "build" and "tags".
+     *
+     * @throws IOException if the update failed, {@link StatusException} for error responses
+     */
+    public void updateJobInfo(String sessionId, Map<String, Object> updates) throws IOException {
+        URL url = new URL(baseUrl + "/rest/v1/" + URLEncoder.encode(username, "UTF-8") + "/jobs/"
+                + URLEncoder.encode(sessionId, "UTF-8"));
+        byte[] body = new BeanToJsonConverter().convert(updates).getBytes(UTF8);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestMethod("PUT");
+        connection.setRequestProperty("Authorization", authorization);
+        connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setDoOutput(true);
+        OutputStream os = connection.getOutputStream();
+        try {
+            os.write(body);
+        } finally {
+            os.close();
+        }
+        int status = connection.getResponseCode();
+        // read the response fully so the connection is kept alive
+        InputStream is = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (is != null) {
+            try {
+                IOUtils.toByteArray(is);
+            } finally {
+                is.close();
+            }
+        }
+        if (status >= 300) {
+            throw new StatusException("Updating Sauce Labs job " + sessionId + " failed with HTTP " + status, status);
+        }
+    }
+
+    /**
+     * An error response from the API.
+     */
+    public static class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        StatusException(String message, int status) {
+            super(message);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * True if sending the same request again may succeed, i.e. not for a bad request or bad credentials. 429 is too many
+         * requests.
+         */
+        public boolean isRetryable() {
+            return status < 400 || status >= 500 || status == 429;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+}
@@ -0,0 +1,254 @@
+package com.github.double16;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Stores each distinct screenshot once. Screenshots are named by the SHA-256 of the PNG from the driver, and the report file is a
+ * hard link to the stored file, or a copy where the file system doesn't support links. Identical screenshots, i.e. of a page that
+ * didn't change between reports, take the space of one. New screenshots may be re-compressed at the highest deflate level, the
+ * image is unchanged.
+ *
+ * The store may be shared between JVMs and runs, each screenshot is moved into place once complete. Screenshots no longer linked
+ * from a report are deleted by {@link #pruneUnreferenced(long)}.
+ */
+public class ScreenshotStore {
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+    private static final String IDAT = "IDAT";
+
+    private final File dir;
+    private final boolean recompress;
+    /** Screenshots known to be in the store, by hash. */
+    private final ConcurrentMap<String, File> stored = new ConcurrentHashMap<String, File>();
+
+    /**
+     * @param dir the store, on the same file system as the reports so they can be linked
+     * @param recompress re-compress new screenshots at the highest deflate level
+     */
+    public ScreenshotStore(File dir, boolean recompress) {
+        this.dir = dir;
+        this.recompress = recompress;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Store the PNG, if it isn't already, and link the target to it.
+     *
+     * @return the stored file
+     */
+    public File store(byte[] png, File target) throws IOException {
+        String hash = DriverBinaryCache.hex(DriverBinaryCache.digest().digest(png));
+        File blob = stored.get(hash);
+        if (blob == null) {
+            blob = new File(dir, hash + ".png");
+            if (!blob.isFile()) {
+                if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                    throw new IOException("Unable to create " + dir);
+                }
+                File tmp = File.createTempFile(hash, ".tmp", dir);
+                try {
+                    Files.write(tmp.toPath(), recompress ? recompress(png) : png);
+                    Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    tmp.delete();
+                }
+            }
+            stored.put(hash, blob);
+        }
+        try {
+            link(blob, target);
+        } catch (NoSuchFileException e) {
+            // pruned meanwhile
+            stored.remove(hash);
+            return store(png, target);
+        }
+        return blob;
+    }
+
+    /**
+     * Delete stored screenshots no report links to, i.e. after the runs linking them were deleted. Only screenshots last
+     * modified before the time are deleted, so screenshots being linked are kept. Nothing is deleted where the file system
+     * doesn't count links.
+     *
+     * @return the number of screenshots deleted
+     */
+    public int pruneUnreferenced(long modifiedBefore) throws IOException {
+        File[] blobs = dir.listFiles();
+        if (blobs == null) {
+            return 0;
+        }
+        int deleted = 0;
+        for (File blob : blobs) {
+            if (!blob.getName().endsWith(".png") || blob.lastModified() >= modifiedBefore) {
+                continue;
+            }
+            Object links;
+            try {
+                links = Files.getAttribute(blob.toPath(), "unix:nlink");
+            } catch (UnsupportedOperationException e) {
+                return deleted;
+            } catch (IllegalArgumentException e) {
+                return deleted;
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            if (links instanceof Number && ((Number) links).intValue() == 1 && blob.delete()) {
+                stored.remove(blob.getName().substring(0, blob.getName().length() - ".png".length()));
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private static void link(File blob, File target) throws IOException {
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), blob.toPath());
+            return;
+        } catch (UnsupportedOperationException e) {
+            // copied below
+        } catch (IOException e) {
+            // i.e. a different file system, copied below
+        }
+        Files.copy(blob.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Re-compress the image data of a PNG at the highest deflate level. The PNG is returned unchanged if it isn't smaller.
+     */
+    static byte[] recompress(byte[] png) throws IOException {
+        if (png.length < PNG_SIGNATURE.length || !Arrays.equals(PNG_SIGNATURE, Arrays.copyOf(png, PNG_SIGNATURE.length))) {
+            throw new IOException("Not a PNG");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(png, PNG_SIGNATURE.length,
+                png.length - PNG_SIGNATURE.length));
+        List<byte[]> before = new ArrayList<byte[]>();
+        List<byte[]> after = new ArrayList<byte[]>();
+        ByteArrayOutputStream idat = new ByteArrayOutputStream(png.length);
+        try {
+            while (true) {
+                int length = in.readInt();
+                byte[] type = new byte[4];
+                in.readFully(type);
+                byte[] data = new byte[length];
+                in.readFully(data);
+                int crc = in.readInt();
+                if (IDAT.equals(new String(type, "US-ASCII"))) {
+                    if (!after.isEmpty()) {
+                        // IDAT chunks must be consecutive
+                        return png;
+                    }
+                    idat.write(data);
+                } else {
+                    (idat.size() == 0 ? before : after).add(chunk(type, data, crc));
+                }
+            }
+        } catch (EOFException e) {
+            // end of chunks
+        }
+        if (idat.size() == 0) {
+            return png;
+        }
+
+        byte[] raw = IOUtils.toByteArray(new InflaterInputStream(new ByteArrayInputStream(idat.toByteArray())));
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(idat.size());
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(deflated, deflater, 64 * 1024);
+            dos.write(raw);
+            dos.finish();
+        } finally {
+            deflater.end();
+        }
+        if (deflated.size() >= idat.size()) {
+            return png;
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(png.length);
+        result.write(PNG_SIGNATURE);
+        for (byte[] chunk : before) {
+            result.write(chunk);
+        }
+        result.write(chunk(IDAT.getBytes("US-ASCII"), deflated.toByteArray()));
+        for (byte[] chunk : after) {
+            result.write(chunk);
+        }
+        return result.toByteArray();
+    }
+
+    private static byte[] chunk(byte[] type, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data);
+        return chunk(type, data, (int) crc.getValue());
+    }
+
+    private static byte[] chunk(byte[] type, byte[] data, int crc) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 12);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(data.length);
+        out.write(type);
+        out.write(data);
+        out.writeInt(crc);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Crop a PNG to the area, limited to the bounds of the image.
+     */
+    static byte[] crop(byte[] png, Rectangle area) throws IOException {
+        return crop(png, area, null);
+    }
+
+    /**
+     * Crop a PNG of the page to the area of the document, limited to the bounds of the image. Some drivers, i.e. chromedriver,
+     * only capture the viewport, so if the image is no larger than the viewport the area is taken relative to it.
+     *
+     * @param viewport the visible part of the document when the screenshot was taken, or null if unknown
+     * @throws IOException if the area is outside the image
+     */
+    static byte[] crop(byte[] png, Rectangle area, Rectangle viewport) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (image == null) {
+            throw new IOException("Not an image");
+        }
+        Rectangle imageArea = new Rectangle(area);
+        if (viewport != null && image.getWidth() <= viewport.width && image.getHeight() <= viewport.height) {
+            imageArea.translate(-viewport.x, -viewport.y);
+        }
+        Rectangle bounds = imageArea.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (bounds.isEmpty()) {
+            throw new IOException("Crop area " + imageArea + " is outside the " + image.getWidth() + "x" + image.getHeight()
+                    + " screenshot");
+        }
+        ByteArrayOutputStream cropped = new ByteArrayOutputStream();
+        ImageIO.write(image.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height), "png", cropped);
+        return cropped.toByteArray();
+    }
+}
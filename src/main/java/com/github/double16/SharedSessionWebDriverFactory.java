@@ -0,0 +1,9 @@
+package com.github.double16;
+
+/**
+ * A factory whose sessions live on a remote server, such as a Selenium grid, and can be attached to from any JVM. When a
+ * {@link WebDriverBroker} is configured, {@link WebDriverCache} shares these sessions with other JVMs through the broker instead of
+ * keeping them in its own pool.
+ */
+public interface SharedSessionWebDriverFactory extends WebDriverFactory {
+}
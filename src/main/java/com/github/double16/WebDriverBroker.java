@@ -0,0 +1,280 @@
+package com.github.double16;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Owns remote browser sessions on behalf of several JVMs, such as the forks of a Gradle test task. A JVM that is done with a
+ * session returns it to the broker instead of quitting it, and a JVM that needs a session borrows an idle one before starting its
+ * own. The number of sessions follows the number of concurrent tests rather than the number of JVMs, and sessions survive forks
+ * being recycled.
+ *
+ * The broker listens on a loopback socket. Each request is one line and gets one line in response:
+ * <pre>
+ * token BORROW identifier                           -&gt; SESSION sessionId capabilities | NONE
+ * token RETURN identifier grid sessionId capabilities -&gt; OK
+ * </pre>
+ * Any local user can connect to the socket, so every request must start with the token the broker was created with, a request
+ * with another token is refused and the connection closed. The grid URL, which may carry credentials, is never sent. A returned
+ * session names its grid without credentials and is refused unless it is the grid the broker was created for; clients attach to
+ * borrowed sessions with their own grid URL.
+ *
+ * Closing the broker quits all idle sessions. Run {@link #main(String[])} to use a broker process outside of Gradle.
+ */
+public class WebDriverBroker implements Closeable {
+    private static final Logger log = Logger.getLogger(WebDriverBroker.class);
+    static final String ENCODING = "UTF-8";
+    private static final int TOKEN_BITS = 160;
+
+    private final byte[] token;
+    private final URL grid;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, Deque<BrokeredSession>> idle = new ConcurrentHashMap<String, Deque<BrokeredSession>>();
+    private final long maxIdleMillis;
+    private volatile boolean closed;
+
+    /**
+     * @param port the port to listen on, 0 to choose a free port
+     * @param token the secret clients must send with each request, see {@link #newToken()}
+     * @param grid the Selenium grid of the shared sessions, including any credentials needed to quit them
+     * @param maxIdle the longest a session may be idle in the broker before it is quit, zero or less for no limit
+     */
+    public WebDriverBroker(int port, String token, URL grid, long maxIdle, TimeUnit unit) throws IOException {
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException("A token is required");
+        }
+        if (grid == null) {
+            throw new IllegalArgumentException("A grid is required");
+        }
+        this.token = token.getBytes(ENCODING);
+        this.grid = grid;
+        this.maxIdleMillis = unit.toMillis(maxIdle);
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WebDriver broker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * A random token for a new broker.
+     */
+    public static String newToken() {
+        return new BigInteger(TOKEN_BITS, new SecureRandom()).toString(Character.MAX_RADIX);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return true if the URL is the grid of this broker, ignoring credentials
+     */
+    public boolean isGrid(URL url) {
+        return BrokeredSession.gridOf(grid).equals(BrokeredSession.gridOf(url));
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                final Socket socket = serverSocket.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("WebDriver broker accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), ENCODING));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), ENCODING);
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                if (!isAuthorized(fields[0])) {
+                    log.warn("WebDriver broker refused a request from " + socket.getRemoteSocketAddress() + " with a wrong token");
+                    out.write("ERROR " + BrokeredSession.encode("Unauthorized"));
+                    out.write('\n');
+                    out.flush();
+                    break;
+                }
+                String response;
+                try {
+                    response = handle(Arrays.copyOfRange(fields, 1, fields.length));
+                } catch (IOException e) {
+                    response = "ERROR " + BrokeredSession.encode(e.getMessage());
+                }
+                out.write(response);
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            log.debug("WebDriver broker connection failed", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private boolean isAuthorized(String requestToken) throws IOException {
+        return MessageDigest.isEqual(token, requestToken.getBytes(ENCODING));
+    }
+
+    /**
+     * Handle an authorized request, without the token.
+     */
+    String handle(String[] command) throws IOException {
+        if (command.length < 2) {
+            throw new IOException("Expected a command and identifier");
+        }
+        String identifier = BrokeredSession.decode(command[1]);
+        if ("BORROW".equals(command[0])) {
+            BrokeredSession session = borrow(identifier);
+            return session == null ? "NONE" : "SESSION " + session.encode();
+        } else if ("RETURN".equals(command[0])) {
+            if (command.length < 3 || !BrokeredSession.gridOf(grid).equals(BrokeredSession.decode(command[2]))) {
+                throw new IOException("Only sessions of the broker's grid can be returned");
+            }
+            BrokeredSession session = BrokeredSession.parse(command, 3);
+            if (closed) {
+                quit(session);
+            } else {
+                getIdle(identifier).offerFirst(session);
+            }
+            return "OK";
+        }
+        throw new IOException("Unknown command " + command[0]);
+    }
+
+    private BrokeredSession borrow(String identifier) {
+        Deque<BrokeredSession> sessions = getIdle(identifier);
+        BrokeredSession session;
+        while ((session = sessions.pollFirst()) != null) {
+            if (maxIdleMillis <= 0 || System.currentTimeMillis() - session.returned <= maxIdleMillis) {
+                return session;
+            }
+            quit(session);
+        }
+        return null;
+    }
+
+    private Deque<BrokeredSession> getIdle(String identifier) {
+        Deque<BrokeredSession> sessions = idle.get(identifier);
+        if (sessions == null) {
+            Deque<BrokeredSession> created = new ConcurrentLinkedDeque<BrokeredSession>();
+            sessions = idle.putIfAbsent(identifier, created);
+            if (sessions == null) {
+                sessions = created;
+            }
+        }
+        return sessions;
+    }
+
+    private void quit(BrokeredSession session) {
+        try {
+            session.attach(grid).quit();
+        } catch (WebDriverException e) {
+            log.warn("Quitting brokered session " + session + ": " + e);
+        }
+    }
+
+    /**
+     * Stop accepting requests and quit all idle sessions.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        List<BrokeredSession> sessions = new ArrayList<BrokeredSession>();
+        for (Deque<BrokeredSession> deque : idle.values()) {
+            BrokeredSession session;
+            while ((session = deque.pollFirst()) != null) {
+                sessions.add(session);
+            }
+        }
+        for (BrokeredSession session : sessions) {
+            quit(session);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Run a broker until the process is stopped. Arguments are the port, default 0 to choose one, and the maximum idle seconds of
+     * a session, default 0 for no limit. The grid is taken from "SELENIUM_FULL_URL" and the token from
+     * "functionalTests.brokerToken", system properties or environment variables, the same as the tests. Without a token a random one
+     * is chosen. The chosen port and token are printed.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int maxIdle = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        String gridStr = FunctionalTestSupport.getPropertyOrEnv(AbstractFunctionalTest.SELENIUM_GRID);
+        if (gridStr == null) {
+            System.err.println(AbstractFunctionalTest.SELENIUM_GRID + " is required");
+            System.exit(1);
+        }
+        String token = FunctionalTestSupport.getPropertyOrEnv("functionalTests.brokerToken");
+        if (token == null) {
+            token = newToken();
+        }
+        final WebDriverBroker broker = new WebDriverBroker(port, token, new URL(gridStr), maxIdle, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread("WebDriver broker shutdown") {
+            @Override
+            public void run() {
+                try {
+                    broker.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        System.out.println("WebDriver broker listening on port " + broker.getPort() + " with token " + token);
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
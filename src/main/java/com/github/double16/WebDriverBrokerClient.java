@@ -0,0 +1,97 @@
+package com.github.double16;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Borrows and returns sessions from a {@link WebDriverBroker} running on this host. Borrowed sessions are attached to through the
+ * grid URL of this client, only sessions of that grid are returned.
+ */
+public class WebDriverBrokerClient {
+    private static final int SOCKET_TIMEOUT_MILLIS = 10000;
+
+    private final int port;
+    private final String token;
+    private final URL grid;
+
+    /**
+     * @param token the token the broker was created with
+     * @param grid the Selenium grid of the shared sessions, including any credentials
+     */
+    public WebDriverBrokerClient(int port, String token, URL grid) {
+        this.port = port;
+        this.token = token;
+        this.grid = grid;
+    }
+
+    /**
+     * Borrow an idle session.
+     *
+     * @return a driver attached to the session, or null if the broker has no idle session for the identifier
+     */
+    public RemoteWebDriver borrow(String identifier) throws IOException {
+        String response = send("BORROW " + BrokeredSession.encode(identifier));
+        if ("NONE".equals(response)) {
+            return null;
+        }
+        String[] fields = response.split(" ");
+        if (!"SESSION".equals(fields[0])) {
+            throw new IOException("Unexpected broker response: " + response);
+        }
+        return BrokeredSession.parse(fields, 1).attach(grid);
+    }
+
+    /**
+     * Give the session to the broker for use by other JVMs. The driver must not be used afterward.
+     *
+     * @return false if the driver isn't a remote session of the grid the broker can share, the caller should quit it
+     */
+    public boolean giveBack(String identifier, RemoteWebDriver driver) throws IOException {
+        BrokeredSession session = BrokeredSession.of(driver);
+        if (session == null) {
+            return false;
+        }
+        String driverGrid = BrokeredSession.gridOf(BrokeredSession.addressOf(driver));
+        if (!driverGrid.equals(BrokeredSession.gridOf(grid))) {
+            return false;
+        }
+        String response = send("RETURN " + BrokeredSession.encode(identifier) + " " + BrokeredSession.encode(driverGrid) + " "
+                + session.encode());
+        if (!"OK".equals(response)) {
+            throw new IOException("Unexpected broker response: " + response);
+        }
+        return true;
+    }
+
+    private String send(String command) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName(null), port);
+        try {
+            socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), WebDriverBroker.ENCODING);
+            out.write(token);
+            out.write(' ');
+            out.write(command);
+            out.write('\n');
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), WebDriverBroker.ENCODING));
+            String response = in.readLine();
+            if (response == null) {
+                throw new IOException("WebDriver broker on port " + port + " closed the connection");
+            }
+            if (response.startsWith("ERROR ")) {
+                throw new IOException("WebDriver broker: " + BrokeredSession.decode(response.substring(6)));
+            }
+            return response;
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -1,61 +1,364 @@
 package com.github.double16;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.log4j.Logger;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.service.DriverService;
 
 /**
  * Caches web driver instances. Caching is optional so that conditional caching is handled in this class and not in all of the
- * callers. This class is not thread safe and not intended to handle concurrent uses of the same WebDriverFactory. It is important
- * when using caching that the browser state is considered by the caller. For example, if the browser is logged into a particular
- * user, the user should be logged out.
- * 
+ * callers. It is important when using caching that the browser state is considered by the caller. Enabling
+ * {@link #setResetOnReturn(boolean) reset on return} clears cookies, storage, extra windows and alerts when a driver is returned.
+ * Application state, for example a logged in user, may be reset by implementing {@link ResettableWebDriverFactory}.
+ *
+ * By default one driver is shared by every caller of the same WebDriverFactory, which is not intended for concurrent tests. Setting
+ * a pool size greater than zero switches to checkout/checkin semantics: {@link #getWebDriver(WebDriverFactory, String)} borrows a
+ * driver for the exclusive use of the caller, {@link #maybeQuitWebDriver(WebDriver)} returns it, and up to pool size drivers are
+ * kept per factory identifier. Each identifier has its own pool, so callers of different browsers never wait on each other.
+ *
+ * Cached drivers are checked against the {@link #getEvictionPolicy() eviction policy} before being handed out. A driver whose
+ * session has died or outlived the policy is quit and transparently replaced using the factory.
+ *
+ * Starting a browser, especially on a remote grid, is slow. {@link #prewarm(Collection)} starts browsers in the background as soon
+ * as the factories are known so the first test of each browser doesn't wait for it.
+ *
+ * With a {@link #setBroker(WebDriverBrokerClient) broker}, drivers from a {@link SharedSessionWebDriverFactory} are borrowed from
+ * and returned to the broker so that sessions are shared with other JVMs. Drivers from other factories are cached as usual.
+ *
  * Caching is enabled by default.
  */
 public class WebDriverCache {
-    private Map<String, WebDriver> cache = new HashMap<String, WebDriver>();
-    private boolean cacheEnabled = true;
+    private static final Logger log = Logger.getLogger(WebDriverCache.class);
+
+    private final ConcurrentMap<String, WebDriverPool> pools = new ConcurrentHashMap<String, WebDriverPool>();
+    private final ConcurrentMap<WebDriver, WebDriverPool> leases = new ConcurrentHashMap<WebDriver, WebDriverPool>();
+    private final ConcurrentMap<WebDriver, WebDriverFactory> brokered = new ConcurrentHashMap<WebDriver, WebDriverFactory>();
+    private final List<Closeable> resources = new CopyOnWriteArrayList<Closeable>();
+    private final WebDriverEvictionPolicy evictionPolicy = new WebDriverEvictionPolicy();
+    private volatile boolean cacheEnabled = true;
+    private volatile int poolSize = 0;
+    private volatile long borrowTimeoutMillis = 0;
+    private volatile boolean resetOnReturn = false;
+    private volatile long quitTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+    private volatile long shutdownTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+    private volatile WebDriverBrokerClient broker;
+    private ExecutorService warmer;
 
     /**
-     * Get or create a web driver using the given factory. This may returned a cached instance.
-     * 
+     * Get or create a web driver using the given factory. This may returned a cached instance. When pooling, this waits up to
+     * the borrow timeout for a driver to be returned.
+     *
      * @return a new or cached WebDriver
      */
     public WebDriver getWebDriver(WebDriverFactory factory, String testName) throws IOException {
+        return getWebDriver(factory, testName, borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get or create a web driver using the given factory, waiting up to the timeout for a pooled driver to be returned.
+     *
+     * @param timeout the maximum time to wait, zero or less waits indefinitely. Ignored unless pooling.
+     * @return a new or cached WebDriver
+     * @throws IOException if the driver could not be created or the timeout elapsed
+     */
+    public WebDriver getWebDriver(WebDriverFactory factory, String testName, long timeout, TimeUnit unit) throws IOException {
         if (!cacheEnabled) {
             return factory.createWebDriver(testName);
         }
-        String cacheKey = factory.getIdentifier();
-        WebDriver driver = cache.get(cacheKey);
+        if (broker != null && factory instanceof SharedSessionWebDriverFactory) {
+            return borrowFromBroker(factory, testName);
+        }
+        WebDriverPool pool = getPool(factory);
+        WebDriver driver = pool.borrow(testName, timeout, unit);
+        leases.put(driver, pool);
+        return driver;
+    }
+
+    private WebDriver borrowFromBroker(WebDriverFactory factory, String testName) throws IOException {
+        WebDriver driver = null;
+        try {
+            driver = broker.borrow(factory.getIdentifier());
+        } catch (IOException e) {
+            log.warn("Borrowing " + factory.getIdentifier() + " web driver from broker failed: " + e);
+        }
+        if (driver != null && evictionPolicy.isValidateOnBorrow() && !evictionPolicy.isAlive(driver)) {
+            log.info("Replacing " + factory.getIdentifier() + " web driver from broker, not responding");
+            quitQuietly(driver);
+            driver = null;
+        }
         if (driver == null) {
             driver = factory.createWebDriver(testName);
-            cache.put(cacheKey, driver);
         }
+        brokered.put(driver, factory);
         return driver;
     }
 
+    private void giveBackToBroker(WebDriverFactory factory, WebDriver driver) {
+        if (resetOnReturn && !WebDriverReset.tryReset(factory, driver)) {
+            quitQuietly(driver);
+            return;
+        }
+        try {
+            if (driver instanceof RemoteWebDriver && broker.giveBack(factory.getIdentifier(), (RemoteWebDriver) driver)) {
+                return;
+            }
+        } catch (IOException e) {
+            log.warn("Returning " + factory.getIdentifier() + " web driver to broker failed: " + e);
+        }
+        quitQuietly(driver);
+    }
+
+    private static void quitQuietly(WebDriver driver) {
+        try {
+            driver.quit();
+        } catch (RuntimeException e) {
+            log.debug("Quitting web driver", e);
+        }
+    }
+
+    private WebDriverPool getPool(WebDriverFactory factory) {
+        String cacheKey = factory.getIdentifier();
+        WebDriverPool pool = pools.get(cacheKey);
+        if (pool == null) {
+            WebDriverPool created = new WebDriverPool(factory, poolSize, evictionPolicy);
+            pool = pools.putIfAbsent(cacheKey, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return true if each caller of {@link #getWebDriver(WebDriverFactory, String)} gets a driver of its own for the factory, false
+     * if callers share one
+     */
+    public boolean isExclusive(WebDriverFactory factory) {
+        if (!cacheEnabled || (broker != null && factory instanceof SharedSessionWebDriverFactory)) {
+            return true;
+        }
+        return getPool(factory).isLeasing();
+    }
+
     /**
-     * Quit the driver if not-cached. Call this when done with the driver for a particular case.
+     * Start creating drivers for the factories in the background, up to the pool size of each, or one driver if not pooling.
+     * Callers of {@link #getWebDriver(WebDriverFactory, String)} receive these drivers, waiting for them to finish starting if
+     * necessary. Does nothing if caching is disabled.
+     */
+    public void prewarm(Collection<WebDriverFactory> factories) {
+        if (!cacheEnabled) {
+            return;
+        }
+        ExecutorService executor = getWarmer();
+        for (WebDriverFactory factory : factories) {
+            getPool(factory).prewarm(executor);
+        }
+    }
+
+    private synchronized ExecutorService getWarmer() {
+        if (warmer == null) {
+            warmer = Executors.newCachedThreadPool(daemonThreads("WebDriver warm up"));
+        }
+        return warmer;
+    }
+
+    static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + " " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Quit the driver if not-cached, or return it to the cache, resetting it if enabled. Call this when done with the driver for a
+     * particular case.
      */
     public void maybeQuitWebDriver(WebDriver driver) {
         if (!cacheEnabled) {
             driver.quit();
+            return;
+        }
+        WebDriverFactory brokeredFactory = brokered.remove(driver);
+        if (brokeredFactory != null) {
+            giveBackToBroker(brokeredFactory, driver);
+            return;
+        }
+        WebDriverPool pool = leases.get(driver);
+        if (pool == null) {
+            return;
+        }
+        if (pool.isLeasing()) {
+            if (leases.remove(driver, pool)) {
+                pool.giveBack(driver, resetOnReturn);
+            }
+        } else {
+            // every caller of a shared driver gives it back, the lease is kept until nobody can hold the driver
+            pool.giveBack(driver, resetOnReturn);
+            if (pool.isReleased(driver)) {
+                leases.remove(driver, pool);
+            }
         }
     }
 
     /**
-     * Unconditionally quit all drivers. If caching is disabled, no driver will be quit. The {@link #maybeQuitWebDriver(WebDriver)}
-     * is expected to quit drivers in this case.
+     * Unconditionally quit all drivers, including pooled and brokered drivers that are checked out. Drivers returned to the broker
+     * belong to the broker and are not quit. If caching is disabled, no driver will be quit. The
+     * {@link #maybeQuitWebDriver(WebDriver)} is expected to quit drivers in this case.
+     *
+     * Drivers are quit concurrently. A driver that doesn't quit within the quit timeout, or before the shutdown timeout since this
+     * method was called, is abandoned. If it runs a local driver process, the process is stopped. Resources registered with
+     * {@link #closeOnQuitAll(Closeable)} are closed last.
      */
     public void quitAll() {
-        Iterator<WebDriver> iterator = cache.values().iterator();
-        while (iterator.hasNext()) {
-            iterator.next().quit();
-            iterator.remove();
+        long start = System.currentTimeMillis();
+        Map<WebDriver, String> drivers = new LinkedHashMap<WebDriver, String>();
+        for (Map.Entry<WebDriver, WebDriverFactory> entry : brokered.entrySet()) {
+            drivers.put(entry.getKey(), entry.getValue().getIdentifier());
+        }
+        brokered.clear();
+        for (Map.Entry<String, WebDriverPool> entry : pools.entrySet()) {
+            for (WebDriver driver : entry.getValue().drain()) {
+                drivers.put(driver, entry.getKey());
+            }
+        }
+        pools.clear();
+        leases.clear();
+        if (drivers.isEmpty()) {
+            closeResources();
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(drivers.size(), daemonThreads("WebDriver quit"));
+        Map<WebDriver, Future<?>> quits = new LinkedHashMap<WebDriver, Future<?>>();
+        for (final WebDriver driver : drivers.keySet()) {
+            quits.put(driver, executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    driver.quit();
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        long deadline = start + Math.min(quitTimeoutMillis, shutdownTimeoutMillis);
+        List<String> timedOut = new ArrayList<String>();
+        for (Map.Entry<WebDriver, Future<?>> quit : quits.entrySet()) {
+            String description = describe(quit.getKey(), drivers.get(quit.getKey()));
+            try {
+                quit.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                quit.getValue().cancel(true);
+                timedOut.add(description);
+                forceQuit(quit.getKey(), description);
+            } catch (ExecutionException e) {
+                log.warn("Quitting " + description + " failed: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                timedOut.add(description);
+                break;
+            }
         }
+        executor.shutdownNow();
+        closeResources();
+        log.info("Quit " + drivers.size() + " web drivers in " + (System.currentTimeMillis() - start) + "ms"
+                + (timedOut.isEmpty() ? "" : ", timed out: " + timedOut));
+    }
+
+    /**
+     * Close a resource after the drivers are quit by each {@link #quitAll()}, i.e. a driver process shared by the drivers. The
+     * resource must allow being closed more than once.
+     */
+    public void closeOnQuitAll(Closeable resource) {
+        resources.add(resource);
+    }
+
+    private void closeResources() {
+        for (Closeable resource : resources) {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                log.warn("Closing " + resource + " failed: " + e);
+            } catch (RuntimeException e) {
+                log.warn("Closing " + resource + " failed: " + e);
+            }
+        }
+    }
+
+    private static String describe(WebDriver driver, String identifier) {
+        if (driver instanceof RemoteWebDriver && ((RemoteWebDriver) driver).getSessionId() != null) {
+            return identifier + " session " + ((RemoteWebDriver) driver).getSessionId();
+        }
+        return identifier;
+    }
+
+    /**
+     * Stop the local driver process of a driver that didn't quit. Remote sessions are left to the grid to time out.
+     */
+    private static void forceQuit(WebDriver driver, String description) {
+        DriverService service = findDriverService(driver);
+        if (service == null) {
+            log.warn("Abandoning " + description + ", it did not quit in time");
+            return;
+        }
+        log.warn("Stopping driver process of " + description + ", it did not quit in time");
+        try {
+            service.stop();
+        } catch (RuntimeException e) {
+            log.warn("Stopping driver process of " + description + " failed: " + e);
+        }
+    }
+
+    /**
+     * Find the local driver process of a driver, i.e. chromedriver. The executor keeps it in a private field.
+     *
+     * @return the service or null if the driver doesn't have one
+     */
+    static DriverService findDriverService(WebDriver driver) {
+        if (!(driver instanceof RemoteWebDriver)) {
+            return null;
+        }
+        Object executor = ((RemoteWebDriver) driver).getCommandExecutor();
+        for (Class<?> c = executor != null ? executor.getClass() : null; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (DriverService.class.isAssignableFrom(field.getType())) {
+                    try {
+                        field.setAccessible(true);
+                        return (DriverService) field.get(executor);
+                    } catch (IllegalAccessException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return null;
     }
 
     public boolean isCacheEnabled() {
@@ -65,4 +368,83 @@ public class WebDriverCache {
     public void setCacheEnabled(boolean cacheEnabled) {
         this.cacheEnabled = cacheEnabled;
     }
+
+    /**
+     * The policy used to decide if a cached driver may be handed out again. Changes apply immediately to all pools.
+     */
+    public WebDriverEvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public boolean isResetOnReturn() {
+        return resetOnReturn;
+    }
+
+    /**
+     * Reset the browser state when a driver is returned to the cache so it is safe to reuse. A driver that fails to reset is
+     * quit and replaced. Disabled by default.
+     */
+    public void setResetOnReturn(boolean resetOnReturn) {
+        this.resetOnReturn = resetOnReturn;
+    }
+
+    public long getQuitTimeout(TimeUnit unit) {
+        return unit.convert(quitTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set how long {@link #quitAll()} waits for each driver to quit, 30 seconds by default.
+     */
+    public void setQuitTimeout(long timeout, TimeUnit unit) {
+        this.quitTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    public long getShutdownTimeout(TimeUnit unit) {
+        return unit.convert(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set how long {@link #quitAll()} may take in total, 60 seconds by default.
+     */
+    public void setShutdownTimeout(long timeout, TimeUnit unit) {
+        this.shutdownTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    public WebDriverBrokerClient getBroker() {
+        return broker;
+    }
+
+    /**
+     * Share sessions of {@link SharedSessionWebDriverFactory} factories with other JVMs through a broker, null to disable.
+     */
+    public void setBroker(WebDriverBrokerClient broker) {
+        this.broker = broker;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Set the number of drivers kept per factory identifier. Zero, the default, shares one driver between all callers. Existing
+     * pools are resized to a positive size, a pool sharing its driver switches to checking out drivers once nobody is using it.
+     * Setting zero affects only pools created afterward, existing pools keep checking out drivers.
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = Math.max(0, poolSize);
+        for (WebDriverPool pool : pools.values()) {
+            pool.resize(this.poolSize);
+        }
+    }
+
+    public long getBorrowTimeout(TimeUnit unit) {
+        return unit.convert(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set how long {@link #getWebDriver(WebDriverFactory, String)} waits for a pooled driver, zero or less waits indefinitely.
+     */
+    public void setBorrowTimeout(long timeout, TimeUnit unit) {
+        this.borrowTimeoutMillis = unit.toMillis(timeout);
+    }
 }
@@ -0,0 +1,90 @@
+package com.github.double16;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Decides whether a cached web driver may be handed out again. A driver is evicted when it has been idle, used or alive for too
+ * long, or when validation is enabled and it fails a liveness probe. Evicted drivers are quit and replaced by the
+ * {@link WebDriverFactory}. Limits of zero or less are disabled, which is the default, as is validation.
+ */
+public class WebDriverEvictionPolicy {
+    private volatile boolean validateOnBorrow;
+    private volatile long maxIdleMillis;
+    private volatile int maxUses;
+    private volatile long maxAgeMillis;
+
+    /**
+     * Check the driver may be used again.
+     *
+     * @param createdMillis when the driver was created
+     * @param lastUsedMillis when the driver was last handed out
+     * @param uses the number of times the driver has been handed out
+     * @return a reason the driver should be evicted, or null if it may be used
+     */
+    String checkUsable(WebDriver driver, long createdMillis, long lastUsedMillis, int uses) {
+        long now = System.currentTimeMillis();
+        if (maxAgeMillis > 0 && now - createdMillis > maxAgeMillis) {
+            return "older than " + maxAgeMillis + "ms";
+        }
+        if (maxIdleMillis > 0 && now - lastUsedMillis > maxIdleMillis) {
+            return "idle longer than " + maxIdleMillis + "ms";
+        }
+        if (maxUses > 0 && uses >= maxUses) {
+            return "used " + uses + " times";
+        }
+        if (validateOnBorrow && !isAlive(driver)) {
+            return "not responding";
+        }
+        return null;
+    }
+
+    /**
+     * A cheap liveness probe, a single round trip that doesn't change the browser state.
+     */
+    public boolean isAlive(WebDriver driver) {
+        try {
+            driver.getWindowHandle();
+            return true;
+        } catch (WebDriverException e) {
+            return false;
+        }
+    }
+
+    public boolean isValidateOnBorrow() {
+        return validateOnBorrow;
+    }
+
+    public void setValidateOnBorrow(boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    public long getMaxIdle(TimeUnit unit) {
+        return unit.convert(maxIdleMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The longest a driver may sit unused, such as the idle timeout of the grid.
+     */
+    public void setMaxIdle(long maxIdle, TimeUnit unit) {
+        this.maxIdleMillis = unit.toMillis(maxIdle);
+    }
+
+    public int getMaxUses() {
+        return maxUses;
+    }
+
+    public void setMaxUses(int maxUses) {
+        this.maxUses = maxUses;
+    }
+
+    public long getMaxAge(TimeUnit unit) {
+        return unit.convert(maxAgeMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void setMaxAge(long maxAge, TimeUnit unit) {
+        this.maxAgeMillis = unit.toMillis(maxAge);
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.double16;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Resolves {@link WebDriverFactory} instances in the background, i.e. locating or downloading driver binaries, so several browsers
+ * are resolved at once. A factory and a {@link WebDriverNotAvailableException} are kept for the life of the resolver, so the work
+ * is done once per JVM. A browser not available on this host is also recorded in a file shared by the test JVMs of a build, if
+ * given, so it isn't searched for again by later forks. Other failures, such as a download timing out, are not kept; the next
+ * resolution of the browser tries again.
+ */
+class WebDriverFactoryResolver {
+    private final ConcurrentMap<String, Future<WebDriverFactory>> resolved = new ConcurrentHashMap<String, Future<WebDriverFactory>>();
+    private final File buildCacheFile;
+    private ExecutorService executor;
+
+    /**
+     * @param buildCacheFile the file recording unavailable browsers for the build, or null to only remember them in this JVM
+     */
+    WebDriverFactoryResolver(File buildCacheFile) {
+        this.buildCacheFile = buildCacheFile;
+    }
+
+    /**
+     * Start resolving the factory, unless already resolved or being resolved under this key.
+     *
+     * @param key identifies the browser, i.e. "chrome"
+     */
+    Future<WebDriverFactory> resolve(final String key, final Callable<WebDriverFactory> resolution) {
+        Future<WebDriverFactory> future = resolved.get(key);
+        if (future != null) {
+            return future;
+        }
+        FutureTask<WebDriverFactory> task = new FutureTask<WebDriverFactory>(new Callable<WebDriverFactory>() {
+            @Override
+            public WebDriverFactory call() throws Exception {
+                String failure = readFailure(key);
+                if (failure != null) {
+                    throw new WebDriverNotAvailableException(failure + " (earlier in this build)");
+                }
+                try {
+                    return resolution.call();
+                } catch (WebDriverNotAvailableException e) {
+                    recordFailure(key, String.valueOf(e.getMessage()));
+                    throw e;
+                }
+            }
+        }) {
+            @Override
+            protected void setException(Throwable t) {
+                super.setException(t);
+                if (!(t instanceof WebDriverNotAvailableException)) {
+                    resolved.remove(key, this);
+                }
+            }
+        };
+        future = resolved.putIfAbsent(key, task);
+        if (future != null) {
+            return future;
+        }
+        getExecutor().execute(task);
+        return task;
+    }
+
+    /**
+     * Wait for the factory.
+     *
+     * @throws IOException the reason the factory isn't available
+     */
+    static WebDriverFactory get(Future<WebDriverFactory> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(WebDriverCache.daemonThreads("WebDriver resolve"));
+        }
+        return executor;
+    }
+
+    private String readFailure(final String key) throws IOException {
+        if (buildCacheFile == null || !buildCacheFile.isFile()) {
+            return null;
+        }
+        return InterProcessLock.withLock(lockFile(), new InterProcessLock.Action<String>() {
+            @Override
+            public String run() throws IOException {
+                return load().getProperty(key);
+            }
+        });
+    }
+
+    private void recordFailure(final String key, final String failure) {
+        if (buildCacheFile == null) {
+            return;
+        }
+        try {
+            File dir = buildCacheFile.getAbsoluteFile().getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            InterProcessLock.withLock(lockFile(), new InterProcessLock.Action<Void>() {
+                @Override
+                public Void run() throws IOException {
+                    Properties failures = load();
+                    failures.setProperty(key, failure);
+                    OutputStream os = new FileOutputStream(buildCacheFile);
+                    try {
+                        failures.store(os, "WebDriver factories not available in this build");
+                    } finally {
+                        os.close();
+                    }
+                    return null;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Unable to record " + key + " in " + buildCacheFile + ": " + e.getMessage());
+        }
+    }
+
+    private Properties load() throws IOException {
+        Properties failures = new Properties();
+        if (buildCacheFile.isFile()) {
+            InputStream is = new FileInputStream(buildCacheFile);
+            try {
+                failures.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        return failures;
+    }
+
+    private File lockFile() {
+        return new File(buildCacheFile.getAbsoluteFile().getParentFile(), buildCacheFile.getName() + ".lock");
+    }
+}
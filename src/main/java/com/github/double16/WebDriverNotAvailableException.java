@@ -0,0 +1,15 @@
+package com.github.double16;
+
+import java.io.IOException;
+
+/**
+ * The browser can't run on this host, i.e. there is no driver for the OS. Unlike other failures locating a browser, such as a
+ * failed download, trying again won't help.
+ */
+public class WebDriverNotAvailableException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public WebDriverNotAvailableException(String message) {
+        super(message);
+    }
+}
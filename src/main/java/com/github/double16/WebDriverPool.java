@@ -0,0 +1,379 @@
+package com.github.double16;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * The drivers for one {@link WebDriverFactory#getIdentifier()}. A size of zero shares a single driver between all callers, which
+ * is the original caching behavior. A positive size checks out a driver to a single caller at a time, up to size drivers, and
+ * makes further callers wait until a driver is returned. Drivers are checked against the {@link WebDriverEvictionPolicy} each
+ * time they are handed out and replaced if they fail.
+ *
+ * A pool may be resized with {@link #resize(int)}. A shared pool that nobody is using switches to leasing, its driver becomes the
+ * first idle driver.
+ *
+ * Drivers may be created ahead of demand with {@link #prewarm(Executor)}. A caller that finds no idle driver claims a driver that
+ * is warming up before creating its own.
+ */
+class WebDriverPool {
+    private static final Logger log = Logger.getLogger(WebDriverPool.class);
+
+    private final WebDriverFactory factory;
+    private volatile int size;
+    private final WebDriverEvictionPolicy evictionPolicy;
+    private volatile Permits permits;
+    private final Deque<WebDriver> idle = new ConcurrentLinkedDeque<WebDriver>();
+    private final ConcurrentMap<WebDriver, Session> all = new ConcurrentHashMap<WebDriver, Session>();
+    private final Deque<Future<WebDriver>> warming = new ConcurrentLinkedDeque<Future<WebDriver>>();
+    private volatile WebDriver shared;
+    /** callers using the shared driver, guarded by this */
+    private int sharedUsers;
+    private volatile boolean closed;
+
+    /** Exposes {@link Semaphore#reducePermits(int)} for shrinking the pool. */
+    private static class Permits extends Semaphore {
+        Permits(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    private static class Session {
+        final long created = System.currentTimeMillis();
+        volatile long lastUsed = created;
+        final AtomicInteger uses = new AtomicInteger();
+    }
+
+    WebDriverPool(WebDriverFactory factory, int size, WebDriverEvictionPolicy evictionPolicy) {
+        this.factory = factory;
+        this.size = size;
+        this.evictionPolicy = evictionPolicy;
+        this.permits = size > 0 ? new Permits(size) : null;
+    }
+
+    /**
+     * @return true if drivers are checked out to one caller at a time and must be returned with
+     * {@link #giveBack(WebDriver, boolean)}.
+     */
+    boolean isLeasing() {
+        return permits != null;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @return true if no caller can be holding the driver, it has been quit and nobody is using a shared driver
+     */
+    synchronized boolean isReleased(WebDriver driver) {
+        return !all.containsKey(driver) && sharedUsers == 0;
+    }
+
+    /**
+     * Change the number of drivers. Idle drivers beyond the new size are quit, checked out drivers beyond it are quit when they are
+     * returned. A shared pool switches to leasing if nobody is using its driver. A size of zero is ignored, a leasing pool never
+     * goes back to sharing.
+     */
+    synchronized void resize(int newSize) {
+        if (newSize <= 0) {
+            return;
+        }
+        if (!isLeasing()) {
+            if (sharedUsers > 0) {
+                log.warn("Not pooling " + factory.getIdentifier() + " web drivers, the shared driver is in use by " + sharedUsers
+                        + " callers");
+                return;
+            }
+            size = newSize;
+            permits = new Permits(newSize);
+            WebDriver driver = shared;
+            shared = null;
+            if (driver != null && all.containsKey(driver)) {
+                idle.offerFirst(driver);
+            }
+            return;
+        }
+        if (newSize == size) {
+            return;
+        }
+        if (newSize > size) {
+            permits.release(newSize - size);
+        } else {
+            permits.reducePermits(size - newSize);
+        }
+        size = newSize;
+        WebDriver driver;
+        while (all.size() > size && (driver = idle.pollLast()) != null) {
+            evict(driver);
+        }
+    }
+
+    /**
+     * Borrow a driver, creating one if none are idle and the pool isn't full.
+     *
+     * @param timeout the maximum time to wait for a driver to be returned, zero or less waits indefinitely.
+     */
+    WebDriver borrow(String testName, long timeout, TimeUnit unit) throws IOException {
+        if (useShared()) {
+            boolean borrowed = false;
+            try {
+                WebDriver driver = shared(testName);
+                borrowed = true;
+                return driver;
+            } finally {
+                if (!borrowed) {
+                    releaseShared();
+                }
+            }
+        }
+        try {
+            if (timeout > 0) {
+                if (!permits.tryAcquire(timeout, unit)) {
+                    throw new IOException("Timed out after " + unit.toMillis(timeout) + "ms waiting for one of " + size + " "
+                            + factory.getIdentifier() + " web drivers");
+                }
+            } else {
+                permits.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a " + factory.getIdentifier() + " web driver");
+        }
+
+        boolean borrowed = false;
+        try {
+            // most recently returned first, it is the least likely to have timed out on the grid
+            WebDriver driver;
+            while ((driver = idle.pollFirst()) != null) {
+                if (use(driver)) {
+                    borrowed = true;
+                    return driver;
+                }
+            }
+            driver = claimWarming();
+            if (driver == null) {
+                driver = create(testName);
+            }
+            borrowed = true;
+            return driver;
+        } finally {
+            if (!borrowed) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Count a caller of the shared driver so the pool doesn't switch to leasing under it.
+     *
+     * @return false if the pool is leasing
+     */
+    private synchronized boolean useShared() {
+        if (isLeasing()) {
+            return false;
+        }
+        sharedUsers++;
+        return true;
+    }
+
+    private synchronized void releaseShared() {
+        if (sharedUsers > 0) {
+            sharedUsers--;
+        }
+    }
+
+    private WebDriver shared(String testName) throws IOException {
+        WebDriver driver = shared;
+        if (driver != null && use(driver)) {
+            return driver;
+        }
+        synchronized (this) {
+            if (shared != driver && shared != null) {
+                // replaced by another caller while we were checking
+                return shared;
+            }
+            shared = null;
+            driver = claimWarming();
+            if (driver == null) {
+                driver = create(testName);
+            }
+            shared = driver;
+            return driver;
+        }
+    }
+
+    private WebDriver create(String testName) throws IOException {
+        WebDriver driver = factory.createWebDriver(testName);
+        Session session = new Session();
+        session.uses.incrementAndGet();
+        all.put(driver, session);
+        return driver;
+    }
+
+    /**
+     * Start creating drivers in the background until the pool has as many drivers as it may hand out at once, one for a shared
+     * pool. Drivers already created or warming up count toward the size, so calling this repeatedly is harmless.
+     */
+    synchronized void prewarm(Executor executor) {
+        int target = isLeasing() ? size : 1;
+        for (int count = all.size() + warming.size(); count < target && !closed; count++) {
+            FutureTask<WebDriver> task = new FutureTask<WebDriver>(new Callable<WebDriver>() {
+                @Override
+                public WebDriver call() throws Exception {
+                    WebDriver driver = factory.createWebDriver(null);
+                    all.put(driver, new Session());
+                    if (closed) {
+                        all.remove(driver);
+                        driver.quit();
+                        throw new IllegalStateException("Cache was shut down while warming up a " + factory.getIdentifier()
+                                + " web driver");
+                    }
+                    return driver;
+                }
+            });
+            warming.offerLast(task);
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Take a driver that was created by {@link #prewarm(Executor)}, waiting for it to finish starting if needed.
+     *
+     * @return the driver or null if none are warming up or warm up failed
+     */
+    private WebDriver claimWarming() throws InterruptedIOException {
+        Future<WebDriver> future;
+        while ((future = warming.pollFirst()) != null) {
+            try {
+                WebDriver driver = future.get();
+                Session session = all.get(driver);
+                if (session != null) {
+                    session.lastUsed = System.currentTimeMillis();
+                    session.uses.incrementAndGet();
+                    return driver;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a " + factory.getIdentifier() + " web driver to warm up");
+            } catch (ExecutionException e) {
+                log.warn("Warming up " + factory.getIdentifier() + " web driver failed: " + e.getCause());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check the driver against the eviction policy and count the use if it passes, otherwise quit it.
+     *
+     * @return true if the driver may be used
+     */
+    private boolean use(WebDriver driver) {
+        Session session = all.get(driver);
+        if (session == null) {
+            return false;
+        }
+        String reason = evictionPolicy.checkUsable(driver, session.created, session.lastUsed, session.uses.get());
+        if (reason != null) {
+            log.info("Replacing " + factory.getIdentifier() + " web driver, " + reason);
+            evict(driver);
+            return false;
+        }
+        session.lastUsed = System.currentTimeMillis();
+        session.uses.incrementAndGet();
+        return true;
+    }
+
+    private void evict(WebDriver driver) {
+        all.remove(driver);
+        try {
+            driver.quit();
+        } catch (RuntimeException e) {
+            log.debug("Quitting evicted " + factory.getIdentifier() + " web driver", e);
+        }
+    }
+
+    /**
+     * Return a driver obtained from {@link #borrow(String, long, TimeUnit)} so another caller may use it.
+     *
+     * @param reset true to reset the browser state first, a driver that fails to reset is quit
+     */
+    void giveBack(WebDriver driver, boolean reset) {
+        if (!isLeasing()) {
+            // the pool can't switch to leasing while this caller is counted
+            try {
+                if (reset && !WebDriverReset.tryReset(factory, driver)) {
+                    discard(driver);
+                }
+            } finally {
+                releaseShared();
+            }
+            return;
+        }
+        if (reset && !WebDriverReset.tryReset(factory, driver)) {
+            discard(driver);
+            return;
+        }
+        Session session = all.get(driver);
+        if (session != null && all.size() > size) {
+            // the pool shrank
+            evict(driver);
+        } else if (session != null) {
+            session.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(driver);
+        }
+        permits.release();
+    }
+
+    /**
+     * Quit a driver that was handed out and free its place in the pool.
+     */
+    private void discard(WebDriver driver) {
+        evict(driver);
+        synchronized (this) {
+            if (shared == driver) {
+                shared = null;
+            }
+        }
+        if (isLeasing()) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Stop the pool and hand over all drivers, including checked out drivers, for the caller to quit.
+     */
+    List<WebDriver> drain() {
+        closed = true;
+        Future<WebDriver> future;
+        while ((future = warming.pollFirst()) != null) {
+            future.cancel(false);
+        }
+        List<WebDriver> drivers = new ArrayList<WebDriver>(all.keySet());
+        all.clear();
+        idle.clear();
+        shared = null;
+        return drivers;
+    }
+}
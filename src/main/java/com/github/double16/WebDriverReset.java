@@ -0,0 +1,93 @@
+package com.github.double16;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoAlertPresentException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Returns a browser to a clean state so it can be reused by another test without starting a new session.
+ */
+public final class WebDriverReset {
+    private static final Logger log = Logger.getLogger(WebDriverReset.class);
+    private static final String CLEAR_STORAGE_SCRIPT = "try { window.localStorage.clear(); } catch (e) { }\n"
+            + "try { window.sessionStorage.clear(); } catch (e) { }";
+
+    private WebDriverReset() {
+    }
+
+    /**
+     * Dismiss open alerts, close all but one window, clear local and session storage and cookies and navigate to about:blank.
+     * Storage and cookies are per origin, so they are cleared for the page the browser is on before it leaves it. Drivers
+     * without support for a step, i.e. alerts in PhantomJS, skip it, only the navigation to about:blank must succeed.
+     */
+    public static void resetBrowserState(WebDriver driver) {
+        dismissAlert(driver);
+        try {
+            closeExtraWindows(driver);
+        } catch (WebDriverException e) {
+            log.debug("Closing extra windows failed: " + e);
+        }
+        if (driver instanceof JavascriptExecutor) {
+            try {
+                ((JavascriptExecutor) driver).executeScript(CLEAR_STORAGE_SCRIPT);
+            } catch (WebDriverException e) {
+                log.debug("Clearing storage failed: " + e);
+            }
+        }
+        try {
+            driver.manage().deleteAllCookies();
+        } catch (WebDriverException e) {
+            log.debug("Deleting cookies failed: " + e);
+        }
+        // fails if the session is gone
+        driver.get("about:blank");
+    }
+
+    /**
+     * Run the reset steps of the factory, if it is a {@link ResettableWebDriverFactory}, and then the built-in reset.
+     *
+     * @return false if the reset failed and the driver should not be reused
+     */
+    static boolean tryReset(WebDriverFactory factory, WebDriver driver) {
+        try {
+            if (factory instanceof ResettableWebDriverFactory) {
+                ((ResettableWebDriverFactory) factory).resetWebDriver(driver);
+            }
+            resetBrowserState(driver);
+            return true;
+        } catch (RuntimeException e) {
+            log.info("Reset of " + factory.getIdentifier() + " web driver failed: " + e);
+            return false;
+        }
+    }
+
+    private static void dismissAlert(WebDriver driver) {
+        try {
+            driver.switchTo().alert().dismiss();
+        } catch (NoAlertPresentException e) {
+            // nothing to do
+        } catch (WebDriverException e) {
+            // i.e. UnsupportedCommandException from drivers without alert support
+            log.debug("Dismissing alert failed: " + e);
+        }
+    }
+
+    private static void closeExtraWindows(WebDriver driver) {
+        Set<String> handles = driver.getWindowHandles();
+        if (handles == null || handles.size() < 2) {
+            return;
+        }
+        Iterator<String> iterator = handles.iterator();
+        String keep = iterator.next();
+        while (iterator.hasNext()) {
+            driver.switchTo().window(iterator.next());
+            driver.close();
+        }
+        driver.switchTo().window(keep);
+    }
+}
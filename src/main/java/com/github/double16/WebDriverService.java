@@ -1,38 +1,235 @@
 package com.github.double16;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URL;
-import java.net.URLConnection;
-import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
+import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.Dimension;
+import org.openqa.selenium.HasCapabilities;
 import org.openqa.selenium.UnexpectedAlertBehaviour;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeDriverService;
 import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.firefox.FirefoxBinary;
 import org.openqa.selenium.firefox.FirefoxDriver;
 import org.openqa.selenium.firefox.FirefoxProfile;
 import org.openqa.selenium.ie.InternetExplorerDriver;
 import org.openqa.selenium.phantomjs.PhantomJSDriver;
 import org.openqa.selenium.remote.CapabilityType;
 import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
 
-public class WebDriverService {
+/**
+ * Creates factories for local browsers, locating or downloading the driver binaries. Chrome sessions are created against one
+ * chromedriver process per JVM, started on first use, instead of a process per session, unless the system property
+ * "functionalTests.sharedDriverService" is "false". The process is stopped by {@link #close()}. PhantomJS sessions each get their
+ * own process, sessions of one phantomjs process share cookies and run one command at a time. Firefox profiles are built once
+ * per proxy setting, see {@link CachedFirefoxProfile}. If the system property "functionalTests.chromeProfileSnapshot" is "true",
+ * Chrome sessions start with a copy of a prepared user data directory, see {@link ChromeProfileSnapshot}.
+ *
+ * If the system property "functionalTests.headless" is "true", Chrome runs headless with a 1024x768 viewport, like PhantomJS, and
+ * without GPU, extensions and background network activity. Headless Chrome needs Chrome 59 and chromedriver 2.29 or later, a
+ * session on older versions is quit and fails rather than running headed. The mode is part of the factory identifier so headless
+ * and headed browsers are cached separately. Firefox isn't available in headless mode, the FirefoxDriver of this Selenium version
+ * only drives Firefox 47 and earlier, and headless Firefox needs 55.
+ */
+public class WebDriverService implements Closeable {
 	private static final String WEBDRIVER_CHROME_DRIVER = "webdriver.chrome.driver";
 	private static final String WEBDRIVER_INTERNETEXPLORER_DRIVER = "webdriver.ie.driver";
 	private static final String PHANTOMJS_BINARY_PATH = "phantomjs.binary.path";
+	private static final String CHECKSUM_SUFFIX = ".sha256";
 
+    /** The viewport of headless browsers. */
+    static final Dimension HEADLESS_WINDOW_SIZE = new Dimension(1024, 768);
+    /** The first versions supporting headless Chrome. */
+    static final String HEADLESS_CHROME_VERSION = "59";
+    static final String HEADLESS_CHROMEDRIVER_VERSION = "2.29";
+
+    private final DriverBinaryCache driverBinaryCache = new DriverBinaryCache();
+    private ChromeDriverService chromeDriverService;
+    private ChromeProfileSnapshot chromeProfileSnapshot;
+    private final ConcurrentMap<String, FirefoxProfile> firefoxProfiles = new ConcurrentHashMap<String, FirefoxProfile>();
+
+    private static boolean isHeadless() {
+        return Boolean.getBoolean("functionalTests.headless");
+    }
+
+    /**
+     * Set the page load strategy from the system property "functionalTests.pageLoadStrategy", "normal" by default in headless
+     * mode.
+     */
+    private static void setPageLoadStrategy(DesiredCapabilities caps, boolean headless) {
+        String pageLoadStrategy = System.getProperty("functionalTests.pageLoadStrategy", headless ? "normal" : null);
+        if (StringUtils.isNotBlank(pageLoadStrategy)) {
+            caps.setCapability(CapabilityType.PAGE_LOAD_STRATEGY, pageLoadStrategy);
+        }
+    }
+
+    /**
+     * Compare dotted version numbers, ignoring anything after the numbers, i.e. the build of "2.30.477691 (...)".
+     *
+     * @return false if the version is blank or not a number
+     */
+    static boolean isVersionAtLeast(String version, String minimum) {
+        String[] actual = StringUtils.defaultString(version).trim().split("[^0-9.]", 2)[0].split("\\.");
+        String[] required = minimum.split("\\.");
+        for (int i = 0; i < required.length; i++) {
+            int part = i < actual.length && !actual[i].isEmpty() ? Integer.parseInt(actual[i]) : -1;
+            if (i == 0 && part < 0) {
+                return false;
+            }
+            int requiredPart = Integer.parseInt(required[i]);
+            if (part != requiredPart) {
+                return part > requiredPart;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Quit the driver and fail if Chrome or chromedriver ignore --headless, which would run the session headed.
+     */
+    private static WebDriver requireHeadlessChrome(WebDriver driver) {
+        if (!(driver instanceof HasCapabilities)) {
+            return driver;
+        }
+        Capabilities capabilities = ((HasCapabilities) driver).getCapabilities();
+        String chromeVersion = capabilities.getVersion();
+        Object chrome = capabilities.getCapability("chrome");
+        String chromedriverVersion = chrome instanceof Map ? (String) ((Map<?, ?>) chrome).get("chromedriverVersion") : null;
+        if ((StringUtils.isBlank(chromeVersion) || isVersionAtLeast(chromeVersion, HEADLESS_CHROME_VERSION))
+                && (StringUtils.isBlank(chromedriverVersion) || isVersionAtLeast(chromedriverVersion, HEADLESS_CHROMEDRIVER_VERSION))) {
+            return driver;
+        }
+        try {
+            driver.quit();
+        } catch (WebDriverException e) {
+            // failing anyway
+        }
+        throw new WebDriverException("Headless Chrome needs Chrome " + HEADLESS_CHROME_VERSION + " and chromedriver "
+                + HEADLESS_CHROMEDRIVER_VERSION + " or later, found Chrome " + chromeVersion + " and chromedriver "
+                + chromedriverVersion);
+    }
+
+    private static boolean isSharedDriverService() {
+        return Boolean.valueOf(System.getProperty("functionalTests.sharedDriverService", "true"));
+    }
+
+    /**
+     * The URL of the shared chromedriver process, started if not running.
+     */
+    synchronized URL getChromeDriverServiceUrl() throws IOException {
+        if (chromeDriverService == null || !chromeDriverService.isRunning()) {
+            chromeDriverService = ChromeDriverService.createDefaultService();
+            chromeDriverService.start();
+        }
+        return chromeDriverService.getUrl();
+    }
+
+    private WebDriver createChromeDriver(DesiredCapabilities caps) throws IOException {
+        if (isSharedDriverService()) {
+            return new RemoteWebDriver(getChromeDriverServiceUrl(), caps);
+        }
+        return new ChromeDriver(caps);
+    }
+
+    /**
+     * Create a driver using a copy of the profile snapshot, deleting the copy when the driver quits.
+     */
+    private WebDriver createChromeDriver(DesiredCapabilities caps, ChromeOptions opts) throws IOException {
+        final ChromeProfileSnapshot snapshot = getChromeProfileSnapshot();
+        final File userDataDir = snapshot.copy();
+        opts.addArguments("--user-data-dir=" + userDataDir.getAbsolutePath(), "--no-first-run", "--no-default-browser-check");
+        caps.setCapability(ChromeOptions.CAPABILITY, opts);
+        try {
+            if (isSharedDriverService()) {
+                return new RemoteWebDriver(getChromeDriverServiceUrl(), caps) {
+                    @Override
+                    public void quit() {
+                        try {
+                            super.quit();
+                        } finally {
+                            snapshot.delete(userDataDir);
+                        }
+                    }
+                };
+            }
+            return new ChromeDriver(caps) {
+                @Override
+                public void quit() {
+                    try {
+                        super.quit();
+                    } finally {
+                        snapshot.delete(userDataDir);
+                    }
+                }
+            };
+        } catch (RuntimeException e) {
+            snapshot.delete(userDataDir);
+            throw e;
+        }
+    }
+
+    /**
+     * The Chrome user data directory snapshot in the directory from the system property
+     * "functionalTests.chromeProfileSnapshotDir", set per build by the Gradle plugin.
+     */
+    synchronized ChromeProfileSnapshot getChromeProfileSnapshot() {
+        if (chromeProfileSnapshot == null) {
+            File dir = new File(System.getProperty("functionalTests.chromeProfileSnapshotDir",
+                    new File(System.getProperty("java.io.tmpdir"), "gradle-java-saucelabs-chrome-profile").getPath()));
+            chromeProfileSnapshot = new ChromeProfileSnapshot(dir, new ChromeProfileSnapshot.Initializer() {
+                @Override
+                public void initialize(File userDataDir) throws IOException {
+                    DesiredCapabilities caps = DesiredCapabilities.chrome();
+                    ChromeOptions opts = new ChromeOptions();
+                    opts.addArguments("--user-data-dir=" + userDataDir.getAbsolutePath(), "--no-first-run",
+                            "--no-default-browser-check");
+                    caps.setCapability(ChromeOptions.CAPABILITY, opts);
+                    WebDriver driver = createChromeDriver(caps);
+                    try {
+                        driver.get("about:blank");
+                    } finally {
+                        driver.quit();
+                    }
+                }
+            });
+        }
+        return chromeProfileSnapshot;
+    }
+
+    /**
+     * Stop the shared driver process and delete the profile copies of sessions that didn't quit. The process is started again if
+     * another session is created.
+     */
+    @Override
+    public synchronized void close() {
+        if (chromeDriverService != null) {
+            chromeDriverService.stop();
+            chromeDriverService = null;
+        }
+        if (chromeProfileSnapshot != null) {
+            chromeProfileSnapshot.close();
+        }
+    }
+
+    /**
+     * Locate the driver binary from the system property, environment, user home or path, in that order, and fall back to the
+     * shared {@link DriverBinaryCache}, downloading it there if needed. The system property is set to the binary found. The
+     * download is verified against the SHA-256 in the system property with ".sha256" appended, i.e.
+     * "webdriver.chrome.driver.sha256", if set.
+     */
 	@SuppressWarnings("PMD")
-    private void locateDriver(String systemProperty, File file, URL path) throws IOException {
+    private void locateDriver(String systemProperty, String binaryName, URL path) throws IOException {
         if (StringUtils.isNotBlank(System.getProperty(systemProperty)) && new File(System.getProperty(systemProperty)).canExecute()) {
             System.out.println("Using (from system property " + systemProperty + ") " + System.getProperty(systemProperty));
     		return;
@@ -44,19 +241,20 @@ public class WebDriverService {
     		return;
     	}
     	
-        File driverInPath = findDriverInPath(file);
+        File driverInPath = findDriverInPath(binaryName);
         if (driverInPath != null) {
             System.out.println("Using (from user home or path) " + driverInPath);
             System.setProperty(systemProperty, driverInPath.getAbsolutePath());
             return;
         }
-        downloadDriver(file, path);
-        System.out.println("Using (downloaded) " + file);
+        File file = driverBinaryCache.resolve(path, binaryName,
+                StringUtils.trimToNull(System.getProperty(systemProperty + CHECKSUM_SUFFIX)));
+        System.out.println("Using (cached) " + file);
         System.setProperty(systemProperty, file.getAbsolutePath());
     }
 
-    private File findDriverInPath(File file) throws IOException {
-        File driver = new File(new File(System.getProperty("user.home")), file.getName());
+    private File findDriverInPath(String binaryName) throws IOException {
+        File driver = new File(new File(System.getProperty("user.home")), binaryName);
         if (driver.canExecute()) {
             return driver;
         }
@@ -66,7 +264,7 @@ public class WebDriverService {
         }
         String[] parts = path.split(File.pathSeparator);
         for (String part : parts) {
-            driver = new File(new File(part), file.getName());
+            driver = new File(new File(part), binaryName);
             if (driver.canExecute()) {
                 return driver;
             }
@@ -74,109 +272,53 @@ public class WebDriverService {
         return null;
     }
 
-    @SuppressWarnings("PMD")
-    private void downloadDriver(File file, URL path) throws IOException {
-        if (!file.exists()) {
-            System.out.println("Downloading " + path);
-            // download driver
-            File driver = File.createTempFile("driver", ".zip");
-            URLConnection connection = path.openConnection();
-            String redirect = connection.getHeaderField("Location");
-            if (redirect != null) {
-                URL redirectUrl = new URL(path, redirect);
-                System.out.println("Redirect to " + redirectUrl);
-                downloadDriver(file, redirectUrl);
-                return;
-            }
-            InputStream is = null;
-            OutputStream os = null;
-            try {
-                is = connection.getInputStream();
-                os = new FileOutputStream(driver);
-                IOUtils.copy(is, os);
-            } finally {
-                if (is != null) {
-                    is.close();
-                }
-                if (os != null) {
-                    os.close();
-                }
-            }
-
-            // unzip
-            System.out.println("Extracting " + path);
-            ZipFile zip = new ZipFile(driver);
-            try {
-                Enumeration<? extends ZipEntry> entries = zip.entries();
-                while (entries.hasMoreElements()) {
-                    ZipEntry entry = entries.nextElement();
-                    if (!entry.getName().equals(file.getName()) && !entry.getName().endsWith("/" + file.getName())) {
-                        continue;
-                    }
-                    System.out.println("Found " + file);
-                    file.getParentFile().mkdirs();
-                    InputStream zis = null;
-                    OutputStream zos = null;
-                    try {
-                        zis = zip.getInputStream(entry);
-                        zos = new FileOutputStream(file);
-                        IOUtils.copy(zis, zos);
-                    } finally {
-                        if (zis != null) {
-                            zis.close();
-                        }
-                        if (zos != null) {
-                            zos.close();
-                        }
-                    }
-                    file.setExecutable(true);
-                }
-            } finally {
-                zip.close();
-            }
-
-            driver.delete();
-
-            if (!file.exists()) {
-                throw new IOException("Error downloading " + file + " from " + path);
-            }
-        }
-    }
-
     public WebDriverFactory createChromeDriverFactory() throws IOException {
+        final boolean headless = isHeadless();
+        // 2.30 is the first download for Chrome 59, which added headless mode
+        String version = headless ? "2.30" : "2.15";
         if (SystemUtils.IS_OS_WINDOWS) {
-            locateDriver(WEBDRIVER_CHROME_DRIVER, new File("target/webdrivers/chrome/chromedriver.exe"), new URL(
-                    "http://chromedriver.storage.googleapis.com/2.15/chromedriver_win32.zip"));
+            locateDriver(WEBDRIVER_CHROME_DRIVER, "chromedriver.exe", new URL(
+                    "http://chromedriver.storage.googleapis.com/" + version + "/chromedriver_win32.zip"));
         } else if (SystemUtils.IS_OS_LINUX) {
             if (SystemUtils.OS_ARCH.contains("64")) {
-                locateDriver(WEBDRIVER_CHROME_DRIVER, new File("target/webdrivers/chrome/chromedriver"), new URL(
-                        "http://chromedriver.storage.googleapis.com/2.15/chromedriver_linux64.zip"));
+                locateDriver(WEBDRIVER_CHROME_DRIVER, "chromedriver", new URL(
+                        "http://chromedriver.storage.googleapis.com/" + version + "/chromedriver_linux64.zip"));
             } else {
-                locateDriver(WEBDRIVER_CHROME_DRIVER, new File("target/webdrivers/chrome/chromedriver"), new URL(
-                        "http://chromedriver.storage.googleapis.com/2.15/chromedriver_linux32.zip"));
+                locateDriver(WEBDRIVER_CHROME_DRIVER, "chromedriver", new URL(
+                        "http://chromedriver.storage.googleapis.com/" + version + "/chromedriver_linux32.zip"));
             }
         } else if (SystemUtils.IS_OS_MAC) {
-            locateDriver(WEBDRIVER_CHROME_DRIVER, new File("target/webdrivers/chrome/chromedriver"), new URL(
-                    "http://chromedriver.storage.googleapis.com/2.15/chromedriver_mac32.zip"));
+            locateDriver(WEBDRIVER_CHROME_DRIVER, "chromedriver", new URL(
+                    "http://chromedriver.storage.googleapis.com/" + version + "/chromedriver_mac" + (headless ? "64" : "32") + ".zip"));
         } else {
-            throw new IOException("No Chrome driver for this OS");
+            throw new WebDriverNotAvailableException("No Chrome driver for this OS");
         }
         return new WebDriverFactory() {
             @Override
-            public WebDriver createWebDriver(String testName) {
+            public WebDriver createWebDriver(String testName) throws IOException {
+                DesiredCapabilities caps = DesiredCapabilities.chrome();
+                caps.setCapability(CapabilityType.ForSeleniumServer.ENSURING_CLEAN_SESSION, true);
+                setPageLoadStrategy(caps, headless);
+                ChromeOptions opts = new ChromeOptions();
+                if (headless) {
+                    opts.addArguments("--headless", "--disable-gpu", "--disable-extensions", "--disable-background-networking",
+                            "--window-size=" + HEADLESS_WINDOW_SIZE.getWidth() + "," + HEADLESS_WINDOW_SIZE.getHeight());
+                }
                 if (StringUtils.isNotBlank(System.getProperty("functionalTests.proxy"))) {
-                    ChromeOptions opts = new ChromeOptions();
                     opts.addArguments("--proxy-server=" + System.getProperty("functionalTests.proxy"));
-                    return new ChromeDriver(opts);
+                }
+                WebDriver driver;
+                if (Boolean.getBoolean("functionalTests.chromeProfileSnapshot")) {
+                    driver = createChromeDriver(caps, opts);
                 } else {
-                    DesiredCapabilities caps = DesiredCapabilities.chrome();
-                    caps.setCapability(CapabilityType.ForSeleniumServer.ENSURING_CLEAN_SESSION, true);
-                    return new ChromeDriver(caps);
+                    caps.setCapability(ChromeOptions.CAPABILITY, opts);
+                    driver = createChromeDriver(caps);
                 }
+                return headless ? requireHeadlessChrome(driver) : driver;
             }
             @Override
             public String getIdentifier() {
-                return "chrome";
+                return headless ? "chrome-headless" : "chrome";
             }
 
             @Override
@@ -188,10 +330,10 @@ public class WebDriverService {
     
     public WebDriverFactory createInternetExplorerFactory() throws IOException {
         if (SystemUtils.IS_OS_WINDOWS) {
-            locateDriver(WEBDRIVER_INTERNETEXPLORER_DRIVER, new File("target/webdrivers/internetexplorer/IEDriverServer.exe"), new URL(
+            locateDriver(WEBDRIVER_INTERNETEXPLORER_DRIVER, "IEDriverServer.exe", new URL(
 "http://selenium-release.storage.googleapis.com/2.46/IEDriverServer_Win32_2.46.0.zip"));
         } else {
-            throw new IOException("No Internet Explorer driver for this OS");
+            throw new WebDriverNotAvailableException("No Internet Explorer driver for this OS");
         }
         return new WebDriverFactory() {
             @Override
@@ -212,24 +354,50 @@ public class WebDriverService {
         };
     }
 
+    /**
+     * The profile for the proxy, built once and reused by later sessions.
+     *
+     * @param proxyHostAndPort "host:port"
+     */
+    FirefoxProfile getFirefoxProfile(String proxyHostAndPort) {
+        FirefoxProfile profile = firefoxProfiles.get(proxyHostAndPort);
+        if (profile == null) {
+            profile = new CachedFirefoxProfile();
+            String[] proxy = proxyHostAndPort.split(":");
+            profile.setAcceptUntrustedCertificates(true);
+            profile.setPreference("network.proxy.type", 1);
+            profile.setPreference("network.proxy.http", proxy[0]);
+            profile.setPreference("network.proxy.http_port", Integer.parseInt(proxy[1]));
+            profile.setPreference("network.proxy.ssl", proxy[0]);
+            profile.setPreference("network.proxy.ssl_port", Integer.parseInt(proxy[1]));
+            FirefoxProfile existing = firefoxProfiles.putIfAbsent(proxyHostAndPort, profile);
+            if (existing != null) {
+                profile = existing;
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * @throws WebDriverNotAvailableException in headless mode, which the FirefoxDriver can't provide
+     */
     public WebDriverFactory createFirefoxDriverFactory() throws IOException {
+        if (isHeadless()) {
+            throw new WebDriverNotAvailableException("Headless Firefox needs Firefox 55 or later, the FirefoxDriver only supports Firefox 47 and earlier");
+        }
         return new WebDriverFactory() {
             @Override
             public WebDriver createWebDriver(String testName) {
-                if (StringUtils.isNotBlank(System.getProperty("functionalTests.proxy"))) {
-                    String[] proxy = System.getProperty("functionalTests.proxy").split(":");
-                    FirefoxProfile profile = new FirefoxProfile();
-                    profile.setAcceptUntrustedCertificates(true);
-                    profile.setPreference("network.proxy.type", 1);
-                    profile.setPreference("network.proxy.http", proxy[0]);
-                    profile.setPreference("network.proxy.http_port", Integer.parseInt(proxy[1]));
-                    profile.setPreference("network.proxy.ssl", proxy[0]);
-                    profile.setPreference("network.proxy.ssl_port", Integer.parseInt(proxy[1]));
-                    return new FirefoxDriver(profile);
+                String proxy = System.getProperty("functionalTests.proxy");
+                if (StringUtils.isNotBlank(proxy)) {
+                    DesiredCapabilities caps = new DesiredCapabilities();
+                    setPageLoadStrategy(caps, false);
+                    return new FirefoxDriver(new FirefoxBinary(), getFirefoxProfile(proxy), caps);
                 } else {
                     DesiredCapabilities caps = new DesiredCapabilities();
                     caps.setCapability(CapabilityType.ForSeleniumServer.ENSURING_CLEAN_SESSION, true);
                     caps.setCapability(CapabilityType.UNEXPECTED_ALERT_BEHAVIOUR, UnexpectedAlertBehaviour.ACCEPT);
+                    setPageLoadStrategy(caps, false);
                     return new FirefoxDriver(caps);
                 }
             }
@@ -247,29 +415,30 @@ public class WebDriverService {
 
     public WebDriverFactory createPhantomJSDriverFactory() throws IOException {
         if (SystemUtils.IS_OS_WINDOWS) {
-            locateDriver(PHANTOMJS_BINARY_PATH, new File("target/webdrivers/phantomjs/phantomjs.exe"), new URL(
+            locateDriver(PHANTOMJS_BINARY_PATH, "phantomjs.exe", new URL(
                     "https://bitbucket.org/ariya/phantomjs/downloads/phantomjs-1.9.8-windows.zip"));
         } else if (SystemUtils.IS_OS_LINUX) {
             if (SystemUtils.OS_ARCH.contains("64")) {
-                locateDriver(PHANTOMJS_BINARY_PATH, new File("target/webdrivers/phantomjs/phantomjs"), new URL(
+                locateDriver(PHANTOMJS_BINARY_PATH, "phantomjs", new URL(
                         "https://bitbucket.org/ariya/phantomjs/downloads/phantomjs-1.9.8-linux-x86_64.tar.bz2"));
             } else {
-                locateDriver(PHANTOMJS_BINARY_PATH, new File("target/webdrivers/phantomjs/phantomjs"), new URL(
+                locateDriver(PHANTOMJS_BINARY_PATH, "phantomjs", new URL(
                         "https://bitbucket.org/ariya/phantomjs/downloads/phantomjs-1.9.8-linux-i686.tar.bz2"));
             }
         } else if (SystemUtils.IS_OS_MAC) {
-            locateDriver(PHANTOMJS_BINARY_PATH, new File("target/webdrivers/phantomjs/phantomjs"), new URL(
+            locateDriver(PHANTOMJS_BINARY_PATH, "phantomjs", new URL(
                     "https://bitbucket.org/ariya/phantomjs/downloads/phantomjs-1.9.8-macosx.zip"));
         } else {
-            throw new IOException("No phantomjs driver for this OS");
+            throw new WebDriverNotAvailableException("No phantomjs driver for this OS");
         }
         return new WebDriverFactory() {
             @Override
-            public WebDriver createWebDriver(String testName) {
+            public WebDriver createWebDriver(String testName) throws IOException {
                 DesiredCapabilities caps = new DesiredCapabilities();
                 caps.setCapability(CapabilityType.ForSeleniumServer.ENSURING_CLEAN_SESSION, true);
-                PhantomJSDriver driver = new PhantomJSDriver(caps);
-                driver.manage().window().setSize(new Dimension(1024, 768));
+                // a process per session, phantomjs sessions in one process share the cookie jar
+                WebDriver driver = new PhantomJSDriver(caps);
+                driver.manage().window().setSize(HEADLESS_WINDOW_SIZE);
                 return driver;
             }
             @Override
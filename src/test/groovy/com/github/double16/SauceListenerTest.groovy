@@ -0,0 +1,107 @@
+package com.github.double16
+
+import com.saucelabs.saucerest.SauceREST
+import org.gradle.api.tasks.testing.TestDescriptor
+import org.gradle.api.tasks.testing.TestOutputEvent
+import org.gradle.api.tasks.testing.TestResult
+import org.junit.Before
+import org.junit.Test
+
+import static org.mockito.Matchers.anyString
+import static org.mockito.Matchers.anyMap
+import static org.mockito.Matchers.argThat
+import static org.mockito.Matchers.eq
+import static org.mockito.Mockito.*
+
+class SauceListenerTest {
+  SauceREST sauceREST
+  SauceListener listener
+  TestDescriptor root
+
+  @Before
+  void setup() {
+    sauceREST = mock(SauceREST)
+    listener = new SauceListener(sauceREST)
+    root = descriptor('root', null)
+  }
+
+  private static TestDescriptor descriptor(String name, TestDescriptor parent) {
+    TestDescriptor descriptor = mock(TestDescriptor)
+    when(descriptor.getName()).thenReturn(name)
+    when(descriptor.getParent()).thenReturn(parent)
+    descriptor
+  }
+
+  private static TestOutputEvent output(String message) {
+    TestOutputEvent event = mock(TestOutputEvent)
+    when(event.getMessage()).thenReturn(message)
+    event
+  }
+
+  private static TestResult result(TestResult.ResultType type) {
+    TestResult result = mock(TestResult)
+    when(result.getResultType()).thenReturn(type)
+    result
+  }
+
+  private static Map passed(boolean passed) {
+    argThat(new org.hamcrest.BaseMatcher<Map>() {
+      boolean matches(Object item) { (item as Map).passed == passed }
+      void describeTo(org.hamcrest.Description description) { description.appendText("passed=${passed}") }
+    })
+  }
+
+  private void run(TestDescriptor test, String sessionId, TestResult.ResultType type) {
+    listener.beforeTest(test)
+    listener.onOutput(test, output("SauceOnDemandSessionID=${sessionId} job-name=${test.name}\n"))
+    listener.afterTest(test, result(type))
+  }
+
+  @Test
+  void sharedSessionFailsIfAnyTestFails() {
+    run(descriptor('test1', root), 'session1', TestResult.ResultType.SUCCESS)
+    run(descriptor('test2', root), 'session1', TestResult.ResultType.FAILURE)
+    run(descriptor('test3', root), 'session1', TestResult.ResultType.SUCCESS)
+    listener.afterSuite(root, result(TestResult.ResultType.FAILURE))
+
+    verify(sauceREST, times(1)).updateJobInfo(eq('session1'), passed(false))
+  }
+
+  @Test
+  void eachSessionMarkedByItsTests() {
+    run(descriptor('test1', root), 'session1', TestResult.ResultType.SUCCESS)
+    run(descriptor('test2', root), 'session2', TestResult.ResultType.FAILURE)
+    run(descriptor('test3', root), 'session3', TestResult.ResultType.SKIPPED)
+    listener.afterSuite(root, result(TestResult.ResultType.FAILURE))
+
+    verify(sauceREST).updateJobInfo(eq('session1'), passed(true))
+    verify(sauceREST).updateJobInfo(eq('session2'), passed(false))
+    verify(sauceREST, never()).updateJobInfo(eq('session3'), anyMap())
+  }
+
+  @Test
+  void interleavedTests() {
+    TestDescriptor test1 = descriptor('test1', root)
+    TestDescriptor test2 = descriptor('test2', root)
+    listener.onOutput(test1, output('SauceOnDemandSessionID=session1 job-name=test1'))
+    listener.onOutput(test2, output('SauceOnDemandSessionID=session2 job-name=test2'))
+    listener.onOutput(test1, output('unrelated output'))
+    listener.afterTest(test2, result(TestResult.ResultType.FAILURE))
+    listener.afterTest(test1, result(TestResult.ResultType.SUCCESS))
+    listener.afterSuite(root, result(TestResult.ResultType.FAILURE))
+
+    verify(sauceREST).updateJobInfo(eq('session1'), passed(true))
+    verify(sauceREST).updateJobInfo(eq('session2'), passed(false))
+  }
+
+  @Test
+  void updatedWhenRootSuiteFinishes() {
+    TestDescriptor suite = descriptor('ClassTest', root)
+    run(descriptor('test1', suite), 'session1', TestResult.ResultType.SUCCESS)
+    listener.afterSuite(suite, result(TestResult.ResultType.SUCCESS))
+    verify(sauceREST, never()).updateJobInfo(anyString(), anyMap())
+
+    listener.afterSuite(root, result(TestResult.ResultType.SUCCESS))
+    verify(sauceREST).updateJobInfo(eq('session1'), passed(true))
+  }
+}
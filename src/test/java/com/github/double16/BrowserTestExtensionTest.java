@@ -0,0 +1,309 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.extension.ExtensionConfigurationException;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.rules.ErrorCollector;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openqa.selenium.WebDriver;
+
+public class BrowserTestExtensionTest {
+    private static final String BASE_URL = "http://localhost:8080";
+
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    private final AtomicInteger created = new AtomicInteger();
+    private WebDriver driver;
+    private WebDriverFactory driverFactory;
+    private ExtensionContext context;
+    private Map<Object, Object> store;
+
+    /** The test methods the extension sees, never run. */
+    static class Sample {
+        @BrowserTest
+        void browserTest(WebDriver driver, BrowserTestContext browser, FunctionalTestUtils utils, WebDriverFactory factory,
+                TestPage2 page, String other, LoginPage noUrl) {
+        }
+
+        void plainTest() {
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        System.setProperty("functionalTests.baseUrl", BASE_URL);
+        driver = mock(WebDriver.class, RETURNS_DEEP_STUBS);
+        driverFactory = new WebDriverFactory() {
+            @Override
+            public WebDriver createWebDriver(String testName) throws IOException {
+                created.incrementAndGet();
+                return driver;
+            }
+
+            @Override
+            public String getIdentifier() {
+                return "browser-test-" + System.identityHashCode(this);
+            }
+        };
+
+        store = new HashMap<Object, Object>();
+        context = context(store);
+    }
+
+    /**
+     * A context of one invocation of {@link Sample#browserTest}, keeping its state in the map.
+     */
+    private static ExtensionContext context(final Map<Object, Object> store) throws Exception {
+        ExtensionContext.Store contextStore = mock(ExtensionContext.Store.class);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return store.get(invocation.getArguments()[0]);
+            }
+        }).when(contextStore).get(any(), any(Class.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                store.put(invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(contextStore).put(any(), any());
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return store.remove(invocation.getArguments()[0]);
+            }
+        }).when(contextStore).remove(any(), any(Class.class));
+
+        ExtensionContext context = mock(ExtensionContext.class);
+        doReturn(contextStore).when(context).getStore(any(ExtensionContext.Namespace.class));
+        doReturn(Sample.class).when(context).getRequiredTestClass();
+        doReturn(method("browserTest")).when(context).getRequiredTestMethod();
+        doReturn(Optional.of(method("browserTest"))).when(context).getTestMethod();
+        doReturn(Optional.empty()).when(context).getExecutionException();
+        doReturn(Optional.empty()).when(context).getConfigurationParameter(anyString());
+        return context;
+    }
+
+    /**
+     * A factory of a new browser each time, not pooled yet.
+     */
+    private static WebDriverFactory newBrowserFactory() {
+        return new WebDriverFactory() {
+            @Override
+            public WebDriver createWebDriver(String testName) {
+                return mock(WebDriver.class, RETURNS_DEEP_STUBS);
+            }
+
+            @Override
+            public String getIdentifier() {
+                return "browser-test-" + System.identityHashCode(this);
+            }
+        };
+    }
+
+    @After
+    public void teardown() {
+        System.clearProperty("functionalTests.baseUrl");
+    }
+
+    private static Method method(String name) {
+        for (Method method : Sample.class.getDeclaredMethods()) {
+            if (method.getName().equals(name)) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static ParameterContext parameter(int index) {
+        Parameter parameter = method("browserTest").getParameters()[index];
+        ParameterContext parameterContext = mock(ParameterContext.class);
+        doReturn(parameter).when(parameterContext).getParameter();
+        return parameterContext;
+    }
+
+    @Test
+    public void testSupportsTestTemplate() {
+        BrowserTestExtension extension = new BrowserTestExtension();
+        collector.checkThat(extension.supportsTestTemplate(context), is(true));
+        doReturn(Optional.of(method("plainTest"))).when(context).getTestMethod();
+        collector.checkThat(extension.supportsTestTemplate(context), is(false));
+        doReturn(Optional.empty()).when(context).getTestMethod();
+        collector.checkThat("A container isn't a template", extension.supportsTestTemplate(context), is(false));
+    }
+
+    @Test
+    public void testSupportsParameter() {
+        BrowserTestExtension.BrowserResolver resolver = new BrowserTestExtension.BrowserResolver(driverFactory, "/");
+        for (int i = 0; i < 5; i++) {
+            collector.checkThat(method("browserTest").getParameterTypes()[i].getSimpleName(),
+                    resolver.supportsParameter(parameter(i), context), is(true));
+        }
+        collector.checkThat(resolver.supportsParameter(parameter(5), context), is(false));
+        collector.checkThat("A page without a url isn't navigated to", resolver.supportsParameter(parameter(6), context), is(false));
+        collector.checkThat("Checking support must not start a browser", created.get(), is(0));
+    }
+
+    @Test
+    public void testResolveFactoryWithoutBrowser() {
+        BrowserTestExtension.BrowserResolver resolver = new BrowserTestExtension.BrowserResolver(driverFactory, "/");
+        collector.checkThat(resolver.resolveParameter(parameter(3), context), is((Object) driverFactory));
+        collector.checkThat(created.get(), is(0));
+        collector.checkThat(store.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testResolveSharesBrowser() {
+        BrowserTestExtension.BrowserResolver resolver = new BrowserTestExtension.BrowserResolver(driverFactory, "/");
+        Object resolvedDriver = resolver.resolveParameter(parameter(0), context);
+        BrowserTestContext browser = (BrowserTestContext) resolver.resolveParameter(parameter(1), context);
+        Object utils = resolver.resolveParameter(parameter(2), context);
+        collector.checkThat(resolvedDriver, is((Object) driver));
+        collector.checkThat(browser.getDriver(), is(driver));
+        collector.checkThat(browser.getDriverFactory(), is(driverFactory));
+        collector.checkThat(browser.getBaseUrl(), is(BASE_URL + "/"));
+        collector.checkThat(utils, sameInstance((Object) browser.getUtils()));
+        collector.checkThat("One browser per invocation", created.get(), is(1));
+        resolver.afterTestExecution(context);
+        resolver.afterEach(context);
+    }
+
+    @Test
+    public void testResolvePage() {
+        BrowserTestExtension.BrowserResolver resolver = new BrowserTestExtension.BrowserResolver(driverFactory, "app/");
+        Object page = resolver.resolveParameter(parameter(4), context);
+        collector.checkThat(page, instanceOf(TestPage2.class));
+        verify(driver).get(BASE_URL + "/app/" + TestPage2.url);
+        resolver.afterTestExecution(context);
+        resolver.afterEach(context);
+    }
+
+    @Test
+    public void testAfterEachReleasesBrowser() {
+        BrowserTestExtension.BrowserResolver resolver = new BrowserTestExtension.BrowserResolver(driverFactory, "/");
+        resolver.resolveParameter(parameter(0), context);
+        resolver.afterTestExecution(context);
+        resolver.afterEach(context);
+        collector.checkThat("The browser belongs to one invocation", store.isEmpty(), is(true));
+
+        resolver.afterEach(context);
+        collector.checkThat("Nothing to release without a browser", created.get(), is(1));
+    }
+
+    @Test
+    public void testContextGo() {
+        BrowserTestContext browser = new BrowserTestContext(driverFactory, driver, BASE_URL + "/", null);
+        collector.checkThat(browser.go(TestPage2.class), instanceOf(TestPage2.class));
+        verify(driver).get(BASE_URL + "/" + TestPage2.url);
+        browser.go("other");
+        verify(driver).get(BASE_URL + "/other");
+        browser.home();
+        verify(driver).get(BASE_URL + "/");
+        try {
+            browser.go(LoginPage.class);
+            collector.addError(new AssertionError("A page without a url can't be navigated to"));
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParallelism() {
+        collector.checkThat(BrowserTestExtension.isParallel(context), is(false));
+        doReturn(Optional.of("true")).when(context).getConfigurationParameter(BrowserTestExtension.PARALLEL_ENABLED);
+        collector.checkThat(BrowserTestExtension.isParallel(context), is(true));
+        collector.checkThat(BrowserTestExtension.getParallelism(context), is(Runtime.getRuntime().availableProcessors()));
+        doReturn(Optional.of("fixed")).when(context).getConfigurationParameter(BrowserTestExtension.PARALLEL_STRATEGY);
+        doReturn(Optional.of("3")).when(context).getConfigurationParameter(BrowserTestExtension.FIXED_PARALLELISM);
+        collector.checkThat(BrowserTestExtension.getParallelism(context), is(3));
+    }
+
+    @Test
+    public void testParallelInvocationsGetOwnBrowsers() throws Exception {
+        final WebDriverFactory factory = newBrowserFactory();
+        WebDriverCache cache = AbstractFunctionalTest.WEB_DRIVER_CACHE;
+        int poolSize = cache.getPoolSize();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // an earlier test used the browser without parallel execution
+            cache.setPoolSize(0);
+            cache.maybeQuitWebDriver(cache.getWebDriver(factory, "earlier"));
+
+            BrowserTestExtension.requireExclusiveBrowsers(2, Collections.singletonList(factory));
+            final CyclicBarrier running = new CyclicBarrier(2);
+            List<Future<WebDriver>> invocations = new ArrayList<Future<WebDriver>>();
+            for (int i = 0; i < 2; i++) {
+                invocations.add(executor.submit(new Callable<WebDriver>() {
+                    @Override
+                    public WebDriver call() throws Exception {
+                        ExtensionContext invocation = context(new HashMap<Object, Object>());
+                        BrowserTestExtension.BrowserResolver resolver = new BrowserTestExtension.BrowserResolver(factory, "/");
+                        WebDriver resolved = (WebDriver) resolver.resolveParameter(parameter(0), invocation);
+                        try {
+                            running.await(10, TimeUnit.SECONDS);
+                        } finally {
+                            resolver.afterTestExecution(invocation);
+                            resolver.afterEach(invocation);
+                        }
+                        return resolved;
+                    }
+                }));
+            }
+            WebDriver first = invocations.get(0).get(20, TimeUnit.SECONDS);
+            WebDriver second = invocations.get(1).get(20, TimeUnit.SECONDS);
+            collector.checkThat("Concurrent invocations must not share a browser", first, not(sameInstance(second)));
+        } finally {
+            executor.shutdownNow();
+            cache.setPoolSize(poolSize);
+        }
+    }
+
+    @Test
+    public void testParallelFailsWithSharedBrowserInUse() throws IOException {
+        WebDriverFactory factory = newBrowserFactory();
+        WebDriverCache cache = AbstractFunctionalTest.WEB_DRIVER_CACHE;
+        int poolSize = cache.getPoolSize();
+        try {
+            cache.setPoolSize(0);
+            WebDriver inUse = cache.getWebDriver(factory, "running");
+            try {
+                BrowserTestExtension.requireExclusiveBrowsers(2, Collections.singletonList(factory));
+                collector.addError(new AssertionError("A shared browser must not be used by parallel tests"));
+            } catch (ExtensionConfigurationException e) {
+                collector.checkThat(e.getMessage(), containsString("functionalTests.browserPoolSize"));
+            } finally {
+                cache.maybeQuitWebDriver(inUse);
+            }
+        } finally {
+            cache.setPoolSize(poolSize);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+public class CachedFirefoxProfileTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    private static String userPrefs(File profileDir) throws IOException {
+        return FileUtils.readFileToString(new File(profileDir, "user.js"), UTF8);
+    }
+
+    @Test
+    public void testLayoutOnDiskCopiesTemplate() throws IOException {
+        CachedFirefoxProfile profile = new CachedFirefoxProfile();
+        profile.setPreference("network.proxy.http", "proxy.example.com");
+        File first = profile.layoutOnDisk();
+        File second = profile.layoutOnDisk();
+        collector.checkThat("Each session gets its own directory", second, not(first));
+        collector.checkThat(userPrefs(second), is(userPrefs(first)));
+        collector.checkThat(userPrefs(second), containsString("proxy.example.com"));
+    }
+
+    @Test
+    public void testPortUpdatedInCopy() throws IOException {
+        CachedFirefoxProfile profile = new CachedFirefoxProfile();
+        profile.setPreference("webdriver_firefox_port", 7055);
+        collector.checkThat(userPrefs(profile.layoutOnDisk()), containsString("\"webdriver_firefox_port\", 7055"));
+        profile.setPreference("webdriver_firefox_port", 7056);
+        String prefs = userPrefs(profile.layoutOnDisk());
+        collector.checkThat(prefs, containsString("\"webdriver_firefox_port\", 7056"));
+        collector.checkThat(prefs, not(containsString("\"webdriver_firefox_port\", 7055")));
+    }
+
+    @Test
+    public void testJsonCached() throws IOException {
+        CachedFirefoxProfile profile = new CachedFirefoxProfile();
+        profile.setPreference("network.proxy.type", 1);
+        String json = profile.toJson();
+        collector.checkThat(profile.toJson(), sameInstance(json));
+        profile.setPreference("network.proxy.type", 1);
+        collector.checkThat("Setting the same value keeps the cache", profile.toJson(), sameInstance(json));
+    }
+
+    @Test
+    public void testChangeInvalidates() throws IOException {
+        CachedFirefoxProfile profile = new CachedFirefoxProfile();
+        profile.setPreference("network.proxy.http", "proxy1.example.com");
+        String json = profile.toJson();
+        profile.layoutOnDisk();
+        profile.setPreference("network.proxy.http", "proxy2.example.com");
+        collector.checkThat(profile.toJson(), not(sameInstance(json)));
+        collector.checkThat(userPrefs(profile.layoutOnDisk()), containsString("proxy2.example.com"));
+    }
+}
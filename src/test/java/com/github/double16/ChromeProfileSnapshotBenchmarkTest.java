@@ -0,0 +1,66 @@
+package com.github.double16;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Compares Chrome start up with an empty profile and with the profile snapshot. Runs only if the system property
+ * "functionalTests.benchmark" is "true" and Chrome is available.
+ */
+public class ChromeProfileSnapshotBenchmarkTest {
+    private static final int SESSIONS = 5;
+
+    private WebDriverService service;
+    private WebDriverFactory factory;
+
+    @Before
+    public void setup() {
+        Assume.assumeTrue("Benchmarks enabled", Boolean.getBoolean("functionalTests.benchmark"));
+        service = new WebDriverService();
+        try {
+            factory = service.createChromeDriverFactory();
+        } catch (IOException e) {
+            Assume.assumeNoException("Chrome available", e);
+        }
+    }
+
+    @After
+    public void teardown() {
+        System.clearProperty("functionalTests.chromeProfileSnapshot");
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    private long startSessions() throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < SESSIONS; i++) {
+            WebDriver driver = factory.createWebDriver("benchmark");
+            try {
+                driver.get("about:blank");
+            } finally {
+                driver.quit();
+            }
+        }
+        return (System.nanoTime() - start) / SESSIONS / 1000000;
+    }
+
+    @Test
+    public void benchmarkColdStart() throws IOException {
+        // start the driver process and warm the JIT before measuring
+        startSessions();
+
+        System.setProperty("functionalTests.chromeProfileSnapshot", "false");
+        long empty = startSessions();
+        System.setProperty("functionalTests.chromeProfileSnapshot", "true");
+        // prepares the snapshot
+        factory.createWebDriver("benchmark").quit();
+        long snapshot = startSessions();
+        System.out.println("Chrome start up: empty profile " + empty + "ms, profile snapshot " + snapshot + "ms per session");
+    }
+}
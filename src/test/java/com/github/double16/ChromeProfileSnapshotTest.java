@@ -0,0 +1,82 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+
+public class ChromeProfileSnapshotTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger initialized = new AtomicInteger();
+
+    private final ChromeProfileSnapshot.Initializer initializer = new ChromeProfileSnapshot.Initializer() {
+        @Override
+        public void initialize(File userDataDir) throws IOException {
+            initialized.incrementAndGet();
+            FileUtils.writeStringToFile(new File(userDataDir, "Default/Preferences"), "{}", UTF8);
+            FileUtils.writeStringToFile(new File(userDataDir, "SingletonLock"), "host-1234", UTF8);
+        }
+    };
+
+    @Test
+    public void testCopiesArePrivate() throws IOException {
+        ChromeProfileSnapshot snapshot = new ChromeProfileSnapshot(folder.newFolder("snapshot"), initializer);
+        File first = snapshot.copy();
+        File second = snapshot.copy();
+        collector.checkThat(second, not(first));
+        collector.checkThat(FileUtils.readFileToString(new File(second, "Default/Preferences"), UTF8), is("{}"));
+        FileUtils.writeStringToFile(new File(first, "Default/Preferences"), "changed", UTF8);
+        collector.checkThat(FileUtils.readFileToString(new File(snapshot.copy(), "Default/Preferences"), UTF8), is("{}"));
+    }
+
+    @Test
+    public void testLockFilesNotCopied() throws IOException {
+        File copy = new ChromeProfileSnapshot(folder.newFolder("snapshot"), initializer).copy();
+        collector.checkThat(new File(copy, "SingletonLock").exists(), is(false));
+    }
+
+    @Test
+    public void testPreparedOnce() throws IOException {
+        File dir = folder.newFolder("snapshot");
+        new ChromeProfileSnapshot(dir, initializer).copy();
+        new ChromeProfileSnapshot(dir, initializer).copy();
+        collector.checkThat("Another JVM should reuse the prepared snapshot", initialized.get(), is(1));
+    }
+
+    @Test
+    public void testDeleteCopy() throws IOException {
+        ChromeProfileSnapshot snapshot = new ChromeProfileSnapshot(folder.newFolder("snapshot"), initializer);
+        File copy = snapshot.copy();
+        File other = snapshot.copy();
+        snapshot.delete(copy);
+        collector.checkThat(copy.exists(), is(false));
+        collector.checkThat(other.isDirectory(), is(true));
+        collector.checkThat("The snapshot is kept", new File(snapshot.getDir(), "user-data/Default/Preferences").isFile(), is(true));
+    }
+
+    @Test
+    public void testCloseDeletesCopies() throws IOException {
+        ChromeProfileSnapshot snapshot = new ChromeProfileSnapshot(folder.newFolder("snapshot"), initializer);
+        File first = snapshot.copy();
+        File second = snapshot.copy();
+        snapshot.delete(first);
+        snapshot.close();
+        collector.checkThat(second.exists(), is(false));
+        collector.checkThat(snapshot.copy().isDirectory(), is(true));
+    }
+}
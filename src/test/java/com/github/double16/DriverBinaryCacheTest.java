@@ -0,0 +1,218 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+
+public class DriverBinaryCacheTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String CONTENT = "#!/bin/sh\necho driver\n";
+
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubHttpServer server;
+    private URL url;
+
+    @Before
+    public void setup() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry("driver-1.0/README"));
+        zip.write("readme".getBytes(UTF8));
+        zip.putNextEntry(new ZipEntry("driver-1.0/testdriver"));
+        zip.write(CONTENT.getBytes(UTF8));
+        zip.close();
+        final byte[] zipArchive = bytes.toByteArray();
+
+        bytes = new ByteArrayOutputStream();
+        writeTar(new GZIPOutputStream(bytes));
+        final byte[] tarGzArchive = bytes.toByteArray();
+
+        bytes = new ByteArrayOutputStream();
+        writeTar(new BZip2CompressorOutputStream(bytes));
+        final byte[] tarBz2Archive = bytes.toByteArray();
+
+        server = new StubHttpServer(new StubHttpServer.Responder() {
+            @Override
+            public void respond(HttpExchange exchange, byte[] body) throws IOException {
+                try {
+                    // widen the window for concurrent downloads
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                String path = exchange.getRequestURI().getPath();
+                if (path.startsWith("/stall/")) {
+                    try {
+                        Thread.sleep(1500);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                if (path.startsWith("/redirect/")) {
+                    exchange.getResponseHeaders().add("Location", path.substring("/redirect".length()));
+                    StubHttpServer.send(exchange, 302, "text/plain", new byte[0]);
+                } else if (path.endsWith(".tar.gz")) {
+                    StubHttpServer.send(exchange, 200, "application/x-gzip", tarGzArchive);
+                } else if (path.endsWith(".tar.bz2")) {
+                    StubHttpServer.send(exchange, 200, "application/x-bzip2", tarBz2Archive);
+                } else {
+                    StubHttpServer.send(exchange, 200, "application/zip", zipArchive);
+                }
+            }
+        });
+        url = server.getUrl("/downloads/testdriver.zip");
+    }
+
+    @After
+    public void teardown() {
+        server.close();
+    }
+
+    @Test
+    public void testResolveDownloadsOnce() throws Exception {
+        final File dir = folder.newFolder("cache");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<File>> results = new ArrayList<Future<File>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        // separate instances, as separate JVMs would have
+                        return new DriverBinaryCache(dir).resolve(url, "testdriver", null);
+                    }
+                }));
+            }
+            for (Future<File> result : results) {
+                File binary = result.get(10, TimeUnit.SECONDS);
+                collector.checkThat(binary.canExecute(), is(true));
+                collector.checkThat(FileUtils.readFileToString(binary, UTF8), is(CONTENT));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        collector.checkThat("Concurrent resolves should download once", server.requests.size(), is(1));
+
+        new DriverBinaryCache(dir).resolve(url, "testdriver", null);
+        collector.checkThat("Cached binary should not be downloaded again", server.requests.size(), is(1));
+    }
+
+    @Test
+    public void testExpectedChecksum() throws IOException {
+        File binary = new DriverBinaryCache(folder.newFolder("cache")).resolve(url, "testdriver", sha256(CONTENT));
+        collector.checkThat(FileUtils.readFileToString(binary, UTF8), is(CONTENT));
+    }
+
+    @Test(expected = IOException.class)
+    public void testChecksumMismatch() throws IOException {
+        new DriverBinaryCache(folder.newFolder("cache")).resolve(url, "testdriver", sha256("something else"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingEntry() throws IOException {
+        new DriverBinaryCache(folder.newFolder("cache")).resolve(url, "otherdriver", null);
+    }
+
+    @Test
+    public void testCorruptBinaryDownloadedAgain() throws IOException {
+        File dir = folder.newFolder("cache");
+        File binary = new DriverBinaryCache(dir).resolve(url, "testdriver", null);
+        FileUtils.writeStringToFile(binary, "corrupt", UTF8);
+        // a fresh copy of the directory, the original path is already verified in this JVM
+        File copy = folder.newFolder("copy");
+        FileUtils.copyDirectory(dir, copy);
+        new File(copy, binary.getParentFile().getName() + "/testdriver").setExecutable(true);
+        File resolved = new DriverBinaryCache(copy).resolve(url, "testdriver", null);
+        collector.checkThat(FileUtils.readFileToString(resolved, UTF8), is(CONTENT));
+        collector.checkThat(server.requests.size(), is(2));
+    }
+
+    @Test
+    public void testTarGz() throws IOException {
+        File binary = new DriverBinaryCache(folder.newFolder("cache")).resolve(server.getUrl("/downloads/testdriver.tar.gz"),
+                "testdriver", sha256(CONTENT));
+        collector.checkThat(binary.canExecute(), is(true));
+        collector.checkThat(FileUtils.readFileToString(binary, UTF8), is(CONTENT));
+    }
+
+    @Test
+    public void testTarBz2() throws IOException {
+        File binary = new DriverBinaryCache(folder.newFolder("cache")).resolve(server.getUrl("/downloads/testdriver.tar.bz2"),
+                "testdriver", sha256(CONTENT));
+        collector.checkThat(binary.canExecute(), is(true));
+        collector.checkThat(FileUtils.readFileToString(binary, UTF8), is(CONTENT));
+    }
+
+    @Test
+    public void testRedirect() throws IOException {
+        File binary = new DriverBinaryCache(folder.newFolder("cache")).resolve(server.getUrl("/redirect/downloads/testdriver.tar.bz2"),
+                "testdriver", null);
+        collector.checkThat(FileUtils.readFileToString(binary, UTF8), is(CONTENT));
+        collector.checkThat(server.requests.size(), is(2));
+    }
+
+    @Test(expected = IOException.class)
+    public void testStalledDownloadTimesOut() throws IOException {
+        new DriverBinaryCache(folder.newFolder("cache"), 1000, 200).resolve(server.getUrl("/stall/downloads/testdriver.zip"),
+                "testdriver", null);
+    }
+
+    private static void writeTar(OutputStream compressed) throws IOException {
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(compressed);
+        writeTarEntry(tar, "driver-1.0/README", "readme");
+        writeTarEntry(tar, "driver-1.0/bin/testdriver", CONTENT);
+        tar.close();
+    }
+
+    private static void writeTarEntry(TarArchiveOutputStream tar, String name, String content) throws IOException {
+        byte[] bytes = content.getBytes(UTF8);
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(bytes.length);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes);
+        tar.closeArchiveEntry();
+    }
+
+    private static String sha256(String content) throws IOException {
+        File file = File.createTempFile("content", ".txt");
+        try {
+            FileUtils.writeStringToFile(file, content, UTF8);
+            return DriverBinaryCache.sha256(file);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.double16;
+
+import java.util.List;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.CacheLookup;
+import org.openqa.selenium.support.FindBy;
+
+public class ElementListPage extends LoginPage {
+    public static final String url = "list";
+
+    @FindBy(css = "li")
+    List<WebElement> items;
+    @FindBy(css = "body")
+    @CacheLookup
+    WebElement body;
+    List<WebElement> notAnnotated;
+    String notAnElement;
+
+    public ElementListPage(WebDriver driver) {
+        super(driver);
+    }
+}
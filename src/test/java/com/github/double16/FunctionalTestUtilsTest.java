@@ -12,7 +12,11 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Rule;
@@ -22,6 +26,7 @@ import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 import org.openqa.selenium.Alert;
 import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.NoAlertPresentException;
 import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.OutputType;
@@ -170,6 +175,61 @@ public class FunctionalTestUtilsTest {
     	collector.checkThat("Screenshot content", Arrays.equals(readBytes(printIconSource), readBytes(imageOutput)), is(true));
     }
 
+    @Test
+    public void reportWithWriter() throws IOException {
+        final String printIconUrl = getClass().getClassLoader().getResource("com/github/double16/print.png").toExternalForm();
+        File printIconSource = new File(printIconUrl.replaceFirst("file:", ""));
+        assertTrue("Source icon can't be found, aborting test", printIconSource.exists());
+
+        WebDriverWithScreenshot driver = Mockito.mock(WebDriverWithScreenshot.class);
+        WebElement html = PageMockHelper.mockDisplayed("html");
+        Mockito.when(html.getAttribute("innerHTML")).thenReturn("test");
+        Mockito.when(driver.findElement(By.cssSelector("html"))).thenReturn(html);
+        Mockito.when(driver.getScreenshotAs(OutputType.BASE64)).thenReturn(
+                Base64.encodeBase64String(readBytes(printIconSource)));
+
+        ReportWriter writer = new ReportWriter(1, 2);
+        List<File> files = new FunctionalTestUtils(driver).report(reportDir.getRoot(), "writer", writer);
+        File htmlOutput = new File(reportDir.getRoot(), "writer.html");
+        File imageOutput = new File(reportDir.getRoot(), "writer.png");
+        collector.checkThat(files, is(Arrays.asList(imageOutput, htmlOutput)));
+        collector.checkThat(writer.flush(5, TimeUnit.SECONDS), is(true));
+        collector.checkThat("HTML output content", readContent(htmlOutput).replaceAll("\\s+", ""), is("<html>test</html>"));
+        collector.checkThat("Screenshot content", Arrays.equals(readBytes(printIconSource), readBytes(imageOutput)), is(true));
+    }
+
+    public interface WebDriverWithScript extends WebDriver, JavascriptExecutor {}
+
+    @Test
+    public void reportWithOuterHtmlCompressed() throws IOException {
+        String page = "<!DOCTYPE html>\n<html lang=\"en\"><head><style>p{}</style></head><body>test</body></html>";
+        WebDriverWithScript driver = Mockito.mock(WebDriverWithScript.class);
+        Mockito.when(driver.executeScript(Mockito.anyString(), Mockito.anyVararg())).thenReturn(page);
+
+        System.setProperty("functionalTests.domCapture", "outerHTML");
+        System.setProperty("functionalTests.domCaptureStyles", "true");
+        System.setProperty("functionalTests.reportCompressHtml", "true");
+        try {
+            ReportWriter writer = new ReportWriter(1, 2);
+            List<File> files = new FunctionalTestUtils(driver).report(reportDir.getRoot(), "outer", writer);
+            File htmlOutput = new File(reportDir.getRoot(), "outer.html.gz");
+            collector.checkThat(files, is(Collections.singletonList(htmlOutput)));
+            collector.checkThat(writer.flush(5, TimeUnit.SECONDS), is(true));
+            GZIPInputStream input = new GZIPInputStream(new FileInputStream(htmlOutput));
+            try {
+                collector.checkThat("HTML output content", IOUtils.toString(input, "UTF-8"), is(page));
+            } finally {
+                input.close();
+            }
+            Mockito.verify(driver).executeScript(Mockito.anyString(), Mockito.eq(true));
+            Mockito.verify(driver, Mockito.never()).findElement(Mockito.any(By.class));
+        } finally {
+            System.clearProperty("functionalTests.domCapture");
+            System.clearProperty("functionalTests.domCaptureStyles");
+            System.clearProperty("functionalTests.reportCompressHtml");
+        }
+    }
+
     @Test
     public void reportWithScreenshotFailure() throws IOException {
         WebDriverWithScreenshot driver = Mockito.mock(WebDriverWithScreenshot.class);
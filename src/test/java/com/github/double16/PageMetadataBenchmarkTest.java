@@ -0,0 +1,52 @@
+package com.github.double16;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.PageFactory;
+
+/**
+ * Compares creating a page with {@link PageFactory} to {@link FunctionalTestUtils#at(Class)}, which finds the page metadata
+ * once. Runs only if the system property "functionalTests.benchmark" is "true".
+ */
+public class PageMetadataBenchmarkTest {
+    private static final int WARM_UP = 20000;
+    private static final int PAGES = 100000;
+
+    private WebDriver driver;
+    private FunctionalTestUtils utils;
+
+    @Before
+    public void setup() {
+        Assume.assumeTrue("Benchmarks enabled", Boolean.getBoolean("functionalTests.benchmark"));
+        driver = PageMockHelper.createDriver();
+        utils = new FunctionalTestUtils(driver);
+    }
+
+    private long pageFactory(int pages) {
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++) {
+            PageFactory.initElements(driver, ElementListPage.class);
+        }
+        return (System.nanoTime() - start) / pages;
+    }
+
+    private long cached(int pages) {
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++) {
+            utils.at(ElementListPage.class);
+        }
+        return (System.nanoTime() - start) / pages;
+    }
+
+    @Test
+    public void benchmarkPageCreation() {
+        // the at check runs against a mock driver in both, the difference is the reflection and annotation parsing
+        pageFactory(WARM_UP);
+        cached(WARM_UP);
+        long reflection = pageFactory(PAGES);
+        long metadata = cached(PAGES);
+        System.out.println("Page creation: PageFactory " + reflection + "ns, cached metadata " + metadata + "ns per page");
+    }
+}
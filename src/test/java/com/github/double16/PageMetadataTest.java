@@ -0,0 +1,113 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.mockito.Mockito;
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.WrapsElement;
+
+public class PageMetadataTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    private WebDriver driver;
+
+    @Before
+    public void setup() {
+        driver = PageMockHelper.createDriver();
+    }
+
+    @Test
+    public void testCachedPerClass() {
+        collector.checkThat(PageMetadata.of(TestPage3.class), is(sameInstance(PageMetadata.of(TestPage3.class))));
+        collector.checkThat(PageMetadata.of(TestPage3.class), is(not(sameInstance(PageMetadata.of(TestPage4.class)))));
+    }
+
+    @Test
+    public void testAtCheckers() {
+        collector.checkThat(PageMetadata.of(LoginPage.class).getAtCheckers(), is(Collections.singletonList(LoginPage.at)));
+        collector.checkThat(PageMetadata.of(TestPage3.class).getAtCheckers(), is(Arrays.asList(TestPage3.at)));
+        collector.checkThat(PageMetadata.of(TestPage4.class).getAtCheckers(), is(TestPage4.at));
+        collector.checkThat(PageMetadata.of(TestPage1.class).getAtCheckers().isEmpty(), is(true));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAtCheckersUnmodifiable() {
+        PageMetadata.of(TestPage4.class).getAtCheckers().clear();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadAtCheckerOnEveryCall() {
+        try {
+            PageMetadata.of(BadLocatorPage.class).getAtCheckers();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        PageMetadata.of(BadLocatorPage.class).getAtCheckers();
+    }
+
+    @Test
+    public void testUrl() {
+        collector.checkThat(PageMetadata.of(TestPage2.class).getUrl(), is(TestPage2.url));
+        collector.checkThat(PageMetadata.of(SamplePage1.class).getUrl(), is(SamplePage1.url));
+        collector.checkThat(PageMetadata.of(TestPage1.class).getUrl(), is(nullValue()));
+        collector.checkThat(PageMetadata.of(String.class).getUrl(), is(nullValue()));
+    }
+
+    @Test
+    public void testGeneratedPreferred() {
+        collector.checkThat(PageMetadata.of(TestPage3.class).isGenerated(), is(true));
+        collector.checkThat(PageMetadata.of(TestPage3.class).getAtCheckers(), is(Arrays.asList(TestPage3.at)));
+        collector.checkThat(PageMetadata.of(TestPage2.class).getUrl(), is(TestPage2.url));
+        collector.checkThat(new FunctionalTestUtils(driver).at(TestPage2.class), is(notNullValue()));
+        collector.checkThat("Pages without @PageObject use reflection", PageMetadata.of(TestPage4.class).isGenerated(), is(false));
+    }
+
+    @Test
+    public void testCreateInitializesElements() {
+        LoginPage page = PageMetadata.of(LoginPage.class).create(driver);
+        collector.checkThat(page.username instanceof WrapsElement, is(true));
+        collector.checkThat(page.loginButton instanceof WrapsElement, is(true));
+        page.username.sendKeys("user123");
+        Mockito.verify(driver.findElement(PageMockHelper.username)).sendKeys("user123");
+    }
+
+    @Test
+    public void testElementFieldsOfSuperclassesAndLists() {
+        WebElement item = PageMockHelper.mockDisplayed("li");
+        Mockito.when(driver.findElements(By.cssSelector("li"))).thenReturn(Arrays.asList(item, item));
+        ElementListPage page = PageMetadata.of(ElementListPage.class).create(driver);
+        collector.checkThat(PageMetadata.of(ElementListPage.class).getElementFieldCount(), is(5));
+        collector.checkThat(page.items.size(), is(2));
+        collector.checkThat(page.notAnnotated, is(nullValue()));
+        collector.checkThat(page.notAnElement, is(nullValue()));
+        collector.checkThat(page.password, is(notNullValue()));
+        collector.checkThat(page.body.getTagName(), is("body"));
+    }
+
+    @Test
+    public void testCreateWithoutDriverConstructor() {
+        collector.checkThat(PageMetadata.of(Object.class).create(driver), is(notNullValue()));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCreateFailsAtCheck() {
+        Mockito.when(driver.findElement(LoginPage.at)).thenThrow(new NoSuchElementException(""));
+        System.setProperty("functionalTests.atCheckWait", "0");
+        try {
+            PageMetadata.of(LoginPage.class).create(driver);
+        } finally {
+            System.clearProperty("functionalTests.atCheckWait");
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ByIdOrName;
+import org.openqa.selenium.support.pagefactory.ByChained;
+
+public class PageObjectProcessorTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JavaCompiler compiler;
+    private File sources;
+    private File classes;
+    private DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+
+    @Before
+    public void setup() throws IOException {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        sources = folder.newFolder("src");
+        classes = folder.newFolder("classes");
+    }
+
+    private boolean compile(String className, String source) throws IOException {
+        File file = new File(sources, className.replace('.', '/') + ".java");
+        FileUtils.writeStringToFile(file, source, "UTF-8");
+        StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null);
+        try {
+            List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-processor",
+                    PageObjectProcessor.class.getName(), "-s", sources.getPath(), "-d", classes.getPath());
+            return compiler.getTask(null, files, diagnostics, options, null, files.getJavaFileObjects(file)).call();
+        } finally {
+            files.close();
+        }
+    }
+
+    private List<String> errors() {
+        List<String> errors = new ArrayList<String>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(null));
+            }
+        }
+        return errors;
+    }
+
+    private static Object field(Class<?> type, String name, Object page) throws Exception {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(page);
+    }
+
+    @Test
+    public void testGeneratesMetadata() throws Exception {
+        boolean compiled = compile("pages.SearchPage", "package pages;\n"
+                + "import java.util.List;\n"
+                + "import org.openqa.selenium.*;\n"
+                + "import org.openqa.selenium.support.*;\n"
+                + "@com.github.double16.PageObject\n"
+                + "public class SearchPage {\n"
+                + "    public static final By at = By.id(\"search\");\n"
+                + "    public static final String url = \"search?q=\\\"x\\\"\";\n"
+                + "    @FindBy(how = How.ID_OR_NAME, using = \"q\") WebElement query;\n"
+                + "    @FindBys({ @FindBy(id = \"results\"), @FindBy(tagName = \"li\") }) List<WebElement> results;\n"
+                + "    WebElement submit;\n"
+                + "    final WebDriver driver;\n"
+                + "    public SearchPage(WebDriver driver) { this.driver = driver; }\n"
+                + "}\n");
+        collector.checkThat(errors().toString(), compiled, is(true));
+        collector.checkThat(new File(sources, "pages/SearchPage_PageMetadata.java").isFile(), is(true));
+
+        URLClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() }, getClass().getClassLoader());
+        try {
+            Class<?> pageClass = loader.loadClass("pages.SearchPage");
+            PageObjectMetadata<Object> metadata = (PageObjectMetadata<Object>) loader.loadClass(
+                    "pages.SearchPage_PageMetadata").newInstance();
+            collector.checkThat(metadata.getAtCheckers(), is(Collections.singletonList(By.id("search"))));
+            collector.checkThat(metadata.getUrl(), is("search?q=\"x\""));
+
+            WebDriver driver = PageMockHelper.createDriver();
+            Object page = metadata.create(driver);
+            collector.checkThat(field(pageClass, "driver", page), is((Object) driver));
+            collector.checkThat(field(pageClass, "query", page), is(notNullValue()));
+            collector.checkThat(field(pageClass, "results", page), is(notNullValue()));
+            collector.checkThat(field(pageClass, "submit", page), is(notNullValue()));
+            collector.checkThat("Generated class is used", PageMetadata.of(pageClass).isGenerated(), is(true));
+        } finally {
+            loader.close();
+        }
+
+        String generated = FileUtils.readFileToString(new File(sources, "pages/SearchPage_PageMetadata.java"), "UTF-8");
+        collector.checkThat(generated, containsString("new " + ByIdOrName.class.getName() + "(\"q\")"));
+        collector.checkThat(generated, containsString("new " + ByChained.class.getName() + "("));
+        collector.checkThat(generated, containsString("new " + ByIdOrName.class.getName() + "(\"submit\")"));
+    }
+
+    @Test
+    public void testSuperclassElements() throws Exception {
+        boolean compiled = compile("pages.BasePage", "package pages;\n"
+                + "import org.openqa.selenium.*;\n"
+                + "@com.github.double16.PageObject\n"
+                + "public class BasePage {\n"
+                + "    WebElement header;\n"
+                + "    public static class Child extends BasePage { }\n"
+                + "    @com.github.double16.PageObject\n"
+                + "    public static class AnnotatedChild extends BasePage { }\n"
+                + "}\n");
+        collector.checkThat(errors().toString(), compiled, is(true));
+        collector.checkThat(new File(sources, "pages/BasePage$AnnotatedChild_PageMetadata.java").isFile(), is(true));
+
+        URLClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() }, getClass().getClassLoader());
+        try {
+            Object page = PageMetadata.of(loader.loadClass("pages.BasePage$AnnotatedChild")).create(PageMockHelper.createDriver());
+            collector.checkThat(field(loader.loadClass("pages.BasePage"), "header", page), is(notNullValue()));
+        } finally {
+            loader.close();
+        }
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        boolean compiled = compile("pages.BadPage", "package pages;\n"
+                + "import org.openqa.selenium.*;\n"
+                + "import org.openqa.selenium.support.*;\n"
+                + "@com.github.double16.PageObject\n"
+                + "public class BadPage extends Plain {\n"
+                + "    public static final String at = \"username\";\n"
+                + "    @FindBy(id = \"a\", css = \"b\") WebElement twice;\n"
+                + "    @FindBy(id = \"a\") private WebElement hidden;\n"
+                + "}\n"
+                + "class Plain { WebElement inherited; }\n");
+        collector.checkThat(compiled, is(false));
+        List<String> errors = errors();
+        collector.checkThat(errors.size(), is(4));
+        collector.checkThat(errors.toString(), containsString("Expecting static 'at'"));
+        collector.checkThat(errors.toString(), containsString("FindBy must set only one"));
+        collector.checkThat(errors.toString(), containsString("must not be private or final"));
+        collector.checkThat(errors.toString(), containsString("must be annotated with @PageObject"));
+    }
+
+    @Test
+    public void testLiteral() {
+        collector.checkThat(PageObjectProcessor.literal("a\"b\\c\né"), is("\"a\\\"b\\\\c\\n\\u00e9\""));
+    }
+}
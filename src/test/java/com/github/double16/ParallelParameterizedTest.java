@@ -0,0 +1,186 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.openqa.selenium.WebDriver;
+
+public class ParallelParameterizedTest {
+    private static final long AWAIT_SECONDS = 10;
+
+    static volatile boolean running;
+    static final Set<String> THREADS = Collections.synchronizedSet(new HashSet<String>());
+    /** Every test waits here until as many tests as are expected to overlap have arrived, it fails if they don't overlap. */
+    static volatile CyclicBarrier parametersBarrier;
+    /** Per parameter instead of {@link #parametersBarrier} if not null. */
+    static volatile ConcurrentMap<String, CyclicBarrier> methodBarriers;
+
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    /** Run by {@link ParallelParameterizedTest} only. */
+    public static class Sample {
+        @Parameter(0)
+        public String browser;
+
+        @Parameterized.Parameters(name = "{0}")
+        public static Collection<Object[]> browsers() {
+            return Arrays.asList(new Object[] { "a" }, new Object[] { "b" }, new Object[] { "c" });
+        }
+
+        @Before
+        public void setUp() {
+            Assume.assumeTrue(running);
+        }
+
+        @Test
+        public void test1() throws Exception {
+            await();
+        }
+
+        @Test
+        public void test2() throws Exception {
+            await();
+        }
+
+        private void await() throws Exception {
+            THREADS.add(Thread.currentThread().getName());
+            CyclicBarrier barrier = methodBarriers != null ? methodBarriers.get(browser) : parametersBarrier;
+            barrier.await(AWAIT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /** Run by {@link ParallelParameterizedTest} only, records the browser of each method. */
+    public static class BrowserSample extends AbstractFunctionalTest {
+        static final Set<WebDriver> DRIVERS = Collections.synchronizedSet(new HashSet<WebDriver>());
+        static volatile WebDriverFactory factory;
+
+        @Parameterized.Parameters(name = "{0}")
+        public static Collection<Object[]> drivers() {
+            return factory == null ? Collections.<Object[]> emptyList() : Collections.singletonList(new Object[] { factory });
+        }
+
+        @Override
+        public String getContextRoot() {
+            return "/";
+        }
+
+        @Test
+        public void test1() throws Exception {
+            await();
+        }
+
+        @Test
+        public void test2() throws Exception {
+            await();
+        }
+
+        private void await() throws Exception {
+            Assume.assumeTrue(running);
+            DRIVERS.add(driver);
+            parametersBarrier.await(AWAIT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private Result run() throws Throwable {
+        return run(Sample.class);
+    }
+
+    private Result run(Class<?> klass) throws Throwable {
+        running = true;
+        THREADS.clear();
+        try {
+            return new JUnitCore().run(Request.runner(new ParallelParameterized(klass)));
+        } finally {
+            running = false;
+            parametersBarrier = null;
+            methodBarriers = null;
+        }
+    }
+
+    @Test
+    public void testParametersRunConcurrently() throws Throwable {
+        // each parameter runs the methods in the same order, the barrier trips once per method
+        parametersBarrier = new CyclicBarrier(3);
+        Result result = run();
+        collector.checkThat(result.getRunCount(), is(6));
+        collector.checkThat("All parameters should be running at once", result.getFailures(), is(Collections.<Failure> emptyList()));
+        collector.checkThat("Each parameter on its own thread", THREADS.size(), is(3));
+    }
+
+    @Test
+    public void testMethodThreads() throws Throwable {
+        System.setProperty("functionalTests.methodThreads", "2");
+        methodBarriers = new ConcurrentHashMap<String, CyclicBarrier>();
+        for (Object[] parameter : Sample.browsers()) {
+            methodBarriers.put((String) parameter[0], new CyclicBarrier(2));
+        }
+        try {
+            Result result = run();
+            collector.checkThat(result.getRunCount(), is(6));
+            collector.checkThat("Both methods of a parameter should be running at once", result.getFailures(),
+                    is(Collections.<Failure> emptyList()));
+        } finally {
+            System.clearProperty("functionalTests.methodThreads");
+        }
+    }
+
+    @Test
+    public void testMethodThreadsDontShareEarlierBrowser() throws Throwable {
+        BrowserSample.DRIVERS.clear();
+        BrowserSample.factory = new WebDriverFactory() {
+            @Override
+            public WebDriver createWebDriver(String testName) {
+                return mock(WebDriver.class);
+            }
+
+            @Override
+            public String getIdentifier() {
+                return "parallel-" + System.identityHashCode(this);
+            }
+        };
+        WebDriverCache cache = AbstractFunctionalTest.WEB_DRIVER_CACHE;
+        int poolSize = cache.getPoolSize();
+        System.setProperty("functionalTests.baseUrl", "http://localhost:8080");
+        System.setProperty("functionalTests.methodThreads", "2");
+        try {
+            // an earlier test class of the JVM shared the browser
+            cache.setPoolSize(0);
+            WebDriver earlier = cache.getWebDriver(BrowserSample.factory, "earlier");
+            cache.maybeQuitWebDriver(earlier);
+
+            parametersBarrier = new CyclicBarrier(2);
+            Result result = run(BrowserSample.class);
+            collector.checkThat(result.getRunCount(), is(2));
+            collector.checkThat("Both methods should be running at once", result.getFailures(),
+                    is(Collections.<Failure> emptyList()));
+            collector.checkThat("Concurrent methods must not share a browser", BrowserSample.DRIVERS.size(), is(2));
+            collector.checkThat("The earlier browser is reused", BrowserSample.DRIVERS, hasItem(earlier));
+        } finally {
+            System.clearProperty("functionalTests.methodThreads");
+            System.clearProperty("functionalTests.baseUrl");
+            cache.setPoolSize(poolSize);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+
+public class ReportArchiveTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String read(ReportArchiveReader reader, String name) throws IOException {
+        InputStream is = reader.open(name);
+        try {
+            return IOUtils.toString(is, "UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        File root = folder.newFolder("results");
+        File data = new File(folder.getRoot(), "archive/reports" + ReportArchive.DATA_SUFFIX);
+        ReportArchive archive = new ReportArchive(data, root);
+        ReportWriter writer = new ReportWriter(2, 4);
+        writer.setArchive(archive);
+        File testDir = new File(root, "chrome/artifacts/LoginTest/testLogin");
+        String screenshot = Base64.encodeBase64String("png".getBytes(UTF8));
+        writer.writeHtml(new File(testDir, "001-end.html"), "<html>one</html>");
+        writer.writeHtml(new File(testDir, "002-end.html.gz"), "<html>two</html>");
+        writer.writeScreenshot(new File(testDir, "001-end.png"), screenshot);
+        writer.writeScreenshot(new File(testDir, "002-end.png"), screenshot);
+        collector.checkThat(writer.flush(5, TimeUnit.SECONDS), is(true));
+        archive.close();
+
+        collector.checkThat("Report directories should not be created", testDir.exists(), is(false));
+        collector.checkThat(archive.getIndexFile().getName(), is("reports" + ReportArchive.INDEX_SUFFIX));
+
+        ReportArchiveReader reader = new ReportArchiveReader(data);
+        try {
+            collector.checkThat(reader.list().size(), is(4));
+            collector.checkThat(reader.list().contains("chrome/artifacts/LoginTest/testLogin/001-end.html"), is(true));
+            collector.checkThat(read(reader, "chrome/artifacts/LoginTest/testLogin/001-end.html"), is("<html>one</html>"));
+            collector.checkThat(read(reader, "chrome/artifacts/LoginTest/testLogin/002-end.png"), is("png"));
+            collector.checkThat(read(reader, "chrome/artifacts/LoginTest/testLogin/001-end.png"), is("png"));
+            GZIPInputStream gz = new GZIPInputStream(reader.open("chrome/artifacts/LoginTest/testLogin/002-end.html.gz"));
+            try {
+                collector.checkThat(IOUtils.toString(gz, "UTF-8"), is("<html>two</html>"));
+            } finally {
+                gz.close();
+            }
+            collector.checkThat(reader.getLength("missing"), is(-1L));
+        } finally {
+            reader.close();
+        }
+
+        long dataLength = 3 + "<html>one</html>".length();
+        collector.checkThat("Identical screenshots should be stored once", data.length() > dataLength, is(true));
+        collector.checkThat(data.length() < dataLength + 3 + 100, is(true));
+    }
+
+    @Test
+    public void testReopenAppendsAndLaterEntryWins() throws IOException {
+        File root = folder.newFolder("results");
+        File data = new File(folder.getRoot(), "reports.dat");
+        ReportArchive archive = new ReportArchive(data, root);
+        ReportWriter writer = new ReportWriter(0, 1);
+        writer.setArchive(archive);
+        writer.writeHtml(new File(root, "a.html"), "first");
+        archive.close();
+        writer.writeHtml(new File(root, "a.html"), "second");
+        writer.writeHtml(new File(root, "b.html"), "other");
+        archive.close();
+
+        ReportArchiveReader reader = new ReportArchiveReader(data);
+        try {
+            collector.checkThat(reader.list(), is(Arrays.asList("a.html", "b.html")));
+            collector.checkThat(read(reader, "a.html"), is("second"));
+            collector.checkThat(read(reader, "b.html"), is("other"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testInterruptedIndexLineIgnored() throws IOException {
+        File root = folder.newFolder("results");
+        File data = new File(folder.getRoot(), "reports.dat");
+        ReportArchive archive = new ReportArchive(data, root);
+        ReportWriter writer = new ReportWriter(0, 1);
+        writer.setArchive(archive);
+        writer.writeHtml(new File(root, "a.html"), "first");
+        archive.close();
+        FileUtils.writeStringToFile(archive.getIndexFile(), "5 1000 b.ht", UTF8, true);
+
+        ReportArchiveReader reader = new ReportArchiveReader(data);
+        try {
+            collector.checkThat(reader.list(), is(Arrays.asList("a.html")));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testExtract() throws IOException {
+        File root = folder.newFolder("results");
+        File data = new File(folder.getRoot(), "reports.dat");
+        ReportArchive archive = new ReportArchive(data, root);
+        ReportWriter writer = new ReportWriter(0, 1);
+        writer.setArchive(archive);
+        writer.writeHtml(new File(root, "chrome/LoginTest/001-end.html"), "<html></html>");
+        archive.close();
+
+        File output = folder.newFolder("output");
+        ReportArchiveReader.main(new String[] { "extract", data.getPath(), output.getPath() });
+        collector.checkThat(FileUtils.readFileToString(new File(output, "chrome/LoginTest/001-end.html"), UTF8),
+                is("<html></html>"));
+    }
+
+    @Test
+    public void testExtractRejectsEntriesOutsideDir() throws IOException {
+        File data = new File(folder.getRoot(), "reports" + ReportArchive.DATA_SUFFIX);
+        FileUtils.writeStringToFile(data, "evil", UTF8);
+        FileUtils.writeStringToFile(ReportArchive.indexFile(data), "0 4 ../escaped.txt\n", UTF8);
+        File dir = folder.newFolder("extracted");
+        ReportArchiveReader reader = new ReportArchiveReader(data);
+        try {
+            reader.extract(dir);
+            collector.addError(new AssertionError("An entry outside the directory should be rejected"));
+        } catch (IOException e) {
+            // expected
+        } finally {
+            reader.close();
+        }
+        collector.checkThat(new File(folder.getRoot(), "escaped.txt").exists(), is(false));
+    }
+}
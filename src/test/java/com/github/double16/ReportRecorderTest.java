@@ -0,0 +1,92 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+public class ReportRecorderTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FunctionalTestUtils utils;
+    private ReportWriter writer;
+
+    @Before
+    public void setup() throws IOException {
+        utils = Mockito.mock(FunctionalTestUtils.class);
+        Mockito.when(utils.capture()).thenReturn(new ReportCapture(null, "<html></html>"));
+        writer = new ReportWriter(0, 1);
+    }
+
+    private ReportRecorder recorder(ReportPolicy policy) {
+        return new ReportRecorder(utils, folder.getRoot(), writer, policy);
+    }
+
+    private boolean exists(String baseFileName) {
+        return new File(folder.getRoot(), baseFileName + ".html").exists();
+    }
+
+    @Test
+    public void testAlways() throws IOException {
+        ReportRecorder recorder = recorder(ReportPolicy.ALWAYS);
+        collector.checkThat(recorder.isEndReported(), is(true));
+        recorder.report("001-step");
+        collector.checkThat(exists("001-step"), is(true));
+        recorder.failed("002-failure");
+        collector.checkThat("Failure report is covered by the end report", exists("002-failure"), is(false));
+    }
+
+    @Test
+    public void testExplicit() throws IOException {
+        ReportRecorder recorder = recorder(ReportPolicy.EXPLICIT);
+        collector.checkThat(recorder.isEndReported(), is(false));
+        recorder.report("001-step");
+        collector.checkThat(exists("001-step"), is(true));
+        recorder.failed("002-failure");
+        collector.checkThat(exists("002-failure"), is(false));
+    }
+
+    @Test
+    public void testOnFailureWritesNothingForPassingTest() throws IOException {
+        ReportRecorder recorder = recorder(ReportPolicy.ON_FAILURE);
+        collector.checkThat(recorder.isEndReported(), is(false));
+        recorder.report("001-step");
+        recorder.succeeded();
+        collector.checkThat(folder.getRoot().list().length, is(0));
+        Mockito.verify(utils).capture();
+    }
+
+    @Test
+    public void testOnFailureWritesBufferedReports() throws IOException {
+        ReportRecorder recorder = recorder(ReportPolicy.ON_FAILURE);
+        recorder.report("001-step");
+        collector.checkThat("Report should be buffered", exists("001-step"), is(false));
+        recorder.failed("002-failure");
+        collector.checkThat(exists("001-step"), is(true));
+        collector.checkThat(exists("002-failure"), is(true));
+    }
+
+    @Test
+    public void testParsePolicy() {
+        collector.checkThat(ReportPolicy.parse(null), is(ReportPolicy.ALWAYS));
+        collector.checkThat(ReportPolicy.parse("always"), is(ReportPolicy.ALWAYS));
+        collector.checkThat(ReportPolicy.parse("on-failure"), is(ReportPolicy.ON_FAILURE));
+        collector.checkThat(ReportPolicy.parse(" EXPLICIT "), is(ReportPolicy.EXPLICIT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnknownPolicy() {
+        ReportPolicy.parse("sometimes");
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+
+public class ReportWriterTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWritesInBackground() throws IOException {
+        ReportWriter writer = new ReportWriter(2, 4);
+        File png = folder.newFile("report.png");
+        File html = folder.newFile("report.html");
+        byte[] image = new byte[] { (byte) 0x89, 'P', 'N', 'G', 0, 1, 2 };
+        writer.writeScreenshot(png, Base64.encodeBase64String(image));
+        writer.writeHtml(html, "<html>é</html>");
+        collector.checkThat(writer.flush(5, TimeUnit.SECONDS), is(true));
+        collector.checkThat(FileUtils.readFileToByteArray(png), is(image));
+        collector.checkThat(FileUtils.readFileToString(html, UTF8), is("<html>é</html>"));
+    }
+
+    @Test
+    public void testWritesOnCallingThread() throws IOException {
+        ReportWriter writer = new ReportWriter(0, 4);
+        File html = new File(folder.getRoot(), "report.html");
+        writer.writeHtml(html, "<html></html>");
+        collector.checkThat(FileUtils.readFileToString(html, UTF8), is("<html></html>"));
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final ReportWriter writer = new ReportWriter(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        writer.submit(folder.newFile("slow.html"), new ReportWriter.Content() {
+            @Override
+            public void writeTo(OutputStream os) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        });
+
+        final File next = new File(folder.getRoot(), "next.html");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> queued = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    writer.writeHtml(next, "next");
+                    return null;
+                }
+            });
+            Thread.sleep(200);
+            collector.checkThat("Write should wait while the writer is at capacity", queued.isDone(), is(false));
+            collector.checkThat(writer.flush(100, TimeUnit.MILLISECONDS), is(false));
+
+            release.countDown();
+            queued.get(5, TimeUnit.SECONDS);
+            collector.checkThat(writer.flush(5, TimeUnit.SECONDS), is(true));
+            collector.checkThat(FileUtils.readFileToString(next, UTF8), is("next"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWriteFailureLogged() throws IOException {
+        ReportWriter writer = new ReportWriter(1, 1);
+        writer.writeHtml(new File(folder.getRoot(), "missing/report.html"), "<html></html>");
+        collector.checkThat(writer.flush(5, TimeUnit.SECONDS), is(true));
+        writer.writeHtml(new File(folder.getRoot(), "report.html"), "<html></html>");
+        collector.checkThat(writer.flush(5, TimeUnit.SECONDS), is(true));
+        collector.checkThat(new File(folder.getRoot(), "report.html").exists(), is(true));
+    }
+}
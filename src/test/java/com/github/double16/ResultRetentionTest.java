@@ -0,0 +1,119 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultRetentionTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File run(File resultsDir, String runId, long modified, int bytes) throws IOException {
+        File runDir = ResultRetention.getRunDir(resultsDir, runId);
+        FileUtils.writeByteArrayToFile(new File(runDir, "Test/method/001-end.html"), new byte[bytes]);
+        runDir.setLastModified(modified);
+        return runDir;
+    }
+
+    @Test
+    public void testKeepRuns() throws IOException {
+        File resultsDir = folder.getRoot();
+        long now = System.currentTimeMillis();
+        File oldest = run(resultsDir, "run1", now - 30000, 10);
+        File older = run(resultsDir, "run2", now - 20000, 10);
+        File newer = run(resultsDir, "run3", now - 10000, 10);
+        File current = run(resultsDir, "run4", now, 10);
+
+        collector.checkThat(new ResultRetention(2, 0).prune(resultsDir, "run4"), is(Arrays.asList(older, oldest)));
+        collector.checkThat(current.isDirectory(), is(true));
+        collector.checkThat(newer.isDirectory(), is(true));
+        collector.checkThat(oldest.exists(), is(false));
+    }
+
+    @Test
+    public void testKeepBytes() throws IOException {
+        File resultsDir = folder.getRoot();
+        long now = System.currentTimeMillis();
+        File old = run(resultsDir, "run1", now - 20000, 1000);
+        File newer = run(resultsDir, "run2", now - 10000, 1000);
+        File current = run(resultsDir, "run3", now, 1000);
+
+        collector.checkThat(new ResultRetention(0, 2500).prune(resultsDir, "run3"), is(Arrays.asList(old)));
+        collector.checkThat(current.isDirectory(), is(true));
+        collector.checkThat(newer.isDirectory(), is(true));
+    }
+
+    @Test
+    public void testCurrentRunAlwaysKept() throws IOException {
+        File resultsDir = folder.getRoot();
+        long now = System.currentTimeMillis();
+        File current = run(resultsDir, "run1", now - 10000, 1000);
+        File newer = run(resultsDir, "run2", now, 1000);
+
+        new ResultRetention(1, 10).prune(resultsDir, "run1");
+        collector.checkThat(current.isDirectory(), is(true));
+        collector.checkThat(newer.exists(), is(false));
+    }
+
+    @Test
+    public void testLockedRunKept() throws IOException {
+        File resultsDir = folder.getRoot();
+        long now = System.currentTimeMillis();
+        Closeable lock = ResultRetention.lockRun(resultsDir, "run1");
+        try {
+            File otherFork = run(resultsDir, "run1", now - 20000, 10);
+            File old = run(resultsDir, "run2", now - 10000, 10);
+            run(resultsDir, "run3", now, 10);
+
+            collector.checkThat(new ResultRetention(1, 0).prune(resultsDir, "run3"), is(Arrays.asList(old)));
+            collector.checkThat("A run being written by another JVM should be kept", otherFork.isDirectory(), is(true));
+        } finally {
+            lock.close();
+        }
+        collector.checkThat(new ResultRetention(1, 0).prune(resultsDir, "run3"),
+                is(Arrays.asList(ResultRetention.getRunDir(resultsDir, "run1"))));
+    }
+
+    @Test
+    public void testNoLimits() throws IOException {
+        File resultsDir = folder.getRoot();
+        run(resultsDir, "run1", System.currentTimeMillis(), 10);
+        collector.checkThat(new ResultRetention(0, 0).prune(resultsDir, "run2").isEmpty(), is(true));
+        collector.checkThat(new ResultRetention(1, 0).prune(folder.newFolder("empty"), "run2").isEmpty(), is(true));
+    }
+
+    @Test
+    public void testLinkLatest() throws IOException {
+        File resultsDir = folder.getRoot();
+        run(resultsDir, "run1", System.currentTimeMillis(), 10);
+        run(resultsDir, "run2", System.currentTimeMillis(), 10);
+        ResultRetention.linkLatest(resultsDir, "run1");
+        ResultRetention.linkLatest(resultsDir, "run2");
+        ResultRetention.linkLatest(resultsDir, "run2");
+
+        File latest = new File(resultsDir, "latest");
+        if (Files.isSymbolicLink(latest.toPath())) {
+            collector.checkThat(new File(latest, "Test/method/001-end.html").isFile(), is(true));
+            collector.checkThat(latest.getCanonicalFile(), is(ResultRetention.getRunDir(resultsDir, "run2").getCanonicalFile()));
+        } else {
+            collector.checkThat(FileUtils.readFileToString(new File(resultsDir, "latest.txt"), UTF8).trim(), is("run2"));
+        }
+        collector.checkThat("Temporary links should be removed", resultsDir.list().length <= 3, is(true));
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import com.sun.net.httpserver.HttpExchange;
+
+public class SauceJobUpdaterTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    private StubHttpServer server;
+    private SauceJobUpdater updater;
+    /** Requests to fail before succeeding. */
+    private final AtomicInteger failures = new AtomicInteger();
+    /** The status of failed requests. */
+    private volatile int failureStatus = 503;
+
+    @Before
+    public void setup() throws IOException {
+        server = new StubHttpServer(new StubHttpServer.Responder() {
+            @Override
+            public void respond(HttpExchange exchange, byte[] body) throws IOException {
+                if (failures.getAndDecrement() > 0) {
+                    StubHttpServer.send(exchange, failureStatus, "text/plain", "failed".getBytes("UTF-8"));
+                } else {
+                    StubHttpServer.send(exchange, 200, "application/json", "{}".getBytes("UTF-8"));
+                }
+            }
+        });
+        SauceRestClient client = new SauceRestClient(server.getUrl("/").toString(), "sluser", "key");
+        updater = new SauceJobUpdater(client, 100, 50, 3);
+    }
+
+    @After
+    public void teardown() {
+        server.close();
+    }
+
+    private static Map<String, Object> updates(String key, Object value) {
+        Map<String, Object> updates = new HashMap<String, Object>();
+        updates.put(key, value);
+        return updates;
+    }
+
+    @Test
+    public void testUpdatesCoalesced() {
+        updater.update("session1", updates("name", "test1"));
+        updater.update("session1", updates("passed", Boolean.TRUE));
+        updater.update("session1", updates("passed", Boolean.FALSE));
+        updater.update("session1", updates("tags", Arrays.asList("a")));
+        updater.update("session1", updates("tags", Arrays.asList("b")));
+        collector.checkThat(updater.flush(5, TimeUnit.SECONDS), is(true));
+        collector.checkThat(server.requests, is(Collections.singletonList("PUT /rest/v1/sluser/jobs/session1")));
+        String body = server.bodies.get(0);
+        collector.checkThat(body, containsString("\"name\":\"test1\""));
+        collector.checkThat(body, containsString("\"passed\":false"));
+        collector.checkThat(body, containsString("\"tags\":[\"a\",\"b\"]"));
+    }
+
+    @Test
+    public void testFailedNotOverwrittenByPassed() {
+        updater.update("session1", updates("passed", Boolean.FALSE));
+        updater.update("session1", updates("passed", Boolean.TRUE));
+        collector.checkThat(updater.flush(5, TimeUnit.SECONDS), is(true));
+        collector.checkThat(server.bodies.get(0), containsString("\"passed\":false"));
+    }
+
+    @Test
+    public void testFailedNotOverwrittenByLaterPassed() {
+        updater.update("session1", updates("passed", Boolean.FALSE));
+        collector.checkThat(updater.flush(5, TimeUnit.SECONDS), is(true));
+        updater.update("session1", updates("passed", Boolean.TRUE));
+        updater.update("session2", updates("passed", Boolean.TRUE));
+        collector.checkThat(updater.flush(5, TimeUnit.SECONDS), is(true));
+        collector.checkThat(server.bodies.size(), is(3));
+        collector.checkThat("A sent failure stays failed", server.bodies.get(1), containsString("\"passed\":false"));
+        collector.checkThat("Other jobs may pass", server.bodies.get(2), containsString("\"passed\":true"));
+    }
+
+    @Test
+    public void testSessionsSentSeparately() {
+        updater.update("session1", updates("passed", Boolean.TRUE));
+        updater.update("session2", updates("passed", Boolean.FALSE));
+        collector.checkThat(updater.flush(5, TimeUnit.SECONDS), is(true));
+        collector.checkThat(server.requests.size(), is(2));
+    }
+
+    @Test
+    public void testSentInBackground() throws InterruptedException {
+        updater.update("session1", updates("passed", Boolean.TRUE));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.requests.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        collector.checkThat(server.requests.size(), is(1));
+    }
+
+    @Test
+    public void testRetried() {
+        failures.set(2);
+        updater.update("session1", updates("passed", Boolean.TRUE));
+        collector.checkThat(updater.flush(5, TimeUnit.SECONDS), is(true));
+        collector.checkThat(server.requests.size(), is(3));
+    }
+
+    @Test
+    public void testClientErrorNotRetried() {
+        failures.set(1);
+        failureStatus = 401;
+        updater.update("session1", updates("passed", Boolean.TRUE));
+        collector.checkThat("A dropped update wasn't sent", updater.flush(5, TimeUnit.SECONDS), is(false));
+        collector.checkThat(server.requests.size(), is(1));
+        updater.update("session1", updates("passed", Boolean.TRUE));
+        collector.checkThat("Only updates since the last flush count", updater.flush(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void testTooManyRequestsRetried() {
+        failures.set(2);
+        failureStatus = 429;
+        updater.update("session1", updates("passed", Boolean.TRUE));
+        collector.checkThat(updater.flush(5, TimeUnit.SECONDS), is(true));
+        collector.checkThat(server.requests.size(), is(3));
+    }
+
+    @Test
+    public void testFlushDeadline() throws IOException {
+        failures.set(Integer.MAX_VALUE);
+        updater = new SauceJobUpdater(new SauceRestClient(server.getUrl("/").toString(), "sluser", "key"), 100, 50, 1000);
+        updater.update("session1", updates("passed", Boolean.TRUE));
+        long start = System.currentTimeMillis();
+        collector.checkThat(updater.flush(300, TimeUnit.MILLISECONDS), is(false));
+        collector.checkThat(System.currentTimeMillis() - start < 3000, is(true));
+    }
+}
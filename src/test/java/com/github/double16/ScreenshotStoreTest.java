@@ -0,0 +1,198 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+
+public class ScreenshotStoreTest {
+    private static final int SIZE = 64;
+
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoresOnce() throws IOException {
+        File dir = new File(folder.getRoot(), "store");
+        ScreenshotStore store = new ScreenshotStore(dir, false);
+        byte[] png = uncompressedPng(0x336699);
+        File first = new File(folder.newFolder("test1"), "001-end.png");
+        File second = new File(folder.newFolder("test2"), "001-end.png");
+        File stored = store.store(png, first);
+        collector.checkThat(store.store(png, second), is(stored));
+        collector.checkThat(dir.list().length, is(1));
+        collector.checkThat(FileUtils.readFileToByteArray(first), is(png));
+        collector.checkThat(FileUtils.readFileToByteArray(second), is(png));
+        collector.checkThat("Reports should link to the stored screenshot", Files.isSameFile(first.toPath(), stored.toPath()),
+                is(true));
+
+        store.store(uncompressedPng(0x996633), new File(folder.getRoot(), "other.png"));
+        collector.checkThat(dir.list().length, is(2));
+    }
+
+    @Test
+    public void testStoreSharedBetweenInstances() throws IOException {
+        File dir = new File(folder.getRoot(), "store");
+        byte[] png = uncompressedPng(0x336699);
+        new ScreenshotStore(dir, false).store(png, new File(folder.getRoot(), "first.png"));
+        new ScreenshotStore(dir, false).store(png, new File(folder.getRoot(), "second.png"));
+        collector.checkThat(dir.list().length, is(1));
+    }
+
+    @Test
+    public void testPruneUnreferenced() throws IOException {
+        File dir = new File(folder.getRoot(), "store");
+        ScreenshotStore store = new ScreenshotStore(dir, false);
+        File kept = new File(folder.getRoot(), "kept.png");
+        File deleted = new File(folder.getRoot(), "deleted.png");
+        File keptBlob = store.store(uncompressedPng(0x336699), kept);
+        File deletedBlob = store.store(uncompressedPng(0x996633), deleted);
+        Assume.assumeTrue("Links are supported", Files.isSameFile(kept.toPath(), keptBlob.toPath()));
+        deleted.delete();
+
+        collector.checkThat("Screenshots newer than the time are kept", store.pruneUnreferenced(0), is(0));
+        collector.checkThat(store.pruneUnreferenced(System.currentTimeMillis() + 1000), is(1));
+        collector.checkThat(keptBlob.isFile(), is(true));
+        collector.checkThat(deletedBlob.exists(), is(false));
+
+        store.store(uncompressedPng(0x996633), deleted);
+        collector.checkThat("Pruned screenshot should be stored again", deletedBlob.isFile(), is(true));
+    }
+
+    @Test
+    public void testRecompress() throws IOException {
+        byte[] png = uncompressedPng(0x336699);
+        byte[] recompressed = ScreenshotStore.recompress(png);
+        collector.checkThat(recompressed.length < png.length / 10, is(true));
+        collector.checkThat(pixels(recompressed), is(pixels(png)));
+        collector.checkThat("Already compressed PNG should be unchanged", ScreenshotStore.recompress(recompressed),
+                is(recompressed));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRecompressNotPng() throws IOException {
+        ScreenshotStore.recompress(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+    }
+
+    @Test
+    public void testCrop() throws IOException {
+        byte[] png = uncompressedPng(0x336699);
+        BufferedImage cropped = ImageIO.read(new ByteArrayInputStream(ScreenshotStore.crop(png, new Rectangle(8, 8, 16, 10))));
+        collector.checkThat(cropped.getWidth(), is(16));
+        collector.checkThat(cropped.getHeight(), is(10));
+        collector.checkThat(cropped.getRGB(0, 0) & 0xffffff, is(0x336699));
+
+        BufferedImage clipped = ImageIO.read(new ByteArrayInputStream(ScreenshotStore.crop(png,
+                new Rectangle(SIZE - 4, SIZE - 4, 16, 16))));
+        collector.checkThat(clipped.getWidth(), is(4));
+        collector.checkThat(clipped.getHeight(), is(4));
+    }
+
+    @Test
+    public void testCropViewportScreenshot() throws IOException {
+        byte[] png = uncompressedPng(0x336699);
+        Rectangle viewport = new Rectangle(0, 100, SIZE, SIZE);
+        BufferedImage clipped = ImageIO.read(new ByteArrayInputStream(ScreenshotStore.crop(png,
+                new Rectangle(SIZE - 4, 100 + SIZE - 4, 16, 16), viewport)));
+        collector.checkThat("The document area should be taken relative to the viewport", clipped.getWidth(), is(4));
+        collector.checkThat(clipped.getHeight(), is(4));
+
+        Rectangle smallerViewport = new Rectangle(0, 100, SIZE / 2, SIZE / 2);
+        BufferedImage wholePage = ImageIO.read(new ByteArrayInputStream(ScreenshotStore.crop(png,
+                new Rectangle(SIZE - 4, SIZE - 4, 16, 16), smallerViewport)));
+        collector.checkThat("A screenshot larger than the viewport is of the document", wholePage.getWidth(), is(4));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCropOutsideImage() throws IOException {
+        ScreenshotStore.crop(uncompressedPng(0x336699), new Rectangle(SIZE + 10, SIZE + 10, 16, 16));
+    }
+
+    @Test
+    public void testReportWriterUsesStore() throws IOException {
+        File dir = new File(folder.getRoot(), "store");
+        ReportWriter writer = new ReportWriter(1, 2);
+        writer.setScreenshotStore(new ScreenshotStore(dir, true));
+        String screenshot = Base64.encodeBase64String(uncompressedPng(0x336699));
+        File first = new File(folder.getRoot(), "first.png");
+        File second = new File(folder.getRoot(), "second.png");
+        writer.writeScreenshot(first, screenshot);
+        writer.writeScreenshot(second, screenshot);
+        collector.checkThat(writer.flush(5, TimeUnit.SECONDS), is(true));
+        collector.checkThat(dir.list().length, is(1));
+        collector.checkThat(Files.isSameFile(first.toPath(), second.toPath()), is(true));
+        collector.checkThat(pixels(FileUtils.readFileToByteArray(first)), is(pixels(uncompressedPng(0x336699))));
+    }
+
+    private static int[] pixels(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    /**
+     * An RGB PNG of one color with the image data stored, not compressed, to leave room for re-compression.
+     */
+    private static byte[] uncompressedPng(int rgb) throws IOException {
+        byte[] raw = new byte[SIZE * (1 + SIZE * 3)];
+        for (int y = 0; y < SIZE; y++) {
+            int row = y * (1 + SIZE * 3);
+            for (int x = 0; x < SIZE; x++) {
+                raw[row + 1 + x * 3] = (byte) (rgb >> 16);
+                raw[row + 2 + x * 3] = (byte) (rgb >> 8);
+                raw[row + 3 + x * 3] = (byte) rgb;
+            }
+        }
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(idat, new Deflater(Deflater.NO_COMPRESSION));
+        deflate.write(raw);
+        deflate.finish();
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(SIZE);
+        ihdr.writeInt(SIZE);
+        ihdr.write(new byte[] { 8, 2, 0, 0, 0 });
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        png.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' });
+        writeChunk(png, "IHDR", header.toByteArray());
+        writeChunk(png, "IDAT", idat.toByteArray());
+        writeChunk(png, "IEND", new byte[0]);
+        return png.toByteArray();
+    }
+
+    private static void writeChunk(ByteArrayOutputStream png, String type, byte[] data) throws IOException {
+        DataOutputStream out = new DataOutputStream(png);
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+}
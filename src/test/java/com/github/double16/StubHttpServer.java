@@ -0,0 +1,84 @@
+package com.github.double16;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing in for remote services in tests. Requests are recorded as "METHOD path" with their bodies.
+ */
+public class StubHttpServer implements Closeable {
+    public interface Responder {
+        void respond(HttpExchange exchange, byte[] body) throws IOException;
+    }
+
+    private static final String HOST = "127.0.0.1";
+
+    public final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    public final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private final HttpServer server;
+
+    public StubHttpServer(final Responder responder) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(HOST), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream is = exchange.getRequestBody();
+                byte[] body = IOUtils.toByteArray(is);
+                is.close();
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+                bodies.add(new String(body, "UTF-8"));
+                try {
+                    responder.respond(exchange, body);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Respond with the content.
+     */
+    public static void send(HttpExchange exchange, int status, String contentType, byte[] content) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, content.length == 0 ? -1 : content.length);
+        if (content.length > 0) {
+            OutputStream os = exchange.getResponseBody();
+            os.write(content);
+            os.close();
+        }
+    }
+
+    /**
+     * A minimal WebDriver wire protocol response for the session.
+     */
+    public static void sendWebDriverSuccess(HttpExchange exchange, String sessionId) throws IOException {
+        send(exchange, 200, "application/json;charset=UTF-8", ("{\"sessionId\":\"" + sessionId
+                + "\",\"status\":0,\"value\":null}").getBytes("UTF-8"));
+    }
+
+    public URL getUrl(String path) throws MalformedURLException {
+        return new URL("http", HOST, server.getAddress().getPort(), path);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
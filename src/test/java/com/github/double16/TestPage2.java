@@ -2,6 +2,7 @@ package com.github.double16;
 
 import org.openqa.selenium.WebDriver;
 
+@PageObject
 public class TestPage2 extends AbstractPage {
     public static final String url = "page2";
 
@@ -3,6 +3,7 @@ package com.github.double16;
 import org.openqa.selenium.By;
 import org.openqa.selenium.WebDriver;
 
+@PageObject
 public class TestPage3 extends AbstractPage {
 	public static final By[] at = new By[] {
 		By.cssSelector("h2"), By.name("username")
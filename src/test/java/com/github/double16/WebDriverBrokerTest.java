@@ -0,0 +1,198 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import com.sun.net.httpserver.HttpExchange;
+
+public class WebDriverBrokerTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    private static final String TOKEN = "secret";
+
+    private StubHttpServer grid;
+    private URL gridUrl;
+    private WebDriverBroker broker;
+    private AtomicInteger created;
+    private SharedSessionWebDriverFactory testFactory;
+
+    @Before
+    public void setup() throws IOException {
+        grid = new StubHttpServer(new StubHttpServer.Responder() {
+            @Override
+            public void respond(HttpExchange exchange, byte[] body) throws IOException {
+                String[] path = exchange.getRequestURI().getPath().split("/");
+                StubHttpServer.sendWebDriverSuccess(exchange, path.length > 3 ? path[3] : "");
+            }
+        });
+        gridUrl = grid.getUrl("/wd/hub");
+        broker = new WebDriverBroker(0, TOKEN, gridUrl, 0, TimeUnit.SECONDS);
+        created = new AtomicInteger();
+        testFactory = new SharedSessionWebDriverFactory() {
+            @Override
+            public WebDriver createWebDriver(String testName) throws IOException {
+                return new AttachedRemoteWebDriver(gridUrl, "session" + created.incrementAndGet(),
+                        DesiredCapabilities.firefox());
+            }
+
+            @Override
+            public String getIdentifier() {
+                return "grid";
+            }
+        };
+    }
+
+    @After
+    public void teardown() throws IOException {
+        broker.close();
+        grid.close();
+    }
+
+    private WebDriverBrokerClient client() {
+        return new WebDriverBrokerClient(broker.getPort(), TOKEN, gridUrl);
+    }
+
+    /**
+     * Send one request line as-is.
+     */
+    private String request(String line) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName(null), broker.getPort());
+        try {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), WebDriverBroker.ENCODING);
+            out.write(line);
+            out.write('\n');
+            out.flush();
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(), WebDriverBroker.ENCODING)).readLine();
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testBorrowEmpty() throws IOException {
+        WebDriverBrokerClient client = client();
+        collector.checkThat(client.borrow("grid"), nullValue());
+    }
+
+    @Test
+    public void testReturnAndBorrow() throws IOException {
+        WebDriverBrokerClient client1 = client();
+        WebDriverBrokerClient client2 = client();
+        RemoteWebDriver driver = (RemoteWebDriver) testFactory.createWebDriver("a");
+        collector.checkThat(client1.giveBack("grid", driver), is(true));
+
+        RemoteWebDriver attached = client2.borrow("grid");
+        collector.checkThat(attached, notNullValue());
+        collector.checkThat(attached.getSessionId().toString(), is("session1"));
+        collector.checkThat(attached.getCapabilities().getBrowserName(), is("firefox"));
+        collector.checkThat("Session is checked out", client1.borrow("grid"), nullValue());
+        collector.checkThat("Identifiers are separate", client1.borrow("other"), nullValue());
+    }
+
+    @Test
+    public void testCloseQuitsIdleSessions() throws IOException {
+        WebDriverBrokerClient client = client();
+        client.giveBack("grid", (RemoteWebDriver) testFactory.createWebDriver("a"));
+        broker.close();
+        collector.checkThat(grid.requests, hasItem("DELETE /wd/hub/session/session1"));
+    }
+
+    @Test
+    public void testMaxIdle() throws Exception {
+        broker.close();
+        broker = new WebDriverBroker(0, TOKEN, gridUrl, 50, TimeUnit.MILLISECONDS);
+        WebDriverBrokerClient client = client();
+        client.giveBack("grid", (RemoteWebDriver) testFactory.createWebDriver("a"));
+        Thread.sleep(100);
+        collector.checkThat(client.borrow("grid"), nullValue());
+        collector.checkThat(grid.requests, hasItem("DELETE /wd/hub/session/session1"));
+    }
+
+    @Test
+    public void testCachesShareSessions() throws IOException {
+        WebDriverCache cache1 = new WebDriverCache();
+        cache1.setBroker(client());
+        WebDriverCache cache2 = new WebDriverCache();
+        cache2.setBroker(client());
+
+        RemoteWebDriver driver1 = (RemoteWebDriver) cache1.getWebDriver(testFactory, "a");
+        cache1.maybeQuitWebDriver(driver1);
+        RemoteWebDriver driver2 = (RemoteWebDriver) cache2.getWebDriver(testFactory, "b");
+        collector.checkThat(driver2.getSessionId(), is(driver1.getSessionId()));
+        collector.checkThat("Session should be reused", created.get(), is(1));
+
+        cache1.quitAll();
+        collector.checkThat("Returned session belongs to the broker", grid.requests,
+                not(hasItem("DELETE /wd/hub/session/session1")));
+        cache2.quitAll();
+        collector.checkThat("Checked out session is quit", grid.requests, hasItem("DELETE /wd/hub/session/session1"));
+    }
+
+    @Test
+    public void testWrongTokenRefused() throws IOException {
+        client().giveBack("grid", (RemoteWebDriver) testFactory.createWebDriver("a"));
+        WebDriverBrokerClient other = new WebDriverBrokerClient(broker.getPort(), "guess", gridUrl);
+        try {
+            other.borrow("grid");
+            collector.addError(new AssertionError("A request without the token must be refused"));
+        } catch (IOException e) {
+            // expected
+        }
+        collector.checkThat(request("BORROW grid"), startsWith("ERROR"));
+        collector.checkThat("The session stays with the broker", client().borrow("grid"), notNullValue());
+    }
+
+    @Test
+    public void testReturnOtherGridRefused() throws IOException {
+        collector.checkThat(request(TOKEN + " RETURN grid " + BrokeredSession.encode("http://evil.example.com:4444/wd/hub")
+                + " session9 " + BrokeredSession.encode("{}")), startsWith("ERROR"));
+        collector.checkThat(client().borrow("grid"), nullValue());
+
+        WebDriverBrokerClient otherGrid = new WebDriverBrokerClient(broker.getPort(), TOKEN, new URL("http://localhost:1/wd/hub"));
+        collector.checkThat("A session of another grid is not shared",
+                otherGrid.giveBack("grid", (RemoteWebDriver) testFactory.createWebDriver("a")), is(false));
+        collector.checkThat(client().borrow("grid"), nullValue());
+    }
+
+    @Test
+    public void testCredentialsNotSent() throws IOException {
+        broker.close();
+        URL withCredentials = new URL("http://user:accessKey@" + gridUrl.getHost() + ":" + gridUrl.getPort() + gridUrl.getPath());
+        broker = new WebDriverBroker(0, TOKEN, withCredentials, 0, TimeUnit.SECONDS);
+        WebDriverBrokerClient client = new WebDriverBrokerClient(broker.getPort(), TOKEN, withCredentials);
+        RemoteWebDriver driver = new AttachedRemoteWebDriver(withCredentials, "session1", DesiredCapabilities.firefox());
+        collector.checkThat(client.giveBack("grid", driver), is(true));
+
+        String response = request(TOKEN + " BORROW grid");
+        collector.checkThat(response, startsWith("SESSION session1 "));
+        collector.checkThat(response, not(containsString("accessKey")));
+    }
+
+    @Test
+    public void testBorrowAttachesToClientGrid() throws IOException {
+        client().giveBack("grid", (RemoteWebDriver) testFactory.createWebDriver("a"));
+        URL sameGrid = new URL("http://user:accessKey@" + gridUrl.getHost() + ":" + gridUrl.getPort() + gridUrl.getPath() + "/");
+        RemoteWebDriver attached = new WebDriverBrokerClient(broker.getPort(), TOKEN, sameGrid).borrow("grid");
+        collector.checkThat(BrokeredSession.addressOf(attached).toString(), is(sameGrid.toString()));
+    }
+}
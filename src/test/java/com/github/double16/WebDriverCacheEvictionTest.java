@@ -0,0 +1,111 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+public class WebDriverCacheEvictionTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    private WebDriverCache cache;
+    private WebDriverFactory testFactory;
+    private AtomicInteger created;
+
+    @Before
+    public void setup() {
+        cache = new WebDriverCache();
+        created = new AtomicInteger();
+
+        testFactory = new WebDriverFactory() {
+            @Override
+            public String getIdentifier() {
+                return "test1";
+            }
+
+            @Override
+            public WebDriver createWebDriver(String testName) throws IOException {
+                created.incrementAndGet();
+                return mock(WebDriver.class, withSettings().defaultAnswer(RETURNS_SMART_NULLS));
+            }
+        };
+    }
+
+    @After
+    public void teardown() {
+        cache.quitAll();
+    }
+
+    @Test
+    public void testDeadSharedDriverReplaced() throws IOException {
+        cache.getEvictionPolicy().setValidateOnBorrow(true);
+        WebDriver driver1 = cache.getWebDriver(testFactory, "a");
+        when(driver1.getWindowHandle()).thenThrow(new WebDriverException("session died"));
+        WebDriver driver2 = cache.getWebDriver(testFactory, "b");
+        collector.checkThat("Dead driver should be replaced", driver2, not(sameInstance(driver1)));
+        verify(driver1, times(1)).quit();
+        WebDriver driver3 = cache.getWebDriver(testFactory, "c");
+        collector.checkThat("Live driver should be kept", driver3, sameInstance(driver2));
+        collector.checkThat(created.get(), is(2));
+    }
+
+    @Test
+    public void testDeadPooledDriverReplaced() throws IOException {
+        cache.setPoolSize(1);
+        cache.getEvictionPolicy().setValidateOnBorrow(true);
+        WebDriver driver1 = cache.getWebDriver(testFactory, "a");
+        cache.maybeQuitWebDriver(driver1);
+        when(driver1.getWindowHandle()).thenThrow(new WebDriverException("session died"));
+        WebDriver driver2 = cache.getWebDriver(testFactory, "b", 1, TimeUnit.SECONDS);
+        collector.checkThat("Dead driver should be replaced", driver2, not(sameInstance(driver1)));
+        verify(driver1, times(1)).quit();
+    }
+
+    @Test
+    public void testNoValidationByDefault() throws IOException {
+        WebDriver driver1 = cache.getWebDriver(testFactory, "a");
+        cache.getWebDriver(testFactory, "b");
+        verify(driver1, never()).getWindowHandle();
+    }
+
+    @Test
+    public void testMaxUses() throws IOException {
+        cache.getEvictionPolicy().setMaxUses(2);
+        WebDriver driver1 = cache.getWebDriver(testFactory, "a");
+        collector.checkThat(cache.getWebDriver(testFactory, "b"), sameInstance(driver1));
+        WebDriver driver2 = cache.getWebDriver(testFactory, "c");
+        collector.checkThat("Driver should be replaced after max uses", driver2, not(sameInstance(driver1)));
+        verify(driver1, times(1)).quit();
+    }
+
+    @Test
+    public void testMaxIdle() throws Exception {
+        cache.setPoolSize(1);
+        cache.getEvictionPolicy().setMaxIdle(50, TimeUnit.MILLISECONDS);
+        WebDriver driver1 = cache.getWebDriver(testFactory, "a");
+        cache.maybeQuitWebDriver(driver1);
+        Thread.sleep(100);
+        WebDriver driver2 = cache.getWebDriver(testFactory, "b");
+        collector.checkThat("Idle driver should be replaced", driver2, not(sameInstance(driver1)));
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        cache.getEvictionPolicy().setMaxAge(50, TimeUnit.MILLISECONDS);
+        WebDriver driver1 = cache.getWebDriver(testFactory, "a");
+        Thread.sleep(100);
+        WebDriver driver2 = cache.getWebDriver(testFactory, "b");
+        collector.checkThat("Old driver should be replaced", driver2, not(sameInstance(driver1)));
+    }
+}
@@ -0,0 +1,213 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.Mockito.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openqa.selenium.WebDriver;
+
+public class WebDriverCachePooledTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    private WebDriverCache cache;
+    private WebDriverFactory testFactory1;
+    private WebDriverFactory testFactory2;
+    private AtomicInteger created;
+
+    @Before
+    public void setup() {
+        cache = new WebDriverCache();
+        cache.setPoolSize(2);
+        created = new AtomicInteger();
+
+        testFactory1 = new WebDriverFactory() {
+            @Override
+            public String getIdentifier() {
+                return "test1";
+            }
+
+            @Override
+            public WebDriver createWebDriver(String testName) throws IOException {
+                created.incrementAndGet();
+                return mock(WebDriver.class, withSettings().defaultAnswer(RETURNS_SMART_NULLS));
+            }
+        };
+
+        testFactory2 = new WebDriverFactory() {
+            @Override
+            public String getIdentifier() {
+                return "test2";
+            }
+
+            @Override
+            public WebDriver createWebDriver(String testName) throws IOException {
+                created.incrementAndGet();
+                return mock(WebDriver.class, withSettings().defaultAnswer(RETURNS_SMART_NULLS));
+            }
+        };
+    }
+
+    @After
+    public void teardown() {
+        cache.quitAll();
+    }
+
+    @Test
+    public void testBorrowIsExclusive() throws IOException {
+        WebDriver driver1a = cache.getWebDriver(testFactory1, "a");
+        WebDriver driver1b = cache.getWebDriver(testFactory1, "b");
+        collector.checkThat("Borrowed drivers must not be shared", driver1a, not(sameInstance(driver1b)));
+    }
+
+    @Test
+    public void testReturnedDriverIsReused() throws IOException {
+        WebDriver driver1a = cache.getWebDriver(testFactory1, "a");
+        cache.maybeQuitWebDriver(driver1a);
+        WebDriver driver1b = cache.getWebDriver(testFactory1, "b");
+        collector.checkThat("Returned driver should be borrowed again", driver1b, sameInstance(driver1a));
+        collector.checkThat(created.get(), is(1));
+        verify(driver1a, never()).quit();
+    }
+
+    @Test(expected = IOException.class)
+    public void testTimedBorrow() throws IOException {
+        cache.getWebDriver(testFactory1, "a");
+        cache.getWebDriver(testFactory1, "b");
+        cache.getWebDriver(testFactory1, "c", 100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testPoolsAreIndependent() throws IOException {
+        cache.getWebDriver(testFactory1, "a");
+        cache.getWebDriver(testFactory1, "b");
+        WebDriver driver2 = cache.getWebDriver(testFactory2, "c", 100, TimeUnit.MILLISECONDS);
+        collector.checkThat(driver2, notNullValue());
+    }
+
+    @Test
+    public void testConcurrentBorrowBoundedByPoolSize() throws Exception {
+        final AtomicInteger checkedOut = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<WebDriver>> results = new ArrayList<Future<WebDriver>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(new Callable<WebDriver>() {
+                    @Override
+                    public WebDriver call() throws Exception {
+                        WebDriver driver = cache.getWebDriver(testFactory1, "concurrent");
+                        int current = checkedOut.incrementAndGet();
+                        int max;
+                        while (current > (max = peak.get()) && !peak.compareAndSet(max, current)) {
+                            // retry
+                        }
+                        Thread.sleep(5);
+                        checkedOut.decrementAndGet();
+                        cache.maybeQuitWebDriver(driver);
+                        return driver;
+                    }
+                }));
+            }
+            for (Future<WebDriver> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        collector.checkThat("Never more drivers than the pool size", created.get(), lessThanOrEqualTo(2));
+        collector.checkThat(created.get(), greaterThan(0));
+        collector.checkThat("Never more drivers checked out than the pool size", peak.get(), lessThanOrEqualTo(2));
+        collector.checkThat(peak.get(), greaterThan(0));
+    }
+
+    @Test
+    public void testGrowExistingPool() throws IOException {
+        cache.getWebDriver(testFactory1, "a");
+        cache.getWebDriver(testFactory1, "b");
+        cache.setPoolSize(3);
+        WebDriver driver = cache.getWebDriver(testFactory1, "c", 100, TimeUnit.MILLISECONDS);
+        collector.checkThat(driver, notNullValue());
+        collector.checkThat(created.get(), is(3));
+    }
+
+    @Test
+    public void testShrinkExistingPool() throws IOException {
+        WebDriver driver1a = cache.getWebDriver(testFactory1, "a");
+        WebDriver driver1b = cache.getWebDriver(testFactory1, "b");
+        cache.setPoolSize(1);
+        cache.maybeQuitWebDriver(driver1a);
+        cache.maybeQuitWebDriver(driver1b);
+        verify(driver1a, times(1)).quit();
+        verify(driver1b, never()).quit();
+        collector.checkThat(cache.getWebDriver(testFactory1, "c"), sameInstance(driver1b));
+        try {
+            cache.getWebDriver(testFactory1, "d", 100, TimeUnit.MILLISECONDS);
+            collector.addError(new AssertionError("The pool should hold one driver"));
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testQuitAllIncludesBorrowed() throws IOException {
+        WebDriver driver1 = cache.getWebDriver(testFactory1, "a");
+        WebDriver driver2 = cache.getWebDriver(testFactory1, "b");
+        cache.maybeQuitWebDriver(driver2);
+        cache.quitAll();
+        verify(driver1, times(1)).quit();
+        verify(driver2, times(1)).quit();
+    }
+
+    @Test
+    public void testQuitAllTimeBounded() throws IOException {
+        WebDriver hung = cache.getWebDriver(testFactory1, "a");
+        WebDriver driver2 = cache.getWebDriver(testFactory2, "b");
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                return null;
+            }
+        }).when(hung).quit();
+        cache.setQuitTimeout(200, TimeUnit.MILLISECONDS);
+        long start = System.currentTimeMillis();
+        cache.quitAll();
+        collector.checkThat("A hung driver should not block quitAll", System.currentTimeMillis() - start < 5000, is(true));
+        verify(driver2, times(1)).quit();
+    }
+
+    @Test
+    public void testResourcesClosedAfterQuitAll() throws IOException {
+        WebDriver driver = cache.getWebDriver(testFactory1, "a");
+        Closeable service = mock(Closeable.class);
+        cache.closeOnQuitAll(service);
+        cache.quitAll();
+        InOrder order = inOrder(driver, service);
+        order.verify(driver).quit();
+        order.verify(service).close();
+
+        cache.quitAll();
+        verify(service, times(2)).close();
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.openqa.selenium.WebDriver;
+
+public class WebDriverCachePrewarmTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    private WebDriverCache cache;
+    private WebDriverFactory testFactory;
+    private AtomicInteger created;
+    private CountDownLatch started;
+
+    @Before
+    public void setup() {
+        cache = new WebDriverCache();
+        created = new AtomicInteger();
+        started = new CountDownLatch(1);
+
+        testFactory = new WebDriverFactory() {
+            @Override
+            public String getIdentifier() {
+                return "test1";
+            }
+
+            @Override
+            public WebDriver createWebDriver(String testName) throws IOException {
+                created.incrementAndGet();
+                started.countDown();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return mock(WebDriver.class, withSettings().defaultAnswer(RETURNS_SMART_NULLS));
+            }
+        };
+    }
+
+    @After
+    public void teardown() {
+        cache.quitAll();
+    }
+
+    @Test
+    public void testPrewarmShared() throws Exception {
+        cache.prewarm(Collections.singleton(testFactory));
+        collector.checkThat("Warm up should start in the background", started.await(5, TimeUnit.SECONDS), is(true));
+        WebDriver driver = cache.getWebDriver(testFactory, "a");
+        collector.checkThat(driver, notNullValue());
+        collector.checkThat("Warmed up driver should be used", created.get(), is(1));
+    }
+
+    @Test
+    public void testPrewarmPooled() throws Exception {
+        cache.setPoolSize(3);
+        cache.prewarm(Collections.singleton(testFactory));
+        cache.prewarm(Collections.singleton(testFactory));
+        WebDriver driver1 = cache.getWebDriver(testFactory, "a");
+        WebDriver driver2 = cache.getWebDriver(testFactory, "b");
+        WebDriver driver3 = cache.getWebDriver(testFactory, "c");
+        collector.checkThat(driver1, not(sameInstance(driver2)));
+        collector.checkThat(driver2, not(sameInstance(driver3)));
+        collector.checkThat("Repeated warm up should not exceed the pool size", created.get(), is(3));
+    }
+
+    @Test
+    public void testPrewarmDisabledCache() throws Exception {
+        cache.setCacheEnabled(false);
+        cache.prewarm(Collections.singleton(testFactory));
+        collector.checkThat(started.await(200, TimeUnit.MILLISECONDS), is(false));
+    }
+
+    @Test
+    public void testQuitAllQuitsWarmedDrivers() throws Exception {
+        cache.prewarm(Collections.singleton(testFactory));
+        WebDriver driver = cache.getWebDriver(testFactory, "a");
+        cache.quitAll();
+        verify(driver, times(1)).quit();
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoAlertPresentException;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+public class WebDriverCacheResetTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    private WebDriverCache cache;
+    private ResettableWebDriverFactory testFactory;
+    private WebDriver resetDriver;
+
+    @Before
+    public void setup() {
+        cache = new WebDriverCache();
+        cache.setResetOnReturn(true);
+
+        testFactory = new ResettableWebDriverFactory() {
+            @Override
+            public String getIdentifier() {
+                return "test1";
+            }
+
+            @Override
+            public WebDriver createWebDriver(String testName) throws IOException {
+                WebDriver driver = mock(WebDriver.class, withSettings().extraInterfaces(JavascriptExecutor.class)
+                        .defaultAnswer(RETURNS_DEEP_STUBS));
+                when(driver.getWindowHandles()).thenReturn(new LinkedHashSet<String>(Arrays.asList("main", "popup")));
+                when(driver.switchTo().alert()).thenThrow(new NoAlertPresentException());
+                return driver;
+            }
+
+            @Override
+            public void resetWebDriver(WebDriver driver) {
+                resetDriver = driver;
+            }
+        };
+    }
+
+    @After
+    public void teardown() {
+        cache.quitAll();
+    }
+
+    @Test
+    public void testResetOnReturn() throws IOException {
+        WebDriver driver = cache.getWebDriver(testFactory, "a");
+        cache.maybeQuitWebDriver(driver);
+        collector.checkThat("Factory reset hook should be called", resetDriver, sameInstance(driver));
+        verify(driver.manage()).deleteAllCookies();
+        verify((JavascriptExecutor) driver).executeScript(anyString());
+        verify(driver).close();
+        verify(driver).get("about:blank");
+        verify(driver, never()).quit();
+        collector.checkThat("Reset driver should be reused", cache.getWebDriver(testFactory, "b"), sameInstance(driver));
+    }
+
+    @Test
+    public void testFailedResetReplacesDriver() throws IOException {
+        cache.setPoolSize(1);
+        WebDriver driver = cache.getWebDriver(testFactory, "a");
+        doThrow(new WebDriverException("session died")).when(driver).get("about:blank");
+        cache.maybeQuitWebDriver(driver);
+        verify(driver).quit();
+        WebDriver replacement = cache.getWebDriver(testFactory, "b");
+        collector.checkThat("Failed reset should free the pool slot", replacement, not(sameInstance(driver)));
+    }
+
+    @Test
+    public void testResetWithoutAlertSupport() throws IOException {
+        WebDriver driver = cache.getWebDriver(testFactory, "a");
+        doThrow(new UnsupportedCommandException("alerts not supported")).when(driver.switchTo()).alert();
+        doThrow(new WebDriverException("storage not supported")).when((JavascriptExecutor) driver).executeScript(anyString());
+        cache.maybeQuitWebDriver(driver);
+        verify(driver).get("about:blank");
+        verify(driver, never()).quit();
+        collector.checkThat("Driver without alert support should be reused", cache.getWebDriver(testFactory, "b"),
+                sameInstance(driver));
+    }
+
+    @Test
+    public void testNoResetByDefault() throws IOException {
+        cache.setResetOnReturn(false);
+        WebDriver driver = cache.getWebDriver(testFactory, "a");
+        cache.maybeQuitWebDriver(driver);
+        collector.checkThat(resetDriver, nullValue());
+        verify(driver, never()).get("about:blank");
+    }
+}
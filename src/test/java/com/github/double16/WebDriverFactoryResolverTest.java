@@ -0,0 +1,144 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+
+public class WebDriverFactoryResolverTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private Callable<WebDriverFactory> available(final WebDriverFactory factory) {
+        return new Callable<WebDriverFactory>() {
+            @Override
+            public WebDriverFactory call() {
+                calls.incrementAndGet();
+                return factory;
+            }
+        };
+    }
+
+    private Callable<WebDriverFactory> unavailable() {
+        return new Callable<WebDriverFactory>() {
+            @Override
+            public WebDriverFactory call() throws IOException {
+                calls.incrementAndGet();
+                throw new WebDriverNotAvailableException("No driver for this OS");
+            }
+        };
+    }
+
+    private Callable<WebDriverFactory> downloadFails() {
+        return new Callable<WebDriverFactory>() {
+            @Override
+            public WebDriverFactory call() throws IOException {
+                calls.incrementAndGet();
+                throw new IOException("Read timed out");
+            }
+        };
+    }
+
+    @Test
+    public void testResolvedConcurrently() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        Callable<WebDriverFactory> waitForOther = new Callable<WebDriverFactory>() {
+            @Override
+            public WebDriverFactory call() throws Exception {
+                started.countDown();
+                if (!started.await(5, TimeUnit.SECONDS)) {
+                    throw new IOException("Not resolved concurrently");
+                }
+                return mock(WebDriverFactory.class);
+            }
+        };
+        WebDriverFactoryResolver resolver = new WebDriverFactoryResolver(null);
+        Future<WebDriverFactory> first = resolver.resolve("first", waitForOther);
+        Future<WebDriverFactory> second = resolver.resolve("second", waitForOther);
+        collector.checkThat(WebDriverFactoryResolver.get(first), notNullValue());
+        collector.checkThat(WebDriverFactoryResolver.get(second), notNullValue());
+    }
+
+    @Test
+    public void testResolvedOncePerKey() throws IOException {
+        WebDriverFactory factory = mock(WebDriverFactory.class);
+        WebDriverFactoryResolver resolver = new WebDriverFactoryResolver(null);
+        collector.checkThat(WebDriverFactoryResolver.get(resolver.resolve("chrome", available(factory))), sameInstance(factory));
+        collector.checkThat(WebDriverFactoryResolver.get(resolver.resolve("chrome", available(factory))), sameInstance(factory));
+        collector.checkThat(calls.get(), is(1));
+    }
+
+    @Test
+    public void testFailureRememberedInJvm() {
+        WebDriverFactoryResolver resolver = new WebDriverFactoryResolver(null);
+        for (int i = 0; i < 2; i++) {
+            try {
+                WebDriverFactoryResolver.get(resolver.resolve("ie", unavailable()));
+                collector.addError(new AssertionError("Expected IOException"));
+            } catch (IOException e) {
+                collector.checkThat(e.getMessage(), containsString("No driver for this OS"));
+            }
+        }
+        collector.checkThat(calls.get(), is(1));
+    }
+
+    @Test
+    public void testFailureRememberedInBuild() throws IOException {
+        File cacheFile = new File(folder.getRoot(), "tmp/resolution.properties");
+        try {
+            WebDriverFactoryResolver.get(new WebDriverFactoryResolver(cacheFile).resolve("ie", unavailable()));
+        } catch (IOException e) {
+            // expected
+        }
+        collector.checkThat(cacheFile.isFile(), is(true));
+
+        // another JVM of the same build
+        try {
+            WebDriverFactoryResolver.get(new WebDriverFactoryResolver(cacheFile).resolve("ie", unavailable()));
+            collector.addError(new AssertionError("Expected IOException"));
+        } catch (IOException e) {
+            collector.checkThat(e.getMessage(), containsString("No driver for this OS"));
+        }
+        collector.checkThat(calls.get(), is(1));
+
+        WebDriverFactory factory = mock(WebDriverFactory.class);
+        collector.checkThat(WebDriverFactoryResolver.get(new WebDriverFactoryResolver(cacheFile).resolve("chrome",
+                available(factory))), sameInstance(factory));
+    }
+
+    @Test
+    public void testTransientFailureRetried() throws IOException {
+        File cacheFile = new File(folder.getRoot(), "tmp/resolution.properties");
+        WebDriverFactoryResolver resolver = new WebDriverFactoryResolver(cacheFile);
+        try {
+            WebDriverFactoryResolver.get(resolver.resolve("chrome", downloadFails()));
+            collector.addError(new AssertionError("Expected IOException"));
+        } catch (IOException e) {
+            collector.checkThat(e.getMessage(), containsString("Read timed out"));
+        }
+        collector.checkThat("Only unavailable browsers are recorded for the build", cacheFile.isFile(), is(false));
+
+        WebDriverFactory factory = mock(WebDriverFactory.class);
+        collector.checkThat("Tried again in this JVM", WebDriverFactoryResolver.get(resolver.resolve("chrome",
+                available(factory))), sameInstance(factory));
+        collector.checkThat("Tried again in another JVM", WebDriverFactoryResolver.get(new WebDriverFactoryResolver(cacheFile)
+                .resolve("chrome", available(factory))), sameInstance(factory));
+        collector.checkThat(calls.get(), is(3));
+    }
+}
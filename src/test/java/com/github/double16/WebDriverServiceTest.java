@@ -0,0 +1,43 @@
+package com.github.double16;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+public class WebDriverServiceTest {
+    @Rule
+    public ErrorCollector collector = new ErrorCollector();
+
+    @After
+    public void teardown() {
+        System.clearProperty("functionalTests.headless");
+    }
+
+    @Test
+    public void testFirefoxIdentifier() throws IOException {
+        collector.checkThat(new WebDriverService().createFirefoxDriverFactory().getIdentifier(), is("FireFox"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testHeadlessFirefoxUnavailable() throws IOException {
+        System.setProperty("functionalTests.headless", "true");
+        new WebDriverService().createFirefoxDriverFactory();
+    }
+
+    @Test
+    public void testVersionAtLeast() {
+        collector.checkThat(WebDriverService.isVersionAtLeast("59.0.3071.115", "59"), is(true));
+        collector.checkThat(WebDriverService.isVersionAtLeast("58.0.3029.110", "59"), is(false));
+        collector.checkThat(WebDriverService.isVersionAtLeast("2.30.477691 (0925e0f8a2a9dc1d4cc8fdc4cd5a4cd8a76e0d9d)", "2.29"), is(true));
+        collector.checkThat(WebDriverService.isVersionAtLeast("2.15.322448 (a3ea7c5da7bb4a7b5ea6a8e1e1bed3ec7e0e4b68)", "2.29"), is(false));
+        collector.checkThat(WebDriverService.isVersionAtLeast("3.0", "2.29"), is(true));
+        collector.checkThat(WebDriverService.isVersionAtLeast("2", "2.29"), is(false));
+        collector.checkThat(WebDriverService.isVersionAtLeast("", "59"), is(false));
+        collector.checkThat(WebDriverService.isVersionAtLeast(null, "59"), is(false));
+    }
+}